@@ -0,0 +1,31 @@
+package capital.spatium.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.openjdk.jmh.Main;
+
+/**
+ * Runs the benchmarks with the JMH command line, writing the results as JSON
+ * to jmh-result.json unless another result format or file is given. The GC
+ * profiler runs unless other profilers are given, so every result reports
+ * allocations per operation (gc.alloc.rate.norm) next to its throughput.
+ */
+public class BenchmarkMain {
+  public static void main(String[] args) throws Exception {
+    List<String> options = new ArrayList<String>(Arrays.asList(args));
+    if (!options.contains("-rf")) {
+      options.add("-rf");
+      options.add("json");
+    }
+    if (!options.contains("-rff")) {
+      options.add("-rff");
+      options.add("jmh-result.json");
+    }
+    if (!options.contains("-prof")) {
+      options.add("-prof");
+      options.add("gc");
+    }
+    Main.main(options.toArray(new String[0]));
+  }
+}
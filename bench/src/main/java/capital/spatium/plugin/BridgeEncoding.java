@@ -0,0 +1,77 @@
+package capital.spatium.plugin;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+
+/**
+ * What crosses the Cordova bridge, encoded the way the native side encodes
+ * it for the WebView: JSON as text, binary as base64 and multipart results
+ * as their length-prefixed parts. Also keeps the code paths the plugin has
+ * since replaced, to benchmark against.
+ */
+final class BridgeEncoding {
+  static final String LEGACY_DISPATCH = "javascript:cordova.plugins.bluetooth.BluetoothSocket.dispatchEvent(%s);";
+
+  private BridgeEncoding() {
+  }
+
+  static String encode(PluginResult result) {
+    StringBuilder message = new StringBuilder();
+    append(message, result);
+    return message.toString();
+  }
+
+  private static void append(StringBuilder message, PluginResult result) {
+    int parts = result.getMultipartMessagesSize();
+    if (parts > 0) {
+      message.append('M');
+      for (int i = 0; i < parts; i++) {
+        String part = encode(result.getMultipartMessage(i));
+        message.append(part.length()).append(' ').append(part);
+      }
+      return;
+    }
+
+    Object value = result.getValue();
+    if (value instanceof byte[]) {
+      message.append('A').append(Base64.getEncoder().encodeToString((byte[]) value));
+    } else {
+      message.append('J').append(value);
+    }
+  }
+
+  /**
+   * The boxed byte list that received data was wrapped in before it became
+   * a JSONArray.
+   */
+  static List<Byte> toByteList(byte[] array) {
+    List<Byte> byteList = new ArrayList<Byte>(array.length);
+    for (byte anArray : array) {
+      byteList.add(anArray);
+    }
+    return byteList;
+  }
+
+  /**
+   * The JSON arguments of a write call carrying the data as an array of
+   * numbers, as JS sent it before writes used ArrayBuffers.
+   */
+  static String legacyWriteArgs(String socketKey, byte[] data) {
+    JSONArray array = new JSONArray();
+    for (byte value : data) {
+      array.put(value & 0xff);
+    }
+    return new JSONArray().put(socketKey).put(array).toString();
+  }
+
+  /**
+   * The JSON arguments of a write call carrying an ArrayBuffer, which the
+   * bridge sends as base64.
+   */
+  static String writeArgs(String socketKey, byte[] data) {
+    return new JSONArray().put(socketKey).put(Base64.getEncoder().encodeToString(data)).toString();
+  }
+}
@@ -0,0 +1,56 @@
+package capital.spatium.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Running total of bytes that arrived on another thread, which a benchmark
+ * or test waits on.
+ */
+class ByteCounter {
+  private static final long TIMEOUT_MS = 30 * 1000;
+
+  private long total = 0;
+
+  synchronized void add(long bytes) {
+    total += bytes;
+    notifyAll();
+  }
+
+  synchronized long get() {
+    return total;
+  }
+
+  synchronized void await(long target) throws InterruptedException, TimeoutException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (total < target) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        throw new TimeoutException("Received " + total + " of " + target + " bytes");
+      }
+      wait(remaining);
+    }
+  }
+
+  /**
+   * Starts a daemon thread that reads the stream to its end, counting bytes.
+   */
+  Thread drain(final InputStream input) {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        byte[] buffer = new byte[64 * 1024];
+        try {
+          int count;
+          while ((count = input.read(buffer, 0, buffer.length)) >= 0) {
+            add(count);
+          }
+        } catch (IOException ignored) {}
+      }
+    }, "ByteCounter-drain");
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+}
@@ -0,0 +1,84 @@
+package capital.spatium.plugin;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Deflate over the loopback transport: 1 MB written in chunks of the given
+ * size, each followed by the sync flush a write queue batch ends with, and
+ * inflated on the other side.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+  static final int TRANSFER_SIZE = 1024 * 1024;
+
+  @Param({ "64", "1024", "16384", "65536" })
+  public int chunkSize;
+
+  @Param({ "text", "random" })
+  public String data;
+
+  @Param({ "none", "deflate" })
+  public String compression;
+
+  private LoopbackPair pair;
+  private OutputStream output;
+  private byte[] chunk;
+  private final ByteCounter received = new ByteCounter();
+  private long expected = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    pair = LoopbackPair.openCompressed(LinkModel.UNLIMITED, new JSONObject().put("compression", compression));
+    output = pair.client.getOutputStream();
+    InputStream input = pair.server.getInputStream();
+    received.drain(input);
+
+    chunk = new byte[chunkSize];
+    if ("random".equals(data)) {
+      new Random(42).nextBytes(chunk);
+    } else {
+      byte[] text = "{\"type\":\"reading\",\"sensor\":17,\"value\":23.5}\n".getBytes("UTF-8");
+      for (int i = 0; i < chunk.length; i++) {
+        chunk[i] = text[i % text.length];
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    pair.close();
+  }
+
+  @Benchmark
+  public long transfer() throws Exception {
+    for (int sent = 0; sent < TRANSFER_SIZE; sent += chunkSize) {
+      output.write(chunk);
+      output.flush();
+    }
+    expected += TRANSFER_SIZE;
+    received.await(expected);
+    return expected;
+  }
+}
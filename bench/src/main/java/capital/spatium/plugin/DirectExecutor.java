@@ -0,0 +1,14 @@
+package capital.spatium.plugin;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks on the calling thread, for paths whose executor the benchmark
+ * or test never exercises or wants to run inline.
+ */
+class DirectExecutor implements Executor {
+  @Override
+  public void execute(Runnable task) {
+    task.run();
+  }
+}
@@ -0,0 +1,99 @@
+package capital.spatium.plugin;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Event dispatch: 1024 received chunks of the given size delivered to the
+ * WebView, batched into multipart results on the kept callback and encoded
+ * for the bridge, or serialized one by one into loadUrl calls on the UI
+ * thread the way dispatchEvent used to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventChannelBenchmark {
+  static final int EVENTS = 1024;
+
+  @Param({ "64", "1024", "16384", "65536" })
+  public int chunkSize;
+
+  private EventChannel channel;
+  private ExecutorService uiThread;
+  private byte[] chunk;
+  private final ByteCounter delivered = new ByteCounter();
+  private final AtomicLong encodedLength = new AtomicLong();
+  private long expected = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    channel = new EventChannel();
+    channel.setCallback(new CallbackContext("events", null) {
+      @Override
+      public void sendPluginResult(PluginResult pluginResult) {
+        encodedLength.addAndGet(BridgeEncoding.encode(pluginResult).length());
+        delivered.add(pluginResult.getMultipartMessagesSize() / 2);
+      }
+    });
+    uiThread = Executors.newSingleThreadExecutor();
+    chunk = new byte[chunkSize];
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    channel.shutdown();
+    uiThread.shutdownNow();
+  }
+
+  @Benchmark
+  public long dispatch() throws Exception {
+    for (int i = 0; i < EVENTS; i++) {
+      channel.postData("bench", chunk);
+    }
+    expected += EVENTS;
+    delivered.await(expected);
+    return expected;
+  }
+
+  @Benchmark
+  public long loadUrl() throws Exception {
+    for (int i = 0; i < EVENTS; i++) {
+      final JSONObject event = new JSONObject();
+      event.put("type", "DataReceived");
+      event.put("data", new JSONArray(BridgeEncoding.toByteList(chunk)));
+      event.put("socketKey", "bench");
+      uiThread.execute(new Runnable() {
+        @Override
+        public void run() {
+          encodedLength.addAndGet(String.format(BridgeEncoding.LEGACY_DISPATCH, event.toString()).length());
+          delivered.add(1);
+        }
+      });
+    }
+    expected += EVENTS;
+    delivered.await(expected);
+    return expected;
+  }
+}
@@ -0,0 +1,122 @@
+package capital.spatium.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * File streaming: a temp file of the given size sent with the write queue's
+ * sendFile path and written to another temp file by the read loop's
+ * receiveToFile path, until both transfers have completed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileTransferBenchmark {
+  @Param({ "1048576", "16777216" })
+  public int fileSize;
+
+  private LoopbackPair pair;
+  private ExecutorService writerExecutor;
+  private Connection sender;
+  private Connection receiver;
+  private Thread readerThread;
+  private File source;
+  private File target;
+  private final ByteCounter completed = new ByteCounter();
+  private volatile String error = null;
+  private long expected = 0;
+
+  private final CallbackContext callbackContext = new CallbackContext("file", null) {
+    @Override
+    public void sendPluginResult(PluginResult pluginResult) {
+      if (pluginResult.getKeepCallback()) {
+        return;
+      }
+      if (pluginResult.getStatus() != PluginResult.Status.OK.ordinal()) {
+        error = String.valueOf(pluginResult.getValue());
+      }
+      completed.add(1);
+    }
+  };
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    source = File.createTempFile("bench-send", ".bin");
+    target = File.createTempFile("bench-receive", ".bin");
+    byte[] data = new byte[fileSize];
+    new Random(1).nextBytes(data);
+    FileOutputStream output = new FileOutputStream(source);
+    try {
+      output.write(data);
+    } finally {
+      output.close();
+    }
+
+    pair = LoopbackPair.open(LinkModel.UNLIMITED);
+    BufferPool bufferPool = new BufferPool(4 * 1024 * 1024);
+    writerExecutor = Executors.newCachedThreadPool();
+    sender = new Connection("sender", pair.client, bufferPool, writerExecutor, null);
+    receiver = new Connection("receiver", pair.server, bufferPool, new DirectExecutor(), null);
+    readerThread = new Thread(new SocketReader(receiver, new SocketReader.Listener() {
+      @Override
+      public void onData(Connection connection, byte[] data) {
+      }
+
+      @Override
+      public void onClosed(Connection connection, boolean hasError) {
+      }
+    }), "FileTransferBenchmark-reader");
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    sender.close();
+    receiver.close();
+    pair.close();
+    readerThread.join(1000);
+    writerExecutor.shutdownNow();
+    source.delete();
+    target.delete();
+  }
+
+  @Benchmark
+  public long transfer() throws Exception {
+    FileTransfer receive = FileTransfer.openReceive(target, fileSize, 0, callbackContext);
+    if (!receiver.setFileReceiver(receive)) {
+      throw new IOException("Already receiving a file");
+    }
+    sender.getWriteQueue().enqueue(FileTransfer.openSend(source, 0, -1, 0, callbackContext));
+
+    expected += 2;
+    completed.await(expected);
+    if (error != null) {
+      throw new IOException(error);
+    }
+    return expected;
+  }
+}
@@ -0,0 +1,65 @@
+package capital.spatium.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reassembly of 1 MB of frames of the given size from reads of the given
+ * size, without any I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameCodecBenchmark {
+  static final int TRANSFER_SIZE = 1024 * 1024;
+
+  @Param({ "64", "1024", "16384", "65536" })
+  public int frameSize;
+
+  @Param({ "990", "16384" })
+  public int readSize;
+
+  private byte[] stream;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    byte[] header = FrameCodec.encodeHeader(frameSize);
+    byte[] payload = new byte[frameSize];
+    for (int size = 0; size < TRANSFER_SIZE; size += frameSize) {
+      encoded.write(header, 0, header.length);
+      encoded.write(payload, 0, payload.length);
+    }
+    stream = encoded.toByteArray();
+  }
+
+  @Benchmark
+  public void decode(final Blackhole blackhole) throws Exception {
+    FrameCodec.Decoder decoder = new FrameCodec.Decoder();
+    FrameCodec.FrameListener listener = new FrameCodec.FrameListener() {
+      @Override
+      public void onFrame(byte[] frame) {
+        blackhole.consume(frame);
+      }
+    };
+    for (int offset = 0; offset < stream.length; offset += readSize) {
+      decoder.feed(stream, offset, Math.min(readSize, stream.length - offset), FrameCodec.DEFAULT_MAX_FRAME_SIZE, listener);
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package capital.spatium.plugin;
+
+/**
+ * Characteristics of a simulated link: bandwidth in bytes per second
+ * (0 for unlimited), one-way latency, maximum transmission unit and the
+ * number of bytes buffered in flight before the sender blocks.
+ */
+class LinkModel {
+  static final LinkModel UNLIMITED = new LinkModel(0, 0, 64 * 1024, 1024 * 1024);
+  static final LinkModel RFCOMM = new LinkModel(40 * 1024, 20, 990, 64 * 1024);
+
+  final long bandwidth;
+  final long latencyMs;
+  final int mtu;
+  final int windowSize;
+
+  LinkModel(long bandwidth, long latencyMs, int mtu, int windowSize) {
+    this.bandwidth = Math.max(0, bandwidth);
+    this.latencyMs = Math.max(0, latencyMs);
+    this.mtu = Math.max(1, mtu);
+    this.windowSize = Math.max(this.mtu, windowSize);
+  }
+
+  long transmitNanos(int bytes) {
+    return bandwidth == 0 ? 0 : bytes * 1000000000L / bandwidth;
+  }
+}
@@ -0,0 +1,69 @@
+package capital.spatium.plugin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.json.JSONObject;
+
+/**
+ * Both ends of one loopback connection, with the same handshakes the plugin
+ * runs on open and accept.
+ */
+class LoopbackPair {
+  static final UUID SERVICE_UUID = UUID.fromString("995f40e0-ce68-4d24-8f68-f49d2b9d661f");
+
+  final LoopbackTransport transport;
+  final TransportServerSocket serverSocket;
+  final TransportSocket client;
+  final TransportSocket server;
+
+  private LoopbackPair(LoopbackTransport transport, TransportServerSocket serverSocket,
+                       TransportSocket client, TransportSocket server) {
+    this.transport = transport;
+    this.serverSocket = serverSocket;
+    this.client = client;
+    this.server = server;
+  }
+
+  static LoopbackPair open(LinkModel linkModel) throws IOException {
+    LoopbackTransport transport = new LoopbackTransport("00:11:22:33:44:55", linkModel);
+    TransportServerSocket serverSocket = transport.listen("Loopback", SERVICE_UUID);
+    TransportSocket client = transport.connect("66:77:88:99:AA:BB", SERVICE_UUID, new Transport.ConnectListener() {
+      @Override
+      public void onConnecting(Closeable socket) {
+      }
+    });
+    return new LoopbackPair(transport, serverSocket, client, serverSocket.accept());
+  }
+
+  /**
+   * Opens a pair and negotiates compression on it. Both handshakes wait for
+   * the peer, so the server side runs on a thread of its own.
+   */
+  static LoopbackPair openCompressed(LinkModel linkModel, final JSONObject options) throws Exception {
+    final LoopbackPair pair = open(linkModel);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<TransportSocket> server = executor.submit(new Callable<TransportSocket>() {
+        @Override
+        public TransportSocket call() throws IOException {
+          return CompressedSocket.negotiate(pair.server, options);
+        }
+      });
+      TransportSocket client = CompressedSocket.negotiate(pair.client, options);
+      return new LoopbackPair(pair.transport, pair.serverSocket, client, server.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  void close() throws IOException {
+    client.close();
+    server.close();
+    serverSocket.close();
+  }
+}
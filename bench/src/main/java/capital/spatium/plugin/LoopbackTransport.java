@@ -0,0 +1,287 @@
+package capital.spatium.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * In-process transport connecting clients to servers listening on the same
+ * service UUID. Each direction is a pipe shaped by a {@link LinkModel}, so the
+ * read loop, write path and accept loop can run off-device.
+ */
+class LoopbackTransport implements Transport {
+  private final ConcurrentHashMap<UUID, LoopbackServerSocket> servers = new ConcurrentHashMap<UUID, LoopbackServerSocket>();
+  private final String localAddress;
+  private final LinkModel linkModel;
+
+  LoopbackTransport(String localAddress, LinkModel linkModel) {
+    this.localAddress = localAddress;
+    this.linkModel = linkModel;
+  }
+
+  @Override
+  public TransportSocket connect(String address, UUID serviceUuid, ConnectListener listener) throws IOException {
+    LoopbackServerSocket server = servers.get(serviceUuid);
+    if (server == null) {
+      throw new IOException("Connection refused");
+    }
+
+    Pipe clientToServer = new Pipe(linkModel);
+    Pipe serverToClient = new Pipe(linkModel);
+    LoopbackSocket client = new LoopbackSocket(serverToClient, clientToServer, "Loopback", address);
+    LoopbackSocket peer = new LoopbackSocket(clientToServer, serverToClient, "Loopback", localAddress);
+    listener.onConnecting(client);
+    server.offer(peer);
+    return client;
+  }
+
+  @Override
+  public TransportServerSocket listen(String serviceName, UUID serviceUuid) throws IOException {
+    LoopbackServerSocket server = new LoopbackServerSocket(serviceUuid);
+    if (servers.putIfAbsent(serviceUuid, server) != null) {
+      throw new IOException("Service already registered");
+    }
+    return server;
+  }
+
+  private class LoopbackServerSocket implements TransportServerSocket {
+    private final UUID serviceUuid;
+    private final LinkedBlockingQueue<LoopbackSocket> pending = new LinkedBlockingQueue<LoopbackSocket>();
+    private volatile boolean closed = false;
+
+    LoopbackServerSocket(UUID serviceUuid) {
+      this.serviceUuid = serviceUuid;
+    }
+
+    void offer(LoopbackSocket socket) throws IOException {
+      if (closed) {
+        throw new IOException("Connection refused");
+      }
+      pending.add(socket);
+    }
+
+    @Override
+    public TransportSocket accept() throws IOException {
+      try {
+        LoopbackSocket socket = pending.take();
+        if (closed) {
+          throw new IOException("Server socket closed");
+        }
+        return socket;
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      servers.remove(serviceUuid, this);
+      // Wake up a blocked accept()
+      pending.add(new LoopbackSocket(new Pipe(linkModel), new Pipe(linkModel), null, null));
+    }
+  }
+
+  static class LoopbackSocket implements TransportSocket {
+    private final Pipe input;
+    private final Pipe output;
+    private final String remoteName;
+    private final String remoteAddress;
+
+    LoopbackSocket(Pipe input, Pipe output, String remoteName, String remoteAddress) {
+      this.input = input;
+      this.output = output;
+      this.remoteName = remoteName;
+      this.remoteAddress = remoteAddress;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return input.inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return output.outputStream;
+    }
+
+    @Override
+    public String getRemoteName() {
+      return remoteName;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+      return remoteAddress;
+    }
+
+    @Override
+    public void close() {
+      input.close();
+      output.close();
+    }
+  }
+
+  /**
+   * One direction of a loopback link. Writes are split into MTU sized
+   * segments which become readable once their transmit and propagation time
+   * has elapsed. Writers block while a full window is in flight.
+   */
+  static class Pipe {
+    private final LinkModel linkModel;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+    private int bytesInFlight = 0;
+    private long lastDepartureNanos = 0;
+    private boolean closed = false;
+
+    final InputStream inputStream = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        return Pipe.this.read(buffer, offset, length);
+      }
+
+      @Override
+      public int available() {
+        return Pipe.this.available();
+      }
+
+      @Override
+      public void close() {
+        Pipe.this.close();
+      }
+    };
+
+    final OutputStream outputStream = new OutputStream() {
+      @Override
+      public void write(int value) throws IOException {
+        write(new byte[] { (byte) value }, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] buffer, int offset, int length) throws IOException {
+        Pipe.this.write(buffer, offset, length);
+      }
+
+      @Override
+      public void close() {
+        Pipe.this.close();
+      }
+    };
+
+    Pipe(LinkModel linkModel) {
+      this.linkModel = linkModel;
+    }
+
+    private synchronized void write(byte[] buffer, int offset, int length) throws IOException {
+      while (length > 0) {
+        int size = Math.min(length, linkModel.mtu);
+        try {
+          while (!closed && bytesInFlight + size > linkModel.windowSize) {
+            wait();
+          }
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+        if (closed) {
+          throw new IOException("Broken pipe");
+        }
+
+        byte[] data = new byte[size];
+        System.arraycopy(buffer, offset, data, 0, size);
+
+        long now = System.nanoTime();
+        long departure = Math.max(now, lastDepartureNanos) + linkModel.transmitNanos(size);
+        lastDepartureNanos = departure;
+        segments.add(new Segment(data, departure + linkModel.latencyMs * 1000000L));
+        bytesInFlight += size;
+        notifyAll();
+
+        offset += size;
+        length -= size;
+      }
+    }
+
+    private synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+
+      try {
+        while (true) {
+          Segment head = segments.peek();
+          if (head == null) {
+            if (closed) {
+              return -1;
+            }
+            wait();
+            continue;
+          }
+
+          long delay = head.deliverAtNanos - System.nanoTime();
+          if (delay > 0) {
+            wait(delay / 1000000L, (int) (delay % 1000000L));
+            continue;
+          }
+          break;
+        }
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+
+      int read = 0;
+      long now = System.nanoTime();
+      Segment segment;
+      while (read < length && (segment = segments.peek()) != null && segment.deliverAtNanos <= now) {
+        int size = Math.min(length - read, segment.data.length - segment.offset);
+        System.arraycopy(segment.data, segment.offset, buffer, offset + read, size);
+        segment.offset += size;
+        read += size;
+        if (segment.offset == segment.data.length) {
+          segments.poll();
+          bytesInFlight -= segment.data.length;
+        }
+      }
+      notifyAll();
+      return read;
+    }
+
+    private synchronized int available() {
+      long now = System.nanoTime();
+      int available = 0;
+      for (Segment segment : segments) {
+        if (segment.deliverAtNanos > now) {
+          break;
+        }
+        available += segment.data.length - segment.offset;
+      }
+      return available;
+    }
+
+    synchronized void close() {
+      closed = true;
+      notifyAll();
+    }
+  }
+
+  private static class Segment {
+    private final byte[] data;
+    private final long deliverAtNanos;
+    private int offset = 0;
+
+    Segment(byte[] data, long deliverAtNanos) {
+      this.data = data;
+      this.deliverAtNanos = deliverAtNanos;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package capital.spatium.plugin;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Receive path: the peer writes 1 MB in chunks of the given size and the
+ * read loop delivers it, as raw reads or as whole frames.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadLoopBenchmark {
+  static final int TRANSFER_SIZE = 1024 * 1024;
+
+  @Param({ "64", "1024", "16384", "65536" })
+  public int chunkSize;
+
+  @Param({ "false", "true" })
+  public boolean framing;
+
+  private LoopbackPair pair;
+  private Connection connection;
+  private Thread readerThread;
+  private OutputStream output;
+  private byte[] header;
+  private byte[] chunk;
+  private final ByteCounter received = new ByteCounter();
+  private long expected = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    pair = LoopbackPair.open(LinkModel.UNLIMITED);
+    connection = new Connection("bench", pair.server, new BufferPool(4 * 1024 * 1024), new DirectExecutor(), null);
+    connection.setOptions(new JSONObject().put("framing", framing));
+
+    readerThread = new Thread(new SocketReader(connection, new SocketReader.Listener() {
+      @Override
+      public void onData(Connection connection, byte[] data) {
+        received.add(data.length);
+      }
+
+      @Override
+      public void onClosed(Connection connection, boolean hasError) {
+      }
+    }), "ReadLoopBenchmark-reader");
+    readerThread.setDaemon(true);
+    readerThread.start();
+
+    output = pair.client.getOutputStream();
+    header = FrameCodec.encodeHeader(chunkSize);
+    chunk = new byte[chunkSize];
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    connection.close();
+    pair.close();
+    readerThread.join(1000);
+  }
+
+  @Benchmark
+  public long transfer() throws Exception {
+    for (int sent = 0; sent < TRANSFER_SIZE; sent += chunkSize) {
+      if (framing) {
+        output.write(header);
+      }
+      output.write(chunk);
+    }
+    expected += TRANSFER_SIZE;
+    received.await(expected);
+    return expected;
+  }
+}
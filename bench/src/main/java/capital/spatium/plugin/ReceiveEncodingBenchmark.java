@@ -0,0 +1,68 @@
+package capital.spatium.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Receive encoding: one received chunk of the given size turned into what
+ * the WebView gets, as a DataReceived event with the bytes boxed into a
+ * JSONArray and passed to loadUrl, or as the event and ArrayBuffer parts
+ * that EventChannel.postData batches. Run with -prof gc for allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceiveEncodingBenchmark {
+  @Param({ "64", "1024", "16384", "65536" })
+  public int chunkSize;
+
+  private byte[] chunk;
+
+  @Setup
+  public void setUp() {
+    chunk = new byte[chunkSize];
+    new Random(1).nextBytes(chunk);
+  }
+
+  @Benchmark
+  public String jsonArray() throws Exception {
+    JSONObject event = new JSONObject();
+    event.put("type", "DataReceived");
+    event.put("data", new JSONArray(BridgeEncoding.toByteList(chunk)));
+    event.put("socketKey", "bench");
+    return String.format(BridgeEncoding.LEGACY_DISPATCH, event.toString());
+  }
+
+  @Benchmark
+  public String binary() throws Exception {
+    JSONObject event = new JSONObject();
+    event.put("type", "DataReceived");
+    event.put("socketKey", "bench");
+    event.put("binary", true);
+    event.put("channel", EventChannel.CHANNEL_SOCKET);
+
+    List<PluginResult> parts = new ArrayList<PluginResult>(2);
+    parts.add(new PluginResult(PluginResult.Status.OK, event));
+    parts.add(new PluginResult(PluginResult.Status.OK, chunk));
+    return BridgeEncoding.encode(new PluginResult(PluginResult.Status.OK, parts));
+  }
+}
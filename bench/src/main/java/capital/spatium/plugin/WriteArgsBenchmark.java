@@ -0,0 +1,100 @@
+package capital.spatium.plugin;
+
+import java.io.DataOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.cordova.CordovaArgs;
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Write arguments: 1 MB written in calls of the given size, each parsed
+ * from its JSON arguments as the bridge hands them over. The data arrives
+ * as an array of numbers copied into a new byte[] and written through a
+ * new DataOutputStream per call, or as an ArrayBuffer written through the
+ * connection's kept output stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteArgsBenchmark {
+  static final int TRANSFER_SIZE = 1024 * 1024;
+
+  @Param({ "64", "1024", "16384", "65536" })
+  public int chunkSize;
+
+  private LoopbackPair pair;
+  private Connection connection;
+  private String legacyArgs;
+  private String args;
+  private final ByteCounter received = new ByteCounter();
+  private long expected = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    pair = LoopbackPair.open(LinkModel.UNLIMITED);
+    connection = new Connection("bench", pair.client, new BufferPool(4 * 1024 * 1024), new DirectExecutor(), null);
+    received.drain(pair.server.getInputStream());
+
+    byte[] chunk = new byte[chunkSize];
+    new Random(1).nextBytes(chunk);
+    legacyArgs = BridgeEncoding.legacyWriteArgs("bench", chunk);
+    args = BridgeEncoding.writeArgs("bench", chunk);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    connection.close();
+    pair.close();
+  }
+
+  @Benchmark
+  public long jsonArray() throws Exception {
+    for (int sent = 0; sent < TRANSFER_SIZE; sent += chunkSize) {
+      CordovaArgs cordovaArgs = new CordovaArgs(new JSONArray(legacyArgs));
+      JSONArray data = cordovaArgs.getJSONArray(1);
+      byte[] dataBuffer = new byte[data.length()];
+      for (int i = 0; i < dataBuffer.length; i++) {
+        dataBuffer[i] = (byte) data.getInt(i);
+      }
+
+      DataOutputStream output = new DataOutputStream(pair.client.getOutputStream());
+      output.write(dataBuffer);
+      output.flush();
+    }
+    expected += TRANSFER_SIZE;
+    received.await(expected);
+    return expected;
+  }
+
+  @Benchmark
+  public long arrayBuffer() throws Exception {
+    for (int sent = 0; sent < TRANSFER_SIZE; sent += chunkSize) {
+      CordovaArgs cordovaArgs = new CordovaArgs(new JSONArray(args));
+      byte[] dataBuffer = cordovaArgs.getArrayBuffer(1);
+
+      OutputStream output = connection.getOutputStream();
+      output.write(dataBuffer);
+      output.flush();
+    }
+    expected += TRANSFER_SIZE;
+    received.await(expected);
+    return expected;
+  }
+}
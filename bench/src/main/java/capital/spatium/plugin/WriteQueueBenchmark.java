@@ -0,0 +1,80 @@
+package capital.spatium.plugin;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Send path: 1 MB queued in writes of the given size, coalesced and drained
+ * by the write queue until the peer has read it all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteQueueBenchmark {
+  static final int TRANSFER_SIZE = 1024 * 1024;
+
+  @Param({ "64", "1024", "16384", "65536" })
+  public int chunkSize;
+
+  @Param({ "false", "true" })
+  public boolean framing;
+
+  private LoopbackPair pair;
+  private ExecutorService writerExecutor;
+  private Connection connection;
+  private byte[][] parts;
+  private final ByteCounter received = new ByteCounter();
+  private long expected = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    pair = LoopbackPair.open(LinkModel.UNLIMITED);
+    writerExecutor = Executors.newCachedThreadPool();
+    connection = new Connection("bench", pair.client, new BufferPool(4 * 1024 * 1024), writerExecutor,
+            new WriteQueue.Listener() {
+              @Override
+              public void onDrain(String socketKey, long bufferedAmount) {
+              }
+            });
+    connection.setOptions(new JSONObject()
+            .put("framing", framing)
+            .put("writeQueueLimit", 2 * TRANSFER_SIZE));
+    received.drain(pair.server.getInputStream());
+    parts = connection.frame(new byte[chunkSize]);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    connection.close();
+    pair.close();
+    writerExecutor.shutdownNow();
+  }
+
+  @Benchmark
+  public long transfer() throws Exception {
+    for (int sent = 0; sent < TRANSFER_SIZE; sent += chunkSize) {
+      connection.getWriteQueue().enqueue(parts, null);
+    }
+    expected += framing ? TRANSFER_SIZE + TRANSFER_SIZE / chunkSize * parts[0].length : TRANSFER_SIZE;
+    received.await(expected);
+    return expected;
+  }
+}
@@ -0,0 +1,73 @@
+package android.bluetooth;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.UUID;
+
+public final class BluetoothAdapter {
+  public static final String ACTION_DISCOVERY_FINISHED = "android.bluetooth.adapter.action.DISCOVERY_FINISHED";
+  public static final String ACTION_DISCOVERY_STARTED = "android.bluetooth.adapter.action.DISCOVERY_STARTED";
+  public static final String ACTION_REQUEST_DISCOVERABLE = "android.bluetooth.adapter.action.REQUEST_DISCOVERABLE";
+  public static final String ACTION_REQUEST_ENABLE = "android.bluetooth.adapter.action.REQUEST_ENABLE";
+  public static final String ACTION_SCAN_MODE_CHANGED = "android.bluetooth.adapter.action.SCAN_MODE_CHANGED";
+  public static final String ACTION_STATE_CHANGED = "android.bluetooth.adapter.action.STATE_CHANGED";
+  public static final String EXTRA_SCAN_MODE = "android.bluetooth.adapter.extra.SCAN_MODE";
+  public static final String EXTRA_STATE = "android.bluetooth.adapter.extra.STATE";
+
+  public static final int SCAN_MODE_CONNECTABLE_DISCOVERABLE = 23;
+  public static final int STATE_OFF = 10;
+  public static final int STATE_TURNING_ON = 11;
+  public static final int STATE_ON = 12;
+  public static final int STATE_TURNING_OFF = 13;
+
+  private BluetoothAdapter() {
+  }
+
+  public static BluetoothAdapter getDefaultAdapter() {
+    return null;
+  }
+
+  public boolean isEnabled() {
+    return false;
+  }
+
+  public int getState() {
+    return STATE_OFF;
+  }
+
+  public int getScanMode() {
+    return 0;
+  }
+
+  public boolean enable() {
+    return false;
+  }
+
+  public boolean disable() {
+    return false;
+  }
+
+  public boolean startDiscovery() {
+    return false;
+  }
+
+  public boolean cancelDiscovery() {
+    return false;
+  }
+
+  public boolean isDiscovering() {
+    return false;
+  }
+
+  public Set<BluetoothDevice> getBondedDevices() {
+    return null;
+  }
+
+  public BluetoothDevice getRemoteDevice(String address) {
+    return null;
+  }
+
+  public BluetoothServerSocket listenUsingRfcommWithServiceRecord(String name, UUID uuid) throws IOException {
+    throw new IOException("Bluetooth is not available");
+  }
+}
@@ -0,0 +1,11 @@
+package android.bluetooth;
+
+public final class BluetoothClass {
+  public int getDeviceClass() {
+    return 0;
+  }
+
+  public int getMajorDeviceClass() {
+    return 0;
+  }
+}
@@ -0,0 +1,39 @@
+package android.bluetooth;
+
+import java.io.IOException;
+import java.util.UUID;
+
+public final class BluetoothDevice {
+  public static final String ACTION_BOND_STATE_CHANGED = "android.bluetooth.device.action.BOND_STATE_CHANGED";
+  public static final String ACTION_FOUND = "android.bluetooth.device.action.FOUND";
+  public static final String ACTION_NAME_CHANGED = "android.bluetooth.device.action.NAME_CHANGED";
+  public static final String EXTRA_BOND_STATE = "android.bluetooth.device.extra.BOND_STATE";
+  public static final String EXTRA_CLASS = "android.bluetooth.device.extra.CLASS";
+  public static final String EXTRA_DEVICE = "android.bluetooth.device.extra.DEVICE";
+  public static final String EXTRA_NAME = "android.bluetooth.device.extra.NAME";
+  public static final String EXTRA_RSSI = "android.bluetooth.device.extra.RSSI";
+
+  public static final int BOND_NONE = 10;
+  public static final int BOND_BONDING = 11;
+  public static final int BOND_BONDED = 12;
+
+  public String getName() {
+    return null;
+  }
+
+  public String getAddress() {
+    return null;
+  }
+
+  public int getBondState() {
+    return BOND_NONE;
+  }
+
+  public BluetoothClass getBluetoothClass() {
+    return null;
+  }
+
+  public BluetoothSocket createRfcommSocketToServiceRecord(UUID uuid) throws IOException {
+    throw new IOException("Bluetooth is not available");
+  }
+}
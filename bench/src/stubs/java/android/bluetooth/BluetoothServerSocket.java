@@ -0,0 +1,18 @@
+package android.bluetooth;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public final class BluetoothServerSocket implements Closeable {
+  public BluetoothSocket accept() throws IOException {
+    throw new IOException("Bluetooth is not available");
+  }
+
+  public BluetoothSocket accept(int timeout) throws IOException {
+    throw new IOException("Bluetooth is not available");
+  }
+
+  @Override
+  public void close() throws IOException {
+  }
+}
@@ -0,0 +1,34 @@
+package android.bluetooth;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public final class BluetoothSocket implements Closeable {
+  private int mPort = -1;
+
+  public void connect() throws IOException {
+    throw new IOException("Bluetooth is not available");
+  }
+
+  public boolean isConnected() {
+    return false;
+  }
+
+  public InputStream getInputStream() throws IOException {
+    throw new IOException("Bluetooth is not available");
+  }
+
+  public OutputStream getOutputStream() throws IOException {
+    throw new IOException("Bluetooth is not available");
+  }
+
+  public BluetoothDevice getRemoteDevice() {
+    return null;
+  }
+
+  @Override
+  public void close() throws IOException {
+  }
+}
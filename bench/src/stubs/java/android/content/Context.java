@@ -0,0 +1,20 @@
+package android.content;
+
+public abstract class Context {
+  public static final int MODE_PRIVATE = 0;
+
+  public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+    return null;
+  }
+
+  public void unregisterReceiver(BroadcastReceiver receiver) {
+  }
+
+  public SharedPreferences getSharedPreferences(String name, int mode) {
+    return null;
+  }
+
+  public Context getApplicationContext() {
+    return this;
+  }
+}
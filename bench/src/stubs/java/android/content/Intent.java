@@ -0,0 +1,25 @@
+package android.content;
+
+public class Intent {
+  private final String action;
+
+  public Intent(String action) {
+    this.action = action;
+  }
+
+  public String getAction() {
+    return action;
+  }
+
+  public int getIntExtra(String name, int defaultValue) {
+    return defaultValue;
+  }
+
+  public short getShortExtra(String name, short defaultValue) {
+    return defaultValue;
+  }
+
+  public <T> T getParcelableExtra(String name) {
+    return null;
+  }
+}
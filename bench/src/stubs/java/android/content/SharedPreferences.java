@@ -0,0 +1,23 @@
+package android.content;
+
+import java.util.Map;
+
+public interface SharedPreferences {
+  interface Editor {
+    Editor putString(String key, String value);
+
+    Editor remove(String key);
+
+    Editor clear();
+
+    void apply();
+
+    boolean commit();
+  }
+
+  String getString(String key, String defaultValue);
+
+  Map<String, ?> getAll();
+
+  Editor edit();
+}
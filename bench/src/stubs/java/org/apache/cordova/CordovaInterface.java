@@ -0,0 +1,14 @@
+package org.apache.cordova;
+
+import android.app.Activity;
+import java.util.concurrent.ExecutorService;
+
+public interface CordovaInterface {
+  Activity getActivity();
+
+  ExecutorService getThreadPool();
+
+  boolean hasPermission(String permission);
+
+  void requestPermission(CordovaPlugin plugin, int requestCode, String permission);
+}
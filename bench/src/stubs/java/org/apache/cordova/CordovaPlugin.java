@@ -0,0 +1,24 @@
+package org.apache.cordova;
+
+import org.json.JSONException;
+
+public class CordovaPlugin {
+  public CordovaWebView webView;
+  public CordovaInterface cordova;
+
+  public void initialize(CordovaInterface cordova, CordovaWebView webView) {
+  }
+
+  public boolean execute(String action, CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    return false;
+  }
+
+  public void onRequestPermissionResult(int requestCode, String[] permissions, int[] grantResults) throws JSONException {
+  }
+
+  public void onReset() {
+  }
+
+  public void onDestroy() {
+  }
+}
@@ -0,0 +1,9 @@
+package org.apache.cordova;
+
+import android.content.Context;
+
+public interface CordovaWebView {
+  Context getContext();
+
+  void loadUrl(String url);
+}
@@ -0,0 +1,102 @@
+package org.apache.cordova;
+
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class PluginResult {
+  public enum Status {
+    NO_RESULT,
+    OK,
+    CLASS_NOT_FOUND_EXCEPTION,
+    ILLEGAL_ACCESS_EXCEPTION,
+    INSTANTIATION_EXCEPTION,
+    MALFORMED_URL_EXCEPTION,
+    IO_EXCEPTION,
+    INVALID_ACTION,
+    JSON_EXCEPTION,
+    ERROR
+  }
+
+  private final int status;
+  private final Object message;
+  private final List<PluginResult> multipartMessages;
+  private boolean keepCallback = false;
+
+  public PluginResult(Status status) {
+    this(status, (Object) null, null);
+  }
+
+  public PluginResult(Status status, String message) {
+    this(status, message, null);
+  }
+
+  public PluginResult(Status status, JSONArray message) {
+    this(status, message, null);
+  }
+
+  public PluginResult(Status status, JSONObject message) {
+    this(status, message, null);
+  }
+
+  public PluginResult(Status status, int message) {
+    this(status, message, null);
+  }
+
+  public PluginResult(Status status, float message) {
+    this(status, message, null);
+  }
+
+  public PluginResult(Status status, boolean message) {
+    this(status, message, null);
+  }
+
+  public PluginResult(Status status, byte[] message) {
+    this(status, message, null);
+  }
+
+  public PluginResult(Status status, byte[] message, boolean binaryString) {
+    this(status, message, null);
+  }
+
+  public PluginResult(Status status, List<PluginResult> multipartMessages) {
+    this(status, null, multipartMessages);
+  }
+
+  private PluginResult(Status status, Object message, List<PluginResult> multipartMessages) {
+    this.status = status.ordinal();
+    this.message = message;
+    this.multipartMessages = multipartMessages == null
+            ? Collections.<PluginResult>emptyList()
+            : multipartMessages;
+  }
+
+  public void setKeepCallback(boolean keepCallback) {
+    this.keepCallback = keepCallback;
+  }
+
+  public boolean getKeepCallback() {
+    return keepCallback;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * The value the result was created with, in place of the encoded message
+   * the real class hands to the bridge.
+   */
+  public Object getValue() {
+    return message;
+  }
+
+  public int getMultipartMessagesSize() {
+    return multipartMessages.size();
+  }
+
+  public PluginResult getMultipartMessage(int index) {
+    return multipartMessages.get(index);
+  }
+}
@@ -0,0 +1,101 @@
+package capital.spatium.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class BufferPoolTest {
+  @Test
+  public void roundsUpToSizeClasses() {
+    assertEquals(1024, BufferPool.classSize(1));
+    assertEquals(1024, BufferPool.classSize(1024));
+    assertEquals(2048, BufferPool.classSize(1025));
+    assertEquals(256 * 1024, BufferPool.classSize(200 * 1024));
+  }
+
+  @Test
+  public void reusesReleasedBuffers() throws Exception {
+    BufferPool pool = new BufferPool(1024 * 1024);
+    byte[] buffer = pool.acquire(1500);
+    assertEquals(2048, buffer.length);
+    pool.release(buffer);
+    assertSame(buffer, pool.acquire(2000));
+
+    JSONObject stats = pool.getStats();
+    assertEquals(1, stats.getLong("hits"));
+    assertEquals(1, stats.getLong("misses"));
+    assertEquals(2048, stats.getLong("bytesInUse"));
+  }
+
+  @Test
+  public void discardsBeyondTheLimit() throws Exception {
+    BufferPool pool = new BufferPool(4096);
+    byte[] first = pool.acquire(4096);
+    byte[] second = pool.acquire(4096);
+    pool.release(first);
+    pool.release(second);
+    pool.release(pool.acquire(BufferPool.MAX_CLASS_SIZE + 1));
+
+    JSONObject stats = pool.getStats();
+    assertEquals(4096, stats.getLong("bytesPooled"));
+    assertEquals(2, stats.getLong("discarded"));
+  }
+
+  @Test
+  public void reportsWhereLeakedBuffersWereAcquired() {
+    BufferPool pool = new BufferPool(1024 * 1024);
+    pool.setLeakDetection(true);
+    pool.release(pool.acquire(100));
+    pool.acquire(5000);
+
+    List<Throwable> leaks = pool.getLeaks();
+    assertEquals(1, leaks.size());
+    assertEquals("Buffer of 8192 bytes acquired here", leaks.get(0).getMessage());
+    assertTrue(leaks.get(0).getStackTrace().length > 0);
+
+    pool.setLeakDetection(false);
+    assertTrue(pool.getLeaks().isEmpty());
+  }
+
+  @Test
+  public void readAndWritePathsReleaseTheirBuffers() throws Exception {
+    BufferPool pool = new BufferPool(1024 * 1024);
+    pool.setLeakDetection(true);
+    ExecutorService writerExecutor = Executors.newCachedThreadPool();
+    LoopbackPair pair = LoopbackPair.open(LinkModel.UNLIMITED);
+
+    Connection sender = new Connection("sender", pair.client, pool, writerExecutor, null);
+    final Connection receiver = new Connection("receiver", pair.server, pool, new DirectExecutor(), null);
+    final ByteCounter received = new ByteCounter();
+    Thread reader = new Thread(new SocketReader(receiver, new SocketReader.Listener() {
+      @Override
+      public void onData(Connection connection, byte[] data) {
+        received.add(data.length);
+      }
+
+      @Override
+      public void onClosed(Connection connection, boolean hasError) {
+      }
+    }));
+    reader.start();
+
+    for (int i = 0; i < 1000; i++) {
+      sender.getWriteQueue().enqueue(new byte[100], null);
+    }
+    received.await(100 * 1000);
+
+    sender.close();
+    reader.join(5000);
+    receiver.close();
+    writerExecutor.shutdown();
+    assertTrue(writerExecutor.awaitTermination(5, TimeUnit.SECONDS));
+    assertTrue(pool.getLeaks().toString(), pool.getLeaks().isEmpty());
+  }
+}
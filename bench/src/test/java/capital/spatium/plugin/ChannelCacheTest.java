@@ -0,0 +1,126 @@
+package capital.spatium.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.UUID;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+public class ChannelCacheTest {
+  private static final UUID SERVICE = UUID.fromString("995f40e0-ce68-4d24-8f68-f49d2b9d661f");
+
+  private final IoScheduler scheduler = new IoScheduler();
+  private final MemoryStorage storage = new MemoryStorage();
+
+  private static class MemoryStorage implements ChannelCache.Storage {
+    private String data = null;
+    private int saves = 0;
+
+    @Override
+    public synchronized String load() {
+      return data;
+    }
+
+    @Override
+    public synchronized void save(String data) {
+      this.data = data;
+      saves++;
+    }
+
+    synchronized int getSaves() {
+      return saves;
+    }
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdown();
+  }
+
+  @Test
+  public void survivesARestart() {
+    ChannelCache cache = new ChannelCache(storage, scheduler, 8);
+    cache.put("AA", SERVICE, 3);
+    cache.put("BB", SERVICE, 5);
+
+    ChannelCache reloaded = new ChannelCache(storage, scheduler, 8);
+    assertEquals(Integer.valueOf(3), reloaded.get("AA", SERVICE));
+    assertEquals(Integer.valueOf(5), reloaded.get("BB", SERVICE));
+    assertNull(reloaded.get("CC", SERVICE));
+  }
+
+  @Test
+  public void evictsTheLeastRecentlyUsedEntry() throws Exception {
+    ChannelCache cache = new ChannelCache(storage, scheduler, 2);
+    cache.put("AA", SERVICE, 1);
+    cache.put("BB", SERVICE, 2);
+    cache.get("AA", SERVICE);
+    cache.put("CC", SERVICE, 3);
+
+    assertNull(cache.get("BB", SERVICE));
+    assertEquals(Integer.valueOf(1), cache.get("AA", SERVICE));
+    assertEquals(Integer.valueOf(3), cache.get("CC", SERVICE));
+
+    JSONObject stats = cache.getStats();
+    assertEquals(1, stats.getLong("evictions"));
+    assertEquals(3, stats.getLong("hits"));
+    assertEquals(1, stats.getLong("misses"));
+  }
+
+  @Test
+  public void persistsTheOrderAfterALookup() {
+    ChannelCache cache = new ChannelCache(storage, scheduler, 2);
+    cache.put("AA", SERVICE, 1);
+    cache.put("BB", SERVICE, 2);
+    int saves = storage.getSaves();
+
+    cache.get("AA", SERVICE);
+    cache.put("BB", SERVICE, 2);
+    cache.get("AA", SERVICE);
+    assertEquals(saves, storage.getSaves());
+    cache.flush();
+    assertEquals(saves + 1, storage.getSaves());
+
+    ChannelCache reloaded = new ChannelCache(storage, scheduler, 2);
+    reloaded.put("CC", SERVICE, 3);
+    assertNull(reloaded.get("BB", SERVICE));
+    assertEquals(Integer.valueOf(1), reloaded.get("AA", SERVICE));
+  }
+
+  @Test
+  public void savesTheOrderOnTheTimer() throws Exception {
+    ChannelCache cache = new ChannelCache(storage, scheduler, 2);
+    cache.put("AA", SERVICE, 1);
+    cache.put("BB", SERVICE, 2);
+    int saves = storage.getSaves();
+
+    for (int i = 0; i < 10; i++) {
+      cache.get("AA", SERVICE);
+    }
+    Thread.sleep(ChannelCache.SAVE_DELAY_MS + 500);
+    assertEquals(saves + 1, storage.getSaves());
+    assertEquals("BB/" + SERVICE + "=2\nAA/" + SERVICE + "=1\n", storage.load());
+  }
+
+  @Test
+  public void forgetsRemovedChannels() throws Exception {
+    ChannelCache cache = new ChannelCache(storage, scheduler, 8);
+    cache.put("AA", SERVICE, 1);
+    cache.remove("AA", SERVICE);
+    assertNull(new ChannelCache(storage, scheduler, 8).get("AA", SERVICE));
+    assertEquals(1, cache.getStats().getLong("invalidations"));
+  }
+
+  @Test
+  public void shrinksToTheNewLimit() {
+    ChannelCache cache = new ChannelCache(storage, scheduler, 8);
+    for (int i = 0; i < 8; i++) {
+      cache.put("D" + i, SERVICE, i + 1);
+    }
+    cache.setMaxEntries(3);
+    assertEquals(3, cache.size());
+    assertEquals(3, new ChannelCache(storage, scheduler, 8).size());
+  }
+}
@@ -0,0 +1,85 @@
+package capital.spatium.plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressedSocketTest {
+  private LoopbackPair pair;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @Before
+  public void setUp() throws Exception {
+    pair = LoopbackPair.openCompressed(LinkModel.UNLIMITED, new JSONObject().put("compression", "deflate"));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pair.close();
+    executor.shutdownNow();
+  }
+
+  private Future<byte[]> read(final int length) {
+    return executor.submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws Exception {
+        return Streams.readFully(pair.server.getInputStream(), length);
+      }
+    });
+  }
+
+  @Test
+  public void negotiatesDeflate() {
+    assertTrue(pair.client instanceof CompressedSocket);
+    assertTrue(pair.server instanceof CompressedSocket);
+  }
+
+  @Test
+  public void syncFlushDeliversEachWrite() throws Exception {
+    OutputStream output = pair.client.getOutputStream();
+    for (int i = 0; i < 10; i++) {
+      byte[] message = ("message " + i).getBytes("UTF-8");
+      Future<byte[]> received = read(message.length);
+      output.write(message);
+      output.flush();
+      assertArrayEquals(message, received.get(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void compressesRepetitiveData() throws Exception {
+    byte[] text = new byte[64 * 1024];
+    byte[] line = "{\"type\":\"reading\",\"value\":23.5}\n".getBytes("UTF-8");
+    for (int i = 0; i < text.length; i++) {
+      text[i] = line[i % line.length];
+    }
+
+    Future<byte[]> received = read(text.length);
+    OutputStream output = pair.client.getOutputStream();
+    output.write(text);
+    output.flush();
+    assertArrayEquals(text, received.get(5, TimeUnit.SECONDS));
+    assertTrue(((CompressedSocket) pair.client).getWireBytesSent() < text.length / 10);
+    assertTrue(((CompressedSocket) pair.server).getWireBytesReceived() < text.length / 10);
+  }
+
+  @Test
+  public void passesIncompressibleDataThrough() throws Exception {
+    byte[] data = Streams.random(256 * 1024, 3);
+    Future<byte[]> received = read(data.length);
+    OutputStream output = pair.client.getOutputStream();
+    output.write(data);
+    output.flush();
+    assertArrayEquals(data, received.get(5, TimeUnit.SECONDS));
+  }
+}
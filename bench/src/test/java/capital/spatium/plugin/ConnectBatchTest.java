@@ -0,0 +1,94 @@
+package capital.spatium.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+public class ConnectBatchTest {
+  private final IoScheduler scheduler = new IoScheduler();
+  private final CountDownLatch slowConnect = new CountDownLatch(1);
+  private final BlockingQueue<JSONObject> targetResults = new LinkedBlockingQueue<JSONObject>();
+  private final BlockingQueue<JSONObject> batchResults = new LinkedBlockingQueue<JSONObject>();
+
+  private final ConnectBatch.Connector connector = new ConnectBatch.Connector() {
+    @Override
+    public void connect(String socketKey, String address, JSONObject options) throws Exception {
+      if ("slow".equals(socketKey)) {
+        slowConnect.await();
+      } else if ("refused".equals(socketKey)) {
+        throw new IOException("Failed to connect to remote socket: refused");
+      }
+    }
+
+    @Override
+    public void cancel(String socketKey) {
+    }
+  };
+
+  private final ConnectBatch.Listener listener = new ConnectBatch.Listener() {
+    @Override
+    public void onTargetFinished(ConnectBatch batch, JSONObject result) {
+      targetResults.add(result);
+    }
+
+    @Override
+    public void onFinished(ConnectBatch batch, JSONObject result) {
+      batchResults.add(result);
+    }
+  };
+
+  @After
+  public void tearDown() {
+    slowConnect.countDown();
+    scheduler.shutdown();
+  }
+
+  private static JSONObject target(String socketKey) throws Exception {
+    return new JSONObject().put("socketKey", socketKey).put("address", "00:11:22:33:44:55");
+  }
+
+  @Test
+  public void reportsEachTargetAsSoonAsItFinishes() throws Exception {
+    JSONArray targets = new JSONArray().put(target("slow")).put(target("fast")).put(target("refused"));
+    new ConnectBatch("batch", targets, new JSONObject(), connector, listener).start(scheduler);
+
+    JSONObject first = targetResults.poll(5, TimeUnit.SECONDS);
+    JSONObject second = targetResults.poll(5, TimeUnit.SECONDS);
+    assertNotNull(first);
+    assertNotNull(second);
+    JSONObject fast = "fast".equals(first.getString("socketKey")) ? first : second;
+    JSONObject refused = fast == first ? second : first;
+    assertTrue(fast.getBoolean("connected"));
+    assertFalse(refused.getBoolean("connected"));
+    assertEquals("Failed to connect to remote socket: refused", refused.getString("error"));
+    assertNull(batchResults.poll(200, TimeUnit.MILLISECONDS));
+
+    slowConnect.countDown();
+    JSONObject slow = targetResults.poll(5, TimeUnit.SECONDS);
+    assertEquals("slow", slow.getString("socketKey"));
+    JSONObject batch = batchResults.poll(5, TimeUnit.SECONDS);
+    assertNotNull(batch);
+    assertEquals(2, batch.getInt("connected"));
+    assertEquals(3, batch.getJSONArray("results").length());
+    assertTrue(targetResults.isEmpty());
+  }
+
+  @Test
+  public void finishesAnEmptyBatch() throws Exception {
+    new ConnectBatch("batch", new JSONArray(), null, connector, listener).start(scheduler);
+    assertEquals(0, batchResults.poll(5, TimeUnit.SECONDS).getJSONArray("results").length());
+    assertTrue(targetResults.isEmpty());
+  }
+}
@@ -0,0 +1,160 @@
+package capital.spatium.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class ConnectionRegistryTest {
+  private static final int THREADS = 8;
+  private static final int KEYS = 16;
+  private static final int ITERATIONS = 20000;
+
+  private static class CountingSocket implements TransportSocket {
+    private final AtomicInteger closes = new AtomicInteger();
+
+    @Override
+    public InputStream getInputStream() {
+      return null;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return null;
+    }
+
+    @Override
+    public String getRemoteName() {
+      return "Test";
+    }
+
+    @Override
+    public String getRemoteAddress() {
+      return "00:11:22:33:44:55";
+    }
+
+    @Override
+    public void close() {
+      closes.incrementAndGet();
+    }
+  }
+
+  private static class Opened {
+    private final Connection connection;
+    private final CountingSocket socket;
+    private volatile boolean added = false;
+    private final AtomicInteger closers = new AtomicInteger();
+
+    Opened(Connection connection, CountingSocket socket) {
+      this.connection = connection;
+      this.socket = socket;
+    }
+  }
+
+  private static Connection newConnection(String socketKey, CountingSocket socket) {
+    return new Connection(socketKey, socket, new BufferPool(0), new DirectExecutor(), null);
+  }
+
+  @Test
+  public void keepsTheFirstConnectionPerKey() {
+    ConnectionRegistry registry = new ConnectionRegistry();
+    Connection first = newConnection("key", new CountingSocket());
+    assertTrue(registry.add(first));
+    assertFalse(registry.add(newConnection("key", new CountingSocket())));
+    assertEquals(first, registry.get("key"));
+    assertFalse(registry.remove(newConnection("key", new CountingSocket())));
+    assertTrue(registry.remove(first));
+    assertNull(registry.get("key"));
+  }
+
+  /**
+   * Threads open and close connections on a few shared keys at once, the
+   * way open, close, reader shutdown and onDestroy race in the plugin.
+   * Every registered connection must be closed exactly once, by exactly one
+   * caller, and the registry must never hand out a connection it has closed.
+   */
+  @Test
+  public void opensAndClosesConcurrentlyOnSharedKeys() throws Exception {
+    final ConnectionRegistry registry = new ConnectionRegistry();
+    final ConcurrentHashMap<Connection, Opened> opened = new ConcurrentHashMap<Connection, Opened>();
+    final AtomicInteger staleLookups = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    for (int t = 0; t < THREADS; t++) {
+      final long seed = t;
+      results.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          Random random = new Random(seed);
+          start.await();
+          for (int i = 0; i < ITERATIONS; i++) {
+            String socketKey = "socket-" + random.nextInt(KEYS);
+            if (random.nextBoolean()) {
+              CountingSocket socket = new CountingSocket();
+              Connection connection = newConnection(socketKey, socket);
+              Opened entry = new Opened(connection, socket);
+              opened.put(connection, entry);
+              entry.added = registry.add(connection);
+            } else {
+              Connection connection = registry.get(socketKey);
+              if (connection == null) {
+                continue;
+              }
+              if (!connection.isOpen() && registry.get(socketKey) == connection) {
+                staleLookups.incrementAndGet();
+              }
+              if (registry.close(connection)) {
+                opened.get(connection).closers.incrementAndGet();
+              }
+            }
+          }
+          return null;
+        }
+      }));
+    }
+    start.countDown();
+    for (Future<Void> result : results) {
+      result.get(60, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    for (Connection connection : new ArrayList<Connection>(registry.getConnections())) {
+      if (registry.close(connection)) {
+        opened.get(connection).closers.incrementAndGet();
+      }
+    }
+
+    int added = 0;
+    for (Opened entry : opened.values()) {
+      if (entry.added) {
+        added++;
+        assertEquals(1, entry.closers.get());
+        assertEquals(1, entry.socket.closes.get());
+        assertEquals(Connection.STATE_CLOSED, entry.connection.getState());
+      } else {
+        assertEquals(0, entry.closers.get());
+        assertEquals(0, entry.socket.closes.get());
+      }
+    }
+    assertTrue(added > KEYS);
+    assertEquals(0, staleLookups.get());
+    assertTrue(registry.getConnections().isEmpty());
+  }
+}
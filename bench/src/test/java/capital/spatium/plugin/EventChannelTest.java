@@ -0,0 +1,47 @@
+package capital.spatium.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class EventChannelTest {
+  private final BlockingQueue<PluginResult> results = new LinkedBlockingQueue<PluginResult>();
+  private final CallbackContext callbackContext = new CallbackContext("events", null) {
+    @Override
+    public void sendPluginResult(PluginResult pluginResult) {
+      results.add(pluginResult);
+    }
+  };
+
+  @Test
+  public void deliversEventsInOneBatch() throws Exception {
+    EventChannel channel = new EventChannel();
+    channel.setCallback(callbackContext);
+    channel.post(EventChannel.CHANNEL_SOCKET, new JSONObject().put("type", "Connected"));
+    channel.postData("socket", new byte[] { 1, 2, 3 });
+
+    PluginResult result = results.poll(5, TimeUnit.SECONDS);
+    assertTrue(result.getKeepCallback());
+    assertEquals(3, result.getMultipartMessagesSize());
+    channel.shutdown();
+  }
+
+  @Test
+  public void dropsEventsPostedAfterShutdown() throws Exception {
+    EventChannel channel = new EventChannel();
+    channel.setCallback(callbackContext);
+    channel.shutdown();
+
+    channel.postData("socket", new byte[] { 1, 2, 3 });
+    channel.setOptions(new JSONObject().put("maxBatchEvents", 1));
+    channel.post(EventChannel.CHANNEL_SOCKET, new JSONObject().put("type", "Closed"));
+    assertEquals(0, channel.getStats().getInt("queueDepth"));
+  }
+}
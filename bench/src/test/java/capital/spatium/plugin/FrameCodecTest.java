@@ -0,0 +1,118 @@
+package capital.spatium.plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class FrameCodecTest {
+  private static final int[] SIZES = { 0, 1, 127, 128, 300, 0, 16384, 70000 };
+
+  private final List<byte[]> frames = new ArrayList<byte[]>();
+  private final FrameCodec.FrameListener listener = new FrameCodec.FrameListener() {
+    @Override
+    public void onFrame(byte[] frame) {
+      frames.add(frame);
+    }
+  };
+
+  private static byte[] encode(byte[][] payloads) {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    for (byte[] payload : payloads) {
+      byte[] header = FrameCodec.encodeHeader(payload.length);
+      stream.write(header, 0, header.length);
+      stream.write(payload, 0, payload.length);
+    }
+    return stream.toByteArray();
+  }
+
+  private static byte[][] payloads() {
+    byte[][] payloads = new byte[SIZES.length][];
+    for (int i = 0; i < SIZES.length; i++) {
+      payloads[i] = Streams.random(SIZES[i], i);
+    }
+    return payloads;
+  }
+
+  private void assertFrames(byte[][] payloads) {
+    assertEquals(payloads.length, frames.size());
+    for (int i = 0; i < payloads.length; i++) {
+      assertArrayEquals(payloads[i], frames.get(i));
+    }
+  }
+
+  @Test
+  public void decodesMergedFrames() throws Exception {
+    byte[][] payloads = payloads();
+    byte[] stream = encode(payloads);
+    new FrameCodec.Decoder().feed(stream, 0, stream.length, FrameCodec.DEFAULT_MAX_FRAME_SIZE, listener);
+    assertFrames(payloads);
+  }
+
+  @Test
+  public void decodesFramesSplitByteByByte() throws Exception {
+    byte[][] payloads = payloads();
+    byte[] stream = encode(payloads);
+    FrameCodec.Decoder decoder = new FrameCodec.Decoder();
+    for (int i = 0; i < stream.length; i++) {
+      decoder.feed(stream, i, 1, FrameCodec.DEFAULT_MAX_FRAME_SIZE, listener);
+    }
+    assertFrames(payloads);
+  }
+
+  @Test
+  public void decodesFramesSplitAtRandom() throws Exception {
+    byte[][] payloads = payloads();
+    byte[] stream = encode(payloads);
+    FrameCodec.Decoder decoder = new FrameCodec.Decoder();
+    Random random = new Random(7);
+    for (int offset = 0; offset < stream.length; ) {
+      int length = Math.min(stream.length - offset, 1 + random.nextInt(2000));
+      decoder.feed(stream, offset, length, FrameCodec.DEFAULT_MAX_FRAME_SIZE, listener);
+      offset += length;
+    }
+    assertFrames(payloads);
+  }
+
+  @Test
+  public void deliversAnEmptyFrameWithItsHeader() throws Exception {
+    FrameCodec.Decoder decoder = new FrameCodec.Decoder();
+    decoder.feed(new byte[] { 0 }, 0, 1, FrameCodec.DEFAULT_MAX_FRAME_SIZE, listener);
+    assertEquals(1, frames.size());
+    assertEquals(0, frames.get(0).length);
+  }
+
+  @Test
+  public void writesVarintHeaders() {
+    assertArrayEquals(new byte[] { 0 }, FrameCodec.encodeHeader(0));
+    assertArrayEquals(new byte[] { 0x7f }, FrameCodec.encodeHeader(127));
+    assertArrayEquals(new byte[] { (byte) 0x80, 0x01 }, FrameCodec.encodeHeader(128));
+    assertEquals(3, FrameCodec.varintSize(70000));
+  }
+
+  @Test
+  public void rejectsOversizedFrames() {
+    byte[] header = FrameCodec.encodeHeader(1025);
+    try {
+      new FrameCodec.Decoder().feed(header, 0, header.length, 1024, listener);
+      fail("Accepted an oversized frame");
+    } catch (ProtocolException expected) {
+    }
+  }
+
+  @Test
+  public void rejectsMalformedHeaders() {
+    byte[] header = { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80 };
+    try {
+      new FrameCodec.Decoder().feed(header, 0, header.length, FrameCodec.DEFAULT_MAX_FRAME_SIZE, listener);
+      fail("Accepted a malformed header");
+    } catch (ProtocolException expected) {
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package capital.spatium.plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+import org.junit.Test;
+
+public class LoopbackTransportTest {
+  @Test
+  public void roundTrip() throws Exception {
+    LoopbackPair pair = LoopbackPair.open(LinkModel.UNLIMITED);
+    try {
+      byte[] request = Streams.random(100 * 1024, 1);
+      pair.client.getOutputStream().write(request);
+      assertArrayEquals(request, Streams.readFully(pair.server.getInputStream(), request.length));
+
+      byte[] response = Streams.random(3000, 2);
+      pair.server.getOutputStream().write(response);
+      assertArrayEquals(response, Streams.readFully(pair.client.getInputStream(), response.length));
+
+      assertEquals("66:77:88:99:AA:BB", pair.client.getRemoteAddress());
+      assertEquals("00:11:22:33:44:55", pair.server.getRemoteAddress());
+    } finally {
+      pair.close();
+    }
+  }
+
+  @Test
+  public void closeEndsThePeersStream() throws Exception {
+    LoopbackPair pair = LoopbackPair.open(LinkModel.UNLIMITED);
+    pair.client.getOutputStream().write(new byte[] { 1, 2, 3 });
+    pair.client.close();
+
+    InputStream input = pair.server.getInputStream();
+    assertArrayEquals(new byte[] { 1, 2, 3 }, Streams.readFully(input, 3));
+    assertEquals(-1, input.read());
+    try {
+      pair.server.getOutputStream().write(4);
+      fail("Write after close");
+    } catch (IOException expected) {
+    }
+    pair.close();
+  }
+
+  @Test
+  public void delaysDeliveryByTheLatency() throws Exception {
+    LoopbackPair pair = LoopbackPair.open(new LinkModel(0, 50, 990, 64 * 1024));
+    try {
+      long start = System.nanoTime();
+      pair.client.getOutputStream().write(7);
+      assertEquals(7, pair.server.getInputStream().read());
+      assertTrue((System.nanoTime() - start) / 1000000 >= 45);
+    } finally {
+      pair.close();
+    }
+  }
+
+  @Test
+  public void refusesConnectsWithoutAServer() throws Exception {
+    LoopbackTransport transport = new LoopbackTransport("00:11:22:33:44:55", LinkModel.UNLIMITED);
+    try {
+      transport.connect("66:77:88:99:AA:BB", UUID.randomUUID(), new Transport.ConnectListener() {
+        @Override
+        public void onConnecting(Closeable socket) {
+        }
+      });
+      fail("Connected without a server");
+    } catch (IOException expected) {
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package capital.spatium.plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultiplexerTest {
+  private static final int WINDOW = 8 * 1024;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final BlockingQueue<Multiplexer.Channel> opened = new LinkedBlockingQueue<Multiplexer.Channel>();
+  private LoopbackPair pair;
+  private Multiplexer client;
+  private Multiplexer server;
+
+  @Before
+  public void setUp() throws Exception {
+    pair = LoopbackPair.open(LinkModel.UNLIMITED);
+    Future<?> handshake = executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        Multiplexer.handshake(pair.server);
+        return null;
+      }
+    });
+    Multiplexer.handshake(pair.client);
+    handshake.get(5, TimeUnit.SECONDS);
+
+    JSONObject options = new JSONObject().put("multiplex", true).put("channelWindow", WINDOW);
+    Multiplexer.Listener listener = new Multiplexer.Listener() {
+      @Override
+      public void onChannelOpened(Connection carrier, Multiplexer.Channel channel) {
+        opened.add(channel);
+      }
+
+      @Override
+      public void onClosed(Connection carrier, boolean hasError) {
+      }
+    };
+    client = start(new Connection("client", pair.client, new BufferPool(0), executor, null), true, options, listener);
+    server = start(new Connection("server", pair.server, new BufferPool(0), executor, null), false, options, listener);
+  }
+
+  private Multiplexer start(Connection carrier, boolean initiator, JSONObject options, Multiplexer.Listener listener) {
+    Multiplexer multiplexer = new Multiplexer(carrier, initiator, options, listener);
+    executor.execute(multiplexer.receiveTask);
+    executor.execute(multiplexer.sendTask);
+    return multiplexer;
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pair.close();
+    executor.shutdownNow();
+  }
+
+  private Future<?> write(final Multiplexer.Channel channel, final byte[] data) {
+    return executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        OutputStream output = channel.getOutputStream();
+        for (int offset = 0; offset < data.length; offset += 1024) {
+          output.write(data, offset, Math.min(1024, data.length - offset));
+        }
+        return null;
+      }
+    });
+  }
+
+  @Test
+  public void blocksTheWriterUntilThePeerReads() throws Exception {
+    Multiplexer.Channel channel = client.openChannel();
+    Multiplexer.Channel remote = opened.poll(5, TimeUnit.SECONDS);
+    assertNotNull(remote);
+
+    byte[] data = Streams.random(8 * WINDOW, 1);
+    Future<?> writer = write(channel, data);
+    try {
+      writer.get(500, TimeUnit.MILLISECONDS);
+      throw new AssertionError("Writer was not held back by channel credit");
+    } catch (TimeoutException expected) {
+    }
+    assertFalse(writer.isDone());
+
+    assertArrayEquals(data, Streams.readFully(remote.getInputStream(), data.length));
+    writer.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void aStalledChannelDoesNotHoldUpTheOthers() throws Exception {
+    Multiplexer.Channel bulk = client.openChannel();
+    assertNotNull(opened.poll(5, TimeUnit.SECONDS));
+    Multiplexer.Channel control = client.openChannel();
+    Multiplexer.Channel remoteControl = opened.poll(5, TimeUnit.SECONDS);
+    assertNotNull(remoteControl);
+
+    Future<?> stalled = write(bulk, new byte[8 * WINDOW]);
+    byte[] message = Streams.random(3 * WINDOW, 2);
+    Future<?> writer = write(control, message);
+    assertArrayEquals(message, Streams.readFully(remoteControl.getInputStream(), message.length));
+    writer.get(5, TimeUnit.SECONDS);
+    assertFalse(stalled.isDone());
+  }
+
+  @Test
+  public void channelsOpenFromBothSides() throws Exception {
+    Multiplexer.Channel channel = server.openChannel();
+    Multiplexer.Channel remote = opened.poll(5, TimeUnit.SECONDS);
+    assertNotNull(remote);
+
+    byte[] data = Streams.random(100 * 1024, 3);
+    Future<?> writer = write(channel, data);
+    assertArrayEquals(data, Streams.readFully(remote.getInputStream(), data.length));
+    writer.get(5, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,129 @@
+package capital.spatium.plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+public class ProbedSocketTest {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final IoScheduler scheduler = new IoScheduler();
+  private final AtomicInteger dead = new AtomicInteger();
+  private final ProbedSocket.Listener listener = new ProbedSocket.Listener() {
+    @Override
+    public void onLinkDead(ProbedSocket socket) {
+      dead.incrementAndGet();
+    }
+  };
+
+  @After
+  public void tearDown() {
+    scheduler.shutdown();
+    executor.shutdownNow();
+  }
+
+  private ProbedSocket[] negotiate(final TransportSocket client, final TransportSocket server,
+                                   final JSONObject options) throws Exception {
+    Future<ProbedSocket> accepted = executor.submit(new Callable<ProbedSocket>() {
+      @Override
+      public ProbedSocket call() throws IOException {
+        return ProbedSocket.negotiate(server, options);
+      }
+    });
+    ProbedSocket[] sockets = new ProbedSocket[] { ProbedSocket.negotiate(client, options), null };
+    sockets[1] = accepted.get(5, TimeUnit.SECONDS);
+    for (ProbedSocket socket : sockets) {
+      socket.start(scheduler, listener);
+    }
+    return sockets;
+  }
+
+  @Test
+  public void measuresTheRoundTripTime() throws Exception {
+    LoopbackPair pair = LoopbackPair.open(new LinkModel(0, 20, 990, 64 * 1024));
+    ProbedSocket[] sockets = negotiate(pair.client, pair.server, new JSONObject().put("probeInterval", 100));
+    new ByteCounter().drain(sockets[0].getInputStream());
+    new ByteCounter().drain(sockets[1].getInputStream());
+    Thread.sleep(800);
+
+    JSONObject stats = sockets[0].getStats();
+    assertTrue(stats.toString(), stats.getLong("pongs") >= 3);
+    assertTrue(stats.toString(), stats.getDouble("minRtt") >= 38);
+    assertEquals(0, dead.get());
+    pair.close();
+  }
+
+  @Test
+  public void escapesDataThatLooksLikeControl() throws Exception {
+    LoopbackPair pair = LoopbackPair.open(LinkModel.UNLIMITED);
+    ProbedSocket[] sockets = negotiate(pair.client, pair.server, new JSONObject().put("probeInterval", 100));
+
+    byte[] data = Streams.random(256 * 1024, 4);
+    Arrays.fill(data, 0, 1024, (byte) 0xdb);
+    for (int i = 1024; i < data.length; i += 97) {
+      data[i] = (byte) 0xdb;
+    }
+    OutputStream output = sockets[0].getOutputStream();
+    output.write(data);
+    output.flush();
+    assertArrayEquals(data, Streams.readFully(sockets[1].getInputStream(), data.length));
+    assertEquals(data.length, sockets[1].getStats().getLong("payloadReceived"));
+    pair.close();
+  }
+
+  /**
+   * A probe over a resilient session must sit out a reconnect that takes
+   * longer than its timeout, and must not take the outage for a round trip.
+   */
+  @Test
+  public void sitsOutAReconnectOfTheSessionBelow() throws Exception {
+    long outageMs = 800;
+    JSONObject options = new JSONObject()
+        .put("resilient", true)
+        .put("reconnectTimeout", 5000)
+        .put("probe", true)
+        .put("probeInterval", 100)
+        .put("probeTimeout", 300);
+    ResilientPair pair = new ResilientPair(new LinkModel(0, 5, 990, 64 * 1024), options, outageMs,
+        new ResilientSocket.Listener() {
+          @Override
+          public void onLinkLost(ResilientSocket socket) {
+          }
+
+          @Override
+          public void onLinkRestored(ResilientSocket socket, long latencyMs, long bytesReplayed) {
+          }
+        });
+    assertNotNull(pair.server);
+    ProbedSocket[] sockets = negotiate(pair.client, pair.server, options);
+    new ByteCounter().drain(sockets[0].getInputStream());
+    new ByteCounter().drain(sockets[1].getInputStream());
+    Thread.sleep(500);
+
+    pair.dropLink();
+    Thread.sleep(outageMs + 700);
+
+    assertTrue(pair.client.isLinkUp());
+    assertEquals(1, pair.client.getStats().getLong("reconnects"));
+    assertEquals(0, dead.get());
+    for (ProbedSocket socket : sockets) {
+      JSONObject stats = socket.getStats();
+      assertEquals(stats.toString(), 0, stats.getLong("timeouts"));
+      assertTrue(stats.toString(), stats.getJSONObject("rttHistogram").getLong("max") < outageMs);
+    }
+    pair.close();
+  }
+}
@@ -0,0 +1,115 @@
+package capital.spatium.plugin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+
+/**
+ * A resilient session over loopback, with an accept loop that resumes
+ * sessions the way the plugin's server hubs do, and a way to drop the link
+ * under it.
+ */
+class ResilientPair {
+  final LoopbackTransport transport;
+  final ConcurrentHashMap<String, ResilientSocket> sessions = new ConcurrentHashMap<String, ResilientSocket>();
+  final ResilientSocket client;
+  final ResilientSocket server;
+
+  private final TransportServerSocket serverSocket;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final BlockingQueue<ResilientSocket> accepted = new LinkedBlockingQueue<ResilientSocket>();
+  private final List<TransportSocket> links = new ArrayList<TransportSocket>();
+
+  ResilientPair(LinkModel linkModel, final JSONObject options, final long dialDelayMs,
+                final ResilientSocket.Listener listener) throws Exception {
+    transport = new LoopbackTransport("00:11:22:33:44:55", linkModel);
+    serverSocket = transport.listen("Loopback", LoopbackPair.SERVICE_UUID);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        while (true) {
+          final TransportSocket socket;
+          try {
+            socket = serverSocket.accept();
+          } catch (IOException e) {
+            return;
+          }
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                ResilientSocket session = ResilientSocket.accept(socket, options, sessions, listener);
+                if (session != null) {
+                  accepted.add(session);
+                }
+              } catch (IOException e) {
+                try {
+                  socket.close();
+                } catch (IOException ignored) {}
+              }
+            }
+          });
+        }
+      }
+    });
+
+    ResilientSocket.Dialer dialer = new ResilientSocket.Dialer() {
+      @Override
+      public TransportSocket dial() throws IOException {
+        try {
+          Thread.sleep(dialDelayMs);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return connect();
+      }
+
+      @Override
+      public void cancel() {
+      }
+    };
+    client = ResilientSocket.connect(connect(), options, dialer, executor, listener);
+    server = accepted.poll(5, TimeUnit.SECONDS);
+  }
+
+  private TransportSocket connect() throws IOException {
+    TransportSocket socket = transport.connect("66:77:88:99:AA:BB", LoopbackPair.SERVICE_UUID,
+        new Transport.ConnectListener() {
+          @Override
+          public void onConnecting(Closeable socket) {
+          }
+        });
+    synchronized (links) {
+      links.add(socket);
+    }
+    return socket;
+  }
+
+  /**
+   * Closes the client end of the current link, as if the radio went away.
+   */
+  void dropLink() throws IOException {
+    TransportSocket link;
+    synchronized (links) {
+      link = links.get(links.size() - 1);
+    }
+    link.close();
+  }
+
+  void close() throws IOException {
+    client.close();
+    if (server != null) {
+      server.close();
+    }
+    serverSocket.close();
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,138 @@
+package capital.spatium.plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResilientSocketTest {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final AtomicInteger restored = new AtomicInteger();
+  private ResilientPair pair;
+
+  @Before
+  public void setUp() throws Exception {
+    JSONObject options = new JSONObject()
+        .put("resilient", true)
+        .put("reconnectTimeout", 5000)
+        .put("replayBuffer", 64 * 1024);
+    pair = new ResilientPair(new LinkModel(2 * 1024 * 1024, 1, 990, 64 * 1024), options, 0,
+        new ResilientSocket.Listener() {
+          @Override
+          public void onLinkLost(ResilientSocket socket) {
+          }
+
+          @Override
+          public void onLinkRestored(ResilientSocket socket, long latencyMs, long bytesReplayed) {
+            restored.incrementAndGet();
+          }
+        });
+    assertNotNull(pair.server);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pair.close();
+    executor.shutdownNow();
+  }
+
+  private Future<byte[]> pump(final ResilientSocket from, final ResilientSocket to, final byte[] data) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          OutputStream output = from.getOutputStream();
+          for (int offset = 0; offset < data.length; offset += 10000) {
+            output.write(data, offset, Math.min(10000, data.length - offset));
+          }
+          output.flush();
+        } catch (IOException ignored) {}
+      }
+    });
+    return executor.submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws Exception {
+        byte[] received = Streams.readFully(to.getInputStream(), data.length);
+        new ByteCounter().drain(to.getInputStream());
+        return received;
+      }
+    });
+  }
+
+  @Test
+  public void replaysAcrossDroppedLinks() throws Exception {
+    byte[] up = Streams.random(2 * 1024 * 1024, 1);
+    byte[] down = Streams.random(2 * 1024 * 1024, 2);
+    Future<byte[]> upReceived = pump(pair.client, pair.server, up);
+    Future<byte[]> downReceived = pump(pair.server, pair.client, down);
+
+    for (int i = 0; i < 3; i++) {
+      Thread.sleep(150);
+      pair.dropLink();
+    }
+
+    assertArrayEquals(up, upReceived.get(30, TimeUnit.SECONDS));
+    assertArrayEquals(down, downReceived.get(30, TimeUnit.SECONDS));
+    assertTrue(pair.client.getStats().getLong("reconnects") >= 1);
+    assertTrue(restored.get() >= 2);
+    assertEquals(pair.client.getSessionId(), pair.server.getSessionId());
+  }
+
+  @Test
+  public void rejectsAResumeFromAnotherDevice() throws Exception {
+    LoopbackTransport.Pipe toServer = new LoopbackTransport.Pipe(LinkModel.UNLIMITED);
+    LoopbackTransport.Pipe toClient = new LoopbackTransport.Pipe(LinkModel.UNLIMITED);
+    TransportSocket forged = new LoopbackTransport.LoopbackSocket(toServer, toClient, "Loopback", "EE:EE:EE:EE:EE:EE");
+
+    UUID sessionId = UUID.fromString(pair.server.getSessionId());
+    DataOutputStream hello = new DataOutputStream(toServer.outputStream);
+    hello.write(0xb1);
+    hello.writeLong(sessionId.getMostSignificantBits());
+    hello.writeLong(sessionId.getLeastSignificantBits());
+    hello.writeLong(0);
+    hello.flush();
+
+    try {
+      ResilientSocket.accept(forged, new JSONObject().put("resilient", true), pair.sessions, null);
+      fail("Resumed a session from another device");
+    } catch (ProtocolException expected) {
+    }
+    DataInputStream reply = new DataInputStream(toClient.inputStream);
+    assertEquals(0xb1, reply.read());
+    assertTrue(pair.server.isLinkUp());
+    assertEquals(1, pair.sessions.size());
+  }
+
+  @Test
+  public void closeEndsTheSessionOnThePeer() throws Exception {
+    pair.client.getOutputStream().write(new byte[] { 1, 2, 3 });
+    pair.client.getOutputStream().flush();
+    assertArrayEquals(new byte[] { 1, 2, 3 }, Streams.readFully(pair.server.getInputStream(), 3));
+
+    pair.client.close();
+    assertEquals(-1, pair.server.getInputStream().read());
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!pair.sessions.isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(pair.sessions.isEmpty());
+  }
+}
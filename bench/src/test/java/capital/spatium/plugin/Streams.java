@@ -0,0 +1,30 @@
+package capital.spatium.plugin;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+final class Streams {
+  private Streams() {
+  }
+
+  static byte[] readFully(InputStream input, int length) throws IOException {
+    byte[] data = new byte[length];
+    int offset = 0;
+    while (offset < length) {
+      int count = input.read(data, offset, length - offset);
+      if (count < 0) {
+        throw new EOFException("Got " + offset + " of " + length + " bytes");
+      }
+      offset += count;
+    }
+    return data;
+  }
+
+  static byte[] random(int length, long seed) {
+    byte[] data = new byte[length];
+    new Random(seed).nextBytes(data);
+    return data;
+  }
+}
@@ -1,15 +1,19 @@
 package capital.spatium.plugin;
 
-import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.PluginResult;
 import org.apache.cordova.CallbackContext;
@@ -23,9 +27,8 @@ import org.json.JSONException;
 import android.Manifest;
 import android.content.Context;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothServerSocket;
-import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -40,34 +43,127 @@ import static android.bluetooth.BluetoothAdapter.EXTRA_STATE;
 import static android.bluetooth.BluetoothAdapter.SCAN_MODE_CONNECTABLE_DISCOVERABLE;
 
 public class Bluetooth extends CordovaPlugin {
+  private static final String SERVICE_NAME = "Spatium wallet";
+  private static final UUID SERVICE_UUID = UUID.fromString("995f40e0-ce68-4d24-8f68-f49d2b9d661f");
+
   private BluetoothAdapter mBluetoothAdapter;
+  private Transport mTransport;
+  private ChannelCache mChannelCache;
+  private boolean mChannelCacheEnabled = false;
 
-  private Map<String, BluetoothSocket> bluetoothSockets = new HashMap<String, BluetoothSocket>();
-  private Map<String, BluetoothServerSocket> bluetoothServerSockets = new HashMap<String, BluetoothServerSocket>();
+  private final ConnectionRegistry mRegistry = new ConnectionRegistry();
+  private final Map<String, JSONObject> mServerOptions = new ConcurrentHashMap<String, JSONObject>();
+  private final ConcurrentHashMap<String, ConnectTask> mPendingConnects = new ConcurrentHashMap<String, ConnectTask>();
+  private final ConcurrentHashMap<String, ConnectBatch> mConnectBatches = new ConcurrentHashMap<String, ConnectBatch>();
+  private final ConcurrentHashMap<String, ServerHub> mServerHubs = new ConcurrentHashMap<String, ServerHub>();
+  private final ConcurrentHashMap<String, ResilientSocket> mSessions = new ConcurrentHashMap<String, ResilientSocket>();
 
   private CallbackContext mStateCallback = null;
   private CallbackContext mDiscoveredCallback = null;
   private CallbackContext mDiscoveryCallback = null;
   private CallbackContext mInternalDiscoveryCallback = null;
   private CallbackContext mDiscoverableCallback = null;
+  private CallbackContext mPairedDevicesCallback = null;
 
   private static final int REQUEST_PERMISSION_BT = 4;
+  private static final long ACCEPT_RETRY_MS = 500;
+  private static final long MAX_ACCEPT_RETRY_MS = 8000;
 
   private BroadcastReceiver mDiscoverableReceiver = null;
   private BroadcastReceiver mDiscoveryReceiver = null;
   private BroadcastReceiver mDiscoveredReceiver = null;
   private BroadcastReceiver mStateReceiver = null;
+  private BroadcastReceiver mBondReceiver = null;
+
+  private final EventChannel mEventChannel = new EventChannel();
+  private final IoScheduler mScheduler = new IoScheduler();
+  private final BufferPool mBufferPool = new BufferPool(4 * 1024 * 1024);
+  private final ConnectionPool mConnectionPool = new ConnectionPool(mScheduler, new ConnectionPool.Listener() {
+    @Override
+    public void onEvicted(Connection connection) {
+      connection.setCloseReason(Connection.CLOSE_EVICTED);
+      try {
+        connection.close();
+      } catch (IOException ignored) {}
+    }
+  });
+
+  private final DiscoveryTable mDiscoveryTable = new DiscoveryTable(mScheduler, new DiscoveryTable.Listener() {
+    @Override
+    public void onChanged(JSONArray devices) {
+      CallbackContext callbackContext = mDiscoveredCallback;
+      if (callbackContext != null) {
+        PluginResult result = new PluginResult(PluginResult.Status.OK, devices);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+      }
+    }
+  });
+
+  private final DiscoveryScheduler mDiscoveryScheduler = new DiscoveryScheduler(mScheduler, new DiscoveryScheduler.Control() {
+    @Override
+    public boolean startDiscovery() {
+      return mBluetoothAdapter.startDiscovery();
+    }
+
+    @Override
+    public void cancelDiscovery() {
+      mBluetoothAdapter.cancelDiscovery();
+    }
 
-  private boolean mDiscoveryStarted = false;
-  private final int INPUT_STREAM_BUFFER_SIZE = 16 * 1024;
+    @Override
+    public long getTransferredBytes() {
+      long bytes = 0;
+      for (Connection connection : mRegistry.getConnections()) {
+        bytes += connection.getBytesReceived() + connection.getBytesSent();
+      }
+      return bytes;
+    }
+  });
+
+  private final BondedDeviceCache mBondedDevices = new BondedDeviceCache(new BondedDeviceCache.Source() {
+    @Override
+    public Map<String, String> getBondedDevices() {
+      Map<String, String> devices = new LinkedHashMap<String, String>();
+      Set<BluetoothDevice> bondedDevices = mBluetoothAdapter.getBondedDevices();
+      if (bondedDevices != null) {
+        for (BluetoothDevice device : bondedDevices) {
+          devices.put(device.getAddress(), device.getName());
+        }
+      }
+      return devices;
+    }
+  }, new BondedDeviceCache.Listener() {
+    @Override
+    public void onChanged(JSONObject delta) {
+      CallbackContext callbackContext = mPairedDevicesCallback;
+      if (callbackContext != null) {
+        PluginResult result = new PluginResult(PluginResult.Status.OK, delta);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+      }
+    }
+  });
+
+  private final StatsReporter mStats = new StatsReporter(mScheduler, new StatsReporter.Source() {
+    @Override
+    public JSONObject getStats() throws JSONException {
+      return collectStats();
+    }
+  });
 
   @Override
   public void initialize(CordovaInterface cordova, CordovaWebView webView) {
     super.initialize(cordova, webView);
 
     mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    mTransport = new BluetoothTransport(mBluetoothAdapter);
+    mChannelCache = new ChannelCache(new PreferencesStorage(
+            cordova.getActivity().getSharedPreferences("capital.spatium.plugin.Bluetooth", Context.MODE_PRIVATE),
+            "rfcommChannels"), mScheduler, ChannelCache.DEFAULT_MAX_ENTRIES);
     registerStateReceiver();
     registerDiscoveryReceiver();
+    registerBondReceiver();
   }
 
   @Override
@@ -90,6 +186,39 @@ public class Bluetooth extends CordovaPlugin {
         this.mDiscoverableReceiver = null;
       } catch (Exception ignored) { }
     }
+    if (this.mBondReceiver != null) {
+      try {
+        webView.getContext().unregisterReceiver(this.mBondReceiver);
+        this.mBondReceiver = null;
+      } catch (Exception ignored) { }
+    }
+    for (String serverSocketKey : new HashSet<>(mRegistry.getServerKeys())) {
+      TransportServerSocket serverSocket = mRegistry.removeServer(serverSocketKey);
+      if (serverSocket == null) {
+        continue;
+      }
+      try {
+        serverSocket.close();
+      } catch (Exception ignored) { }
+    }
+    for (ServerHub hub : mServerHubs.values()) {
+      hub.close();
+    }
+    mServerHubs.clear();
+    for (ConnectTask task : mPendingConnects.values()) {
+      task.cancel();
+    }
+    mStats.stop();
+    mConnectionPool.evictAll();
+    mChannelCache.flush();
+    for (Connection connection : mRegistry.getConnections()) {
+      connection.setCloseReason(Connection.CLOSE_SHUTDOWN);
+      try {
+        mRegistry.close(connection);
+      } catch (Exception ignored) { }
+    }
+    mScheduler.shutdown();
+    mEventChannel.shutdown();
   }
 
   @Override
@@ -109,6 +238,12 @@ public class Bluetooth extends CordovaPlugin {
     } else if ("disable".equals(action)) {
       disable(callbackContext);
       return true;
+    } else if ("getPairedDevices".equals(action)) {
+      getPairedDevices(args, callbackContext);
+      return true;
+    } else if ("setPairedDevicesCallback".equals(action)) {
+      setPairedDevicesCallback(callbackContext);
+      return true;
     } else if ("listPairedDevices".equals(action)) {
       listPairedDevices(callbackContext);
       return true;
@@ -130,6 +265,17 @@ public class Bluetooth extends CordovaPlugin {
     } else if ("setDiscoveredCallback".equals(action)) {
       setDiscoveredCallback(callbackContext);
       return true;
+    } else if ("setDiscoveryOptions".equals(action)) {
+      mDiscoveryTable.setOptions(args.getJSONObject(0));
+      mDiscoveryScheduler.setOptions(args.getJSONObject(0));
+      callbackContext.success();
+      return true;
+    } else if ("getDiscoveryStats".equals(action)) {
+      callbackContext.success(mDiscoveryScheduler.getStats());
+      return true;
+    } else if ("getDiscoveredDevices".equals(action)) {
+      callbackContext.success(mDiscoveryTable.toJSON());
+      return true;
     } else if ("setDiscoveryCallback".equals(action)) {
       setDiscoveryCallback(callbackContext);
       return true;
@@ -139,6 +285,26 @@ public class Bluetooth extends CordovaPlugin {
     } else if ("setStateCallback".equals(action)) {
       setStateCallback(callbackContext);
       return true;
+    } else if ("setEventCallback".equals(action)) {
+      setEventCallback(args, callbackContext);
+      return true;
+    } else if ("setEventChannelOptions".equals(action)) {
+      mEventChannel.setOptions(args.getJSONObject(0));
+      callbackContext.success();
+      return true;
+    } else if ("setSchedulerOptions".equals(action)) {
+      mScheduler.setOptions(args.getJSONObject(0));
+      callbackContext.success();
+      return true;
+    } else if ("getSchedulerStats".equals(action)) {
+      callbackContext.success(mScheduler.getStats());
+      return true;
+    } else if ("getBufferPoolStats".equals(action)) {
+      callbackContext.success(mBufferPool.getStats());
+      return true;
+    } else if ("getEventChannelStats".equals(action)) {
+      callbackContext.success(mEventChannel.getStats());
+      return true;
     } else if ("setSupportedCallback".equals(action)) {
       // We do not support tracking BT support on android yet
       return true;
@@ -152,6 +318,59 @@ public class Bluetooth extends CordovaPlugin {
     } else if ("close".equals(action)) {
       disconnect(args, callbackContext);
       return true;
+    } else if ("setOptions".equals(action)) {
+      setOptions(args, callbackContext);
+      return true;
+    } else if ("pause".equals(action)) {
+      pause(args, callbackContext);
+      return true;
+    } else if ("resume".equals(action)) {
+      resume(args, callbackContext);
+      return true;
+    } else if ("openMany".equals(action)) {
+      this.openMany(args, callbackContext);
+      return true;
+    } else if ("cancelOpen".equals(action)) {
+      cancelOpen(args, callbackContext);
+      return true;
+    } else if ("cancelOpenMany".equals(action)) {
+      cancelOpenMany(args, callbackContext);
+      return true;
+    } else if ("openChannel".equals(action)) {
+      openChannel(args, callbackContext);
+      return true;
+    } else if ("setPoolOptions".equals(action)) {
+      mConnectionPool.setOptions(args.getJSONObject(0));
+      callbackContext.success();
+      return true;
+    } else if ("getPoolStats".equals(action)) {
+      callbackContext.success(mConnectionPool.getStats());
+      return true;
+    } else if ("setChannelCacheOptions".equals(action)) {
+      setChannelCacheOptions(args, callbackContext);
+      return true;
+    } else if ("getChannelCacheStats".equals(action)) {
+      getChannelCacheStats(callbackContext);
+      return true;
+    } else if ("clearChannelCache".equals(action)) {
+      mChannelCache.clear();
+      callbackContext.success();
+      return true;
+    } else if ("getServerStats".equals(action)) {
+      getServerStats(args, callbackContext);
+      return true;
+    } else if ("getSocketStats".equals(action)) {
+      getSocketStats(args, callbackContext);
+      return true;
+    } else if ("getLinkQuality".equals(action)) {
+      getLinkQuality(args, callbackContext);
+      return true;
+    } else if ("getStats".equals(action)) {
+      callbackContext.success(collectStats());
+      return true;
+    } else if ("setStatsCallback".equals(action)) {
+      setStatsCallback(args, callbackContext);
+      return true;
     } else if ("write".equals(action)) {
       try {
         write(args, callbackContext);
@@ -159,6 +378,19 @@ public class Bluetooth extends CordovaPlugin {
         callbackContext.error("Invalid arguments");
       }
       return true;
+    } else if ("writeFrames".equals(action)) {
+      try {
+        writeFrames(args, callbackContext);
+      } catch (Exception e) {
+        callbackContext.error("Invalid arguments");
+      }
+      return true;
+    } else if ("sendFile".equals(action)) {
+      sendFile(args, callbackContext);
+      return true;
+    } else if ("receiveToFile".equals(action)) {
+      receiveToFile(args, callbackContext);
+      return true;
     }
 
     return false;
@@ -167,96 +399,237 @@ public class Bluetooth extends CordovaPlugin {
   private void open(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
     String socketKey = args.getString(0);
     String address = args.getString(1);
-    this.connect(socketKey, address, callbackContext);
+    JSONObject options = args.optJSONObject(2);
+    this.connect(socketKey, address, options, callbackContext);
   }
 
-  private void close(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+  private void openChannel(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
     String socketKey = args.getString(0);
+    String channelSocketKey = args.getString(1);
+    JSONObject options = args.optJSONObject(2);
+    Connection carrier = mRegistry.get(socketKey);
+
+    if(carrier == null) {
+      callbackContext.error("Not connected");
+      return;
+    }
+
+    Multiplexer multiplexer = carrier.getMultiplexer();
+    if(multiplexer == null) {
+      callbackContext.error("Socket is not multiplexed");
+      return;
+    }
+
+    if(mRegistry.contains(channelSocketKey)) {
+      callbackContext.error("Already connected");
+      return;
+    }
 
+    Multiplexer.Channel channel;
     try {
-      BluetoothSocket socket = bluetoothSockets.get(socketKey);
-      socket.close();
-      bluetoothSockets.remove(socketKey);
-      callbackContext.success();
+      channel = multiplexer.openChannel();
     } catch (IOException e) {
-      callbackContext.error(e.toString());
+      callbackContext.error(e.getMessage());
+      return;
     }
-  }
 
-  private void setOptions(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    Connection connection = newConnection(channelSocketKey, channel, options != null ? options : multiplexer.getOptions());
+    if(!mRegistry.add(connection)) {
+      channel.close();
+      callbackContext.error("Already connected");
+      return;
+    }
+    startReading(connection);
+    callbackContext.success();
   }
 
-  private void startServer(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+  private void getServerStats(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
     String serverSocketKey = args.getString(0);
+    ServerHub hub = mServerHubs.get(serverSocketKey);
 
-    if(mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
-      callbackContext.error("Bluetooth is not enabled");
+    if(hub == null) {
+      callbackContext.error("Not listening");
       return;
     }
 
-    if(bluetoothSockets.containsKey(serverSocketKey)) {
-      callbackContext.error("Cannot listen while already connected");
+    callbackContext.success(hub.getStats());
+  }
+
+  private void getSocketStats(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    String socketKey = args.getString(0);
+    Connection connection = mRegistry.get(socketKey);
+
+    if(connection == null) {
+      callbackContext.error("Not connected");
       return;
     }
 
-    if(bluetoothServerSockets.containsKey(serverSocketKey)) {
-      callbackContext.error("Already listening");
+    callbackContext.success(connection.getStats());
+  }
+
+  private void getLinkQuality(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    String socketKey = args.getString(0);
+    Connection connection = mRegistry.get(socketKey);
+
+    if(connection == null) {
+      callbackContext.error("Not connected");
+      return;
+    }
+    if(connection.getProbe() == null) {
+      callbackContext.error("Socket is not probed");
+      return;
+    }
+
+    callbackContext.success(connection.getProbe().getStats());
+  }
+
+  /**
+   * Snapshot of every open connection and server along with the plugin wide
+   * totals.
+   */
+  private JSONObject collectStats() throws JSONException {
+    JSONArray connections = new JSONArray();
+    for (Connection connection : mRegistry.getConnections()) {
+      JSONObject stats = connection.getStats();
+      stats.put("socketKey", connection.getSocketKey());
+      connections.put(stats);
+    }
+    JSONArray servers = new JSONArray();
+    for (ServerHub hub : mServerHubs.values()) {
+      servers.put(hub.getStats());
+    }
+
+    JSONObject stats = new JSONObject();
+    stats.put("timestamp", System.currentTimeMillis());
+    stats.put("connections", connections);
+    stats.put("servers", servers);
+    stats.put("totals", mStats.getTotals());
+    stats.put("eventChannel", mEventChannel.getStats());
+    stats.put("scheduler", mScheduler.getStats());
+    stats.put("bufferPool", mBufferPool.getStats());
+    stats.put("pool", mConnectionPool.getStats());
+    return stats;
+  }
+
+  private synchronized void setChannelCacheOptions(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    JSONObject options = args.getJSONObject(0);
+    mChannelCache.setMaxEntries(options.optInt("maxEntries", mChannelCache.getMaxEntries()));
+    mChannelCacheEnabled = options.optBoolean("enabled", mChannelCacheEnabled);
+    if (mTransport instanceof BluetoothTransport) {
+      ((BluetoothTransport) mTransport).setChannelCache(mChannelCacheEnabled ? mChannelCache : null);
+    }
+    callbackContext.success();
+  }
+
+  private synchronized void getChannelCacheStats(CallbackContext callbackContext) throws JSONException {
+    JSONObject stats = mChannelCache.getStats();
+    stats.put("enabled", mChannelCacheEnabled);
+    callbackContext.success(stats);
+  }
+
+  private void pause(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    String socketKey = args.getString(0);
+    Connection connection = mRegistry.get(socketKey);
+
+    if(connection == null) {
+      callbackContext.error("Not connected");
+      return;
+    }
+    if(connection.getMultiplexer() != null) {
+      callbackContext.error("Socket is multiplexed");
       return;
     }
 
-    cordova.getThreadPool().execute(new ServerSocketAcceptTask(serverSocketKey, callbackContext));
+    connection.getReceiveQueue().pause();
+    callbackContext.success();
+  }
+
+  private void resume(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    String socketKey = args.getString(0);
+    Connection connection = mRegistry.get(socketKey);
+
+    if(connection == null) {
+      callbackContext.error("Not connected");
+      return;
+    }
 
+    connection.getReceiveQueue().resume(mReaderListener);
     callbackContext.success();
   }
 
-  private void startServerSocket(String serverSocketKey) throws IOException, JSONException {
-    if(bluetoothServerSockets.containsKey(serverSocketKey))
+  private void setOptions(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    String socketKey = args.getString(0);
+    JSONObject options = args.getJSONObject(1);
+    Connection connection = mRegistry.get(socketKey);
+
+    if(connection == null) {
+      callbackContext.error("Not connected");
       return;
+    }
 
-    BluetoothServerSocket mBluetoothServerSocket = mBluetoothAdapter.listenUsingRfcommWithServiceRecord("Spatium wallet", UUID.fromString("995f40e0-ce68-4d24-8f68-f49d2b9d661f"));
-    bluetoothServerSockets.put(serverSocketKey, mBluetoothServerSocket);
+    connection.setOptions(options);
+    callbackContext.success();
+  }
 
-    while(bluetoothServerSockets.containsKey(serverSocketKey)) {
-      BluetoothSocket socket = mBluetoothServerSocket.accept();
-      BluetoothSocket mBluetoothSocket = bluetoothSockets.get(serverSocketKey);
+  private void startServer(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    String serverSocketKey = args.getString(0);
+    JSONObject options = args.optJSONObject(1);
 
-      String socketKey = UUID.randomUUID().toString();
-      if (!bluetoothSockets.containsKey(socketKey)) {
-        mBluetoothSocket = socket;
-        bluetoothSockets.put(socketKey, socket);
-      } else {
-        socket.close();
-      }
+    if(mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
+      callbackContext.error("Bluetooth is not enabled");
+      return;
+    }
+
+    if(mRegistry.contains(serverSocketKey)) {
+      callbackContext.error("Cannot listen while already connected");
+      return;
+    }
 
-      if (mBluetoothSocket != null) {
-        BluetoothDevice device = mBluetoothSocket.getRemoteDevice();
+    if(mRegistry.containsServer(serverSocketKey)) {
+      callbackContext.error("Already listening");
+      return;
+    }
 
-        JSONObject event = new JSONObject();
-        event.put("type", "Connected");
-        event.put("name", device.getName());
-        event.put("address", device.getAddress());
-        event.put("socketKey", socketKey);
-        event.put("serverSocketKey", serverSocketKey);
-        dispatchServerEvent(event);
-        startReading(socketKey);
-      }
+    if (options != null) {
+      mServerOptions.put(serverSocketKey, options);
+    } else {
+      mServerOptions.remove(serverSocketKey);
+    }
+
+    ServerHub hub = new ServerHub(serverSocketKey, options, mScheduler, mServerHubListener);
+    if (mServerHubs.putIfAbsent(serverSocketKey, hub) != null) {
+      callbackContext.error("Already listening");
+      return;
+    }
+
+    try {
+      mScheduler.executeAccept(new ServerSocketAcceptTask(serverSocketKey, callbackContext));
+    } catch (RejectedExecutionException e) {
+      mServerHubs.remove(serverSocketKey, hub);
+      hub.close();
+      callbackContext.error("Too many servers");
     }
   }
 
   private void stopServer(CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
     String socketKey = args.getString(0);
-    BluetoothServerSocket socket = bluetoothServerSockets.get(socketKey);
+    mServerOptions.remove(socketKey);
+    ServerHub hub = mServerHubs.remove(socketKey);
+    if (hub != null) {
+      hub.close();
+    }
+    TransportServerSocket socket = mRegistry.removeServer(socketKey);
 
-    if(!bluetoothServerSockets.containsKey(socketKey)) {
+    if(socket == null && hub == null) {
       callbackContext.error("Not listening");
       return;
     }
 
-    try {
-      socket.close();
-    } catch (Exception ignored) {}
-
-    bluetoothServerSockets.remove(socketKey);
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (Exception ignored) {}
+    }
 
     JSONObject event = new JSONObject();
     event.put("type", "Stopped");
@@ -294,6 +667,14 @@ public class Bluetooth extends CordovaPlugin {
     mStateCallback = callbackContext;
   }
 
+  private void setEventCallback(CordovaArgs args, CallbackContext callbackContext) {
+    JSONObject options = args.optJSONObject(0);
+    if (options != null) {
+      mEventChannel.setOptions(options);
+    }
+    mEventChannel.setCallback(callbackContext);
+  }
+
   private void registerStateReceiver() {
     if(mStateReceiver == null) {
       mStateReceiver = new BroadcastReceiver() {
@@ -302,22 +683,31 @@ public class Bluetooth extends CordovaPlugin {
           String action = intent.getAction();
           if (ACTION_STATE_CHANGED.equals(action)) {
             int state = intent.getIntExtra(EXTRA_STATE, -1);
+            mConnectionPool.evictAll();
+            if(state == BluetoothAdapter.STATE_OFF) {
+              mDiscoveryTable.clear();
+            }
+            if(state == BluetoothAdapter.STATE_ON || state == BluetoothAdapter.STATE_OFF) {
+              mBondedDevices.invalidate();
+              refreshPairedDevices();
+            }
             if(mStateCallback != null) {
               PluginResult result = new PluginResult(PluginResult.Status.OK, state);
               result.setKeepCallback(true);
               mStateCallback.sendPluginResult(result);
             }
 
-            if(state == BluetoothAdapter.STATE_ON && !bluetoothServerSockets.isEmpty()) {
-                for(String socketKey : new HashSet<>(bluetoothServerSockets.keySet())) {
-                    System.out.println(socketKey);
-                    bluetoothServerSockets.remove(socketKey);
-                    cordova.getThreadPool().execute(new ServerSocketAcceptTask(socketKey, null));
+            if(state == BluetoothAdapter.STATE_ON) {
+                for(String socketKey : new HashSet<>(mRegistry.getServerKeys())) {
+                    mRegistry.removeServer(socketKey);
+                    try {
+                      mScheduler.executeAccept(new ServerSocketAcceptTask(socketKey));
+                    } catch (RejectedExecutionException ignored) {}
                 }
             }
 
-            if(state == BluetoothAdapter.STATE_ON && mDiscoveryStarted) {
-              startDiscovery(null);
+            if(state == BluetoothAdapter.STATE_ON) {
+              mDiscoveryScheduler.restart();
             }
           }
         }
@@ -326,6 +716,44 @@ public class Bluetooth extends CordovaPlugin {
     }
   }
 
+  private void registerBondReceiver() {
+    if(mBondReceiver == null) {
+      mBondReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+          String action = intent.getAction();
+          if (BluetoothDevice.ACTION_BOND_STATE_CHANGED.equals(action)) {
+            mBondedDevices.invalidate();
+            refreshPairedDevices();
+          } else if (BluetoothDevice.ACTION_NAME_CHANGED.equals(action)) {
+            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+            if (device != null) {
+              mBondedDevices.invalidate(device.getAddress());
+              refreshPairedDevices();
+            }
+          }
+        }
+      };
+      IntentFilter filter = new IntentFilter();
+      filter.addAction(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
+      filter.addAction(BluetoothDevice.ACTION_NAME_CHANGED);
+      webView.getContext().registerReceiver(mBondReceiver, filter);
+    }
+  }
+
+  /**
+   * Pushes bond changes to the subscriber right away, without one the list
+   * is reloaded on the next read.
+   */
+  private void refreshPairedDevices() {
+    if(mPairedDevicesCallback == null || mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
+      return;
+    }
+    try {
+      mBondedDevices.refresh();
+    } catch (Exception ignored) { }
+  }
+
   private void registerDiscoveryReceiver() {
     if(mDiscoveryReceiver == null) {
       mDiscoveryReceiver = new BroadcastReceiver() {
@@ -333,6 +761,7 @@ public class Bluetooth extends CordovaPlugin {
         public void onReceive(Context context, Intent intent) {
           String action = intent.getAction();
           if (ACTION_DISCOVERY_STARTED.equals(action)) {
+            mDiscoveryTable.startCycle();
             if(mDiscoveryCallback != null) {
               PluginResult result = new PluginResult(PluginResult.Status.OK, true);
               result.setKeepCallback(true);
@@ -344,6 +773,11 @@ public class Bluetooth extends CordovaPlugin {
               mInternalDiscoveryCallback.sendPluginResult(result);
             }
           } else if (ACTION_DISCOVERY_FINISHED.equals(action)) {
+            boolean complete = mDiscoveryScheduler.onDiscoveryFinished();
+            int found = mDiscoveryTable.finishCycle(complete);
+            if (complete) {
+              mDiscoveryScheduler.recordDevicesFound(found);
+            }
             if(mDiscoveryCallback != null) {
               PluginResult result = new PluginResult(PluginResult.Status.OK, false);
               result.setKeepCallback(true);
@@ -406,16 +840,11 @@ public class Bluetooth extends CordovaPlugin {
           String action = intent.getAction();
           if (BluetoothDevice.ACTION_FOUND.equals(action)) {
             BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-            if (mDiscoveredCallback != null) {
-              try {
-                JSONObject item = new JSONObject();
-                item.put("name", device.getName());
-                item.put("address", device.getAddress());
-
-                PluginResult result = new PluginResult(PluginResult.Status.OK, item);
-                result.setKeepCallback(true);
-                mDiscoveredCallback.sendPluginResult(result);
-              } catch (Exception ignored) { }
+            if (device != null) {
+              BluetoothClass bluetoothClass = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
+              mDiscoveryTable.update(device.getAddress(), device.getName(),
+                      intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE),
+                      bluetoothClass != null ? bluetoothClass.getDeviceClass() : -1);
             }
           }
 
@@ -428,13 +857,11 @@ public class Bluetooth extends CordovaPlugin {
   }
 
   private void startDiscovery(final CallbackContext callbackContext) {
-    mDiscoveryStarted = true;
-
     try {
       if(!cordova.hasPermission(Manifest.permission.ACCESS_COARSE_LOCATION)) {
         cordova.requestPermission(this, REQUEST_PERMISSION_BT, Manifest.permission.ACCESS_COARSE_LOCATION);
       } else {
-        mBluetoothAdapter.startDiscovery();
+        mDiscoveryScheduler.start();
       }
 
       if(callbackContext != null)
@@ -448,8 +875,7 @@ public class Bluetooth extends CordovaPlugin {
 
   private void cancelDiscovery(final CallbackContext callbackContext) {
     try {
-      mDiscoveryStarted = false;
-      mBluetoothAdapter.cancelDiscovery();
+      mDiscoveryScheduler.stop();
       callbackContext.success();
     } catch (Exception ignored) {
       callbackContext.error("Failed to cancel discovery");
@@ -471,171 +897,691 @@ public class Bluetooth extends CordovaPlugin {
       return;
     }
 
-    JSONArray data = new JSONArray();
-    Set<BluetoothDevice> devices = mBluetoothAdapter.getBondedDevices();
-    for(BluetoothDevice device : devices) {
-      try {
-        JSONObject item = new JSONObject();
-        item.put("name", device.getName());
-        item.put("address", device.getAddress());
-        data.put(item);
-      } catch (Exception ignored) { }
+    try {
+      PluginResult result = new PluginResult(PluginResult.Status.OK, mBondedDevices.getList());
+      callbackContext.sendPluginResult(result);
+    } catch (JSONException e) {
+      callbackContext.error("Failed to list paired devices");
     }
+  }
 
-    PluginResult result = new PluginResult(PluginResult.Status.OK, data);
-    callbackContext.sendPluginResult(result);
+  private void getPairedDevices(CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
+    if(mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
+      callbackContext.error("Bluetooth is not enabled");
+      return;
+    }
+
+    callbackContext.success(mBondedDevices.get(args.isNull(0) ? null : args.getString(0)));
+  }
+
+  private void setPairedDevicesCallback(CallbackContext callbackContext) {
+    mPairedDevicesCallback = callbackContext;
+    refreshPairedDevices();
+  }
+
+  private void setStatsCallback(CordovaArgs args, CallbackContext callbackContext) {
+    long intervalMs = args.optLong(0);
+    mStats.setCallback(callbackContext, intervalMs);
+    if (intervalMs <= 0) {
+      callbackContext.success();
+    }
   }
 
-  private void connect(String socketKey, String address, final CallbackContext callbackContext) {
+  private void connect(final String socketKey, final String address, final JSONObject options, final CallbackContext callbackContext) {
     if(mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
       callbackContext.error("Bluetooth is not enabled");
       return;
     }
 
-    if(this.bluetoothSockets.containsKey(socketKey)) {
+    if(mRegistry.contains(socketKey) || mPendingConnects.containsKey(socketKey)) {
       callbackContext.error("Already connected");
       return;
     }
 
-    final BluetoothDevice targetDevice = mBluetoothAdapter.getRemoteDevice(address);
-
-    if(targetDevice == null) {
+    if(mBluetoothAdapter.getRemoteDevice(address) == null) {
       callbackContext.error("Failed to find the device");
       return;
     }
 
-    cordova.getThreadPool().execute(new Runnable() {
-      public void run() {
-        try {
-          BluetoothSocket clientSocket = targetDevice.createRfcommSocketToServiceRecord(UUID.fromString("995f40e0-ce68-4d24-8f68-f49d2b9d661f"));
-          clientSocket.connect();
-
-          if(!bluetoothSockets.containsKey(socketKey)) {
-            bluetoothSockets.put(socketKey, clientSocket);
-
-            JSONObject event = new JSONObject();
-            event.put("type", "Connected");
-            event.put("name", targetDevice.getName());
-            event.put("address", targetDevice.getAddress());
-            event.put("socketKey", socketKey);
-            dispatchEvent(event);
-            startReading(socketKey);
+    try {
+      mScheduler.executeConnect(new Runnable() {
+        public void run() {
+          try {
+            establish(socketKey, address, options);
             callbackContext.success();
-          } else {
-            callbackContext.error("Failed to conect: interrupted");
-            clientSocket.close();
+          } catch (Exception e) {
+            callbackContext.error(e.getMessage());
           }
-        } catch (Exception e) {
-           callbackContext.error("Failed to conect to remote socket");
         }
-      }
-    });
+      });
+    } catch (RejectedExecutionException e) {
+      callbackContext.error("Failed to connect: scheduler is shut down");
+    }
   }
 
-  private void disconnect(CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
-    String socketKey = args.getString(0);
-    BluetoothSocket mBluetoothSocket = bluetoothSockets.get(socketKey);
-
-    if(!bluetoothSockets.containsKey(socketKey)) {
-      callbackContext.error("Not connected");
+  /**
+   * Connects, runs the handshakes and registers the connection on the
+   * calling thread. Failures are reported with a message fit for the caller.
+   */
+  private void establish(String socketKey, String address, JSONObject options) throws IOException, JSONException {
+    boolean pooling = options != null && options.optBoolean("pool", false);
+    String poolKey = ConnectionPool.getKey(address, SERVICE_UUID, options);
+    if (pooling && reuse(socketKey, poolKey, options)) {
       return;
     }
 
+    ConnectTask task = new ConnectTask(mTransport, mScheduler, address, SERVICE_UUID, options);
+    if(mRegistry.contains(socketKey) || mPendingConnects.putIfAbsent(socketKey, task) != null) {
+      throw new IOException("Already connected");
+    }
+
+    TransportSocket clientSocket;
+    long connectStart = System.currentTimeMillis();
+    pauseDiscovery();
     try {
-      mBluetoothSocket.close();
-    } catch (Exception e) {
-      callbackContext.error("Error closing client socket");
+      clientSocket = task.connect();
+    } catch (SocketTimeoutException e) {
+      mStats.recordConnectFailure();
+      throw new IOException("Failed to connect: timed out");
+    } catch (InterruptedIOException e) {
+      mStats.recordConnectFailure();
+      throw new IOException("Failed to connect: cancelled");
+    } catch (IOException e) {
+      mStats.recordConnectFailure();
+      throw new IOException("Failed to connect to remote socket: " + e.getMessage());
+    } finally {
+      mPendingConnects.remove(socketKey, task);
+      resumeDiscovery();
     }
 
-    JSONObject event = new JSONObject();
-    event.put("type", "Close");
-    event.put("socketKey", socketKey);
-    dispatchEvent(event);
+    ResilientSocket resilient = null;
+    ProbedSocket probe = null;
+    try {
+      if (ResilientSocket.isEnabled(options)) {
+        resilient = ResilientSocket.connect(clientSocket, options, newDialer(address, options),
+                mScheduler.getConnectExecutor(), mResilientListener);
+        clientSocket = resilient;
+      }
+      if (ProbedSocket.isEnabled(options)) {
+        probe = ProbedSocket.negotiate(clientSocket, options);
+        clientSocket = probe;
+      }
+      clientSocket = handshake(clientSocket, options);
+    } catch (IOException e) {
+      clientSocket.close();
+      mStats.recordConnectFailure();
+      throw new IOException("Failed to connect: handshake failed: " + e.getMessage());
+    }
 
-    bluetoothSockets.remove(socketKey);
-    callbackContext.success();
+    Connection connection = newConnection(socketKey, clientSocket, options);
+    connection.setResilientSocket(resilient);
+    connection.setProbe(probe);
+    if (Multiplexer.isEnabled(options)) {
+      connection.setMultiplexer(new Multiplexer(connection, true, options, mMultiplexerListener));
+    }
+    if (pooling) {
+      connection.setPooling(poolKey, getKeepAliveData(options));
+    }
+    if(!mRegistry.add(connection)) {
+      clientSocket.close();
+      throw new IOException("Failed to connect: interrupted");
+    }
+    long connectTime = System.currentTimeMillis() - connectStart;
+    connection.setConnectTime(connectTime);
+    mStats.recordConnect(connectTime);
+
+    dispatchConnectedEvent(connection);
+    startReading(connection);
+  }
+
+  /**
+   * Takes over an idle pooled connection to the peer, if there is one.
+   */
+  private boolean reuse(String socketKey, String poolKey, JSONObject options) throws IOException, JSONException {
+    if(mRegistry.contains(socketKey)) {
+      throw new IOException("Already connected");
+    }
+
+    Connection connection = mConnectionPool.take(poolKey, socketKey);
+    if (connection == null) {
+      return false;
+    }
+
+    connection.setOptions(options);
+    connection.setPooling(poolKey, getKeepAliveData(options));
+    if(!mRegistry.add(connection)) {
+      connection.close();
+      throw new IOException("Failed to connect: interrupted");
+    }
+    dispatchConnectedEvent(connection);
+    return true;
+  }
+
+  private static byte[] getKeepAliveData(JSONObject options) throws JSONException {
+    JSONArray array = options.optJSONArray("poolKeepAlive");
+    if (array == null || array.length() == 0) {
+      return null;
+    }
+
+    byte[] data = new byte[array.length()];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) array.getInt(i);
+    }
+    return data;
+  }
+
+  private void dispatchConnectedEvent(Connection connection) throws JSONException {
+    JSONObject event = new JSONObject();
+    event.put("type", "Connected");
+    event.put("name", connection.getSocket().getRemoteName());
+    event.put("address", connection.getSocket().getRemoteAddress());
+    event.put("socketKey", connection.getSocketKey());
+    dispatchEvent(event);
+  }
+
+  /**
+   * Discovery slows down connects considerably, so it is cancelled while any
+   * connect is in progress and restarted once the last one has finished.
+   */
+  private void pauseDiscovery() {
+    mDiscoveryScheduler.hold();
+    if (!mDiscoveryScheduler.isEnabled() && mBluetoothAdapter.isDiscovering()) {
+      mBluetoothAdapter.cancelDiscovery();
+    }
+  }
+
+  private void resumeDiscovery() {
+    mDiscoveryScheduler.release();
+  }
+
+  /**
+   * Reaches the peer of a resilient socket again after its link dropped,
+   * with the connect options the socket was opened with.
+   */
+  private ResilientSocket.Dialer newDialer(final String address, final JSONObject options) {
+    return new ResilientSocket.Dialer() {
+      private ConnectTask task = null;
+      private boolean cancelled = false;
+
+      @Override
+      public TransportSocket dial() throws IOException {
+        ConnectTask task = new ConnectTask(mTransport, mScheduler, address, SERVICE_UUID, options);
+        synchronized (this) {
+          if (cancelled) {
+            throw new InterruptedIOException("Connect cancelled");
+          }
+          this.task = task;
+        }
+
+        pauseDiscovery();
+        try {
+          return task.connect();
+        } finally {
+          resumeDiscovery();
+        }
+      }
+
+      @Override
+      public synchronized void cancel() {
+        cancelled = true;
+        if (task != null) {
+          task.cancel();
+        }
+      }
+    };
+  }
+
+  private final ResilientSocket.Listener mResilientListener = new ResilientSocket.Listener() {
+    @Override
+    public void onLinkLost(ResilientSocket socket) {
+      dispatchSessionEvent(socket, "Reconnecting", 0, 0);
+    }
+
+    @Override
+    public void onLinkRestored(ResilientSocket socket, long latencyMs, long bytesReplayed) {
+      dispatchSessionEvent(socket, "Reconnected", latencyMs, bytesReplayed);
+    }
+  };
+
+  private void dispatchSessionEvent(ResilientSocket socket, String type, long latencyMs, long bytesReplayed) {
+    for (Connection connection : mRegistry.getConnections()) {
+      if (connection.getResilientSocket() != socket) {
+        continue;
+      }
+      try {
+        JSONObject event = new JSONObject();
+        event.put("type", type);
+        event.put("socketKey", connection.getSocketKey());
+        if ("Reconnected".equals(type)) {
+          event.put("latency", latencyMs);
+          event.put("bytesReplayed", bytesReplayed);
+        }
+        dispatchEvent(event);
+      } catch (JSONException ignored) {}
+    }
   }
 
-  private void startReading(String socketKey) {
+  private void openMany(CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
+    JSONArray targets = args.getJSONArray(0);
+    JSONObject options = args.optJSONObject(1);
+    String batchKey = options != null && options.has("batchKey") ? options.getString("batchKey") : UUID.randomUUID().toString();
 
-    if(!this.bluetoothSockets.containsKey(socketKey)) {
+    if(mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
+      callbackContext.error("Bluetooth is not enabled");
       return;
     }
 
-    cordova.getThreadPool().execute(new Runnable() {
-      public void run() {
+    ConnectBatch batch = new ConnectBatch(batchKey, targets, options, mConnector, new ConnectBatch.Listener() {
+      @Override
+      public void onTargetFinished(ConnectBatch batch, JSONObject result) {
+        JSONObject message = new JSONObject();
         try {
-          BluetoothSocket socket = bluetoothSockets.get(socketKey);
+          message.put("target", result);
+        } catch (JSONException ignored) {}
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, message);
+        pluginResult.setKeepCallback(true);
+        callbackContext.sendPluginResult(pluginResult);
+      }
+
+      @Override
+      public void onFinished(ConnectBatch batch, JSONObject result) {
+        mConnectBatches.remove(batch.getBatchKey(), batch);
+        callbackContext.success(result);
+      }
+    });
+    if(mConnectBatches.putIfAbsent(batchKey, batch) != null) {
+      callbackContext.error("Batch already running");
+      return;
+    }
+    batch.start(mScheduler);
+  }
 
-          while (bluetoothSockets.containsKey(socketKey)) {
+  private final ConnectBatch.Connector mConnector = new ConnectBatch.Connector() {
+    @Override
+    public void connect(String socketKey, String address, JSONObject options) throws Exception {
+      establish(socketKey, address, options);
+    }
 
-            byte[] buffer = new byte[INPUT_STREAM_BUFFER_SIZE];
-            int bytesRead = 0;
+    @Override
+    public void cancel(String socketKey) {
+      ConnectTask task = mPendingConnects.get(socketKey);
+      if (task != null) {
+        task.cancel();
+      }
+    }
+  };
 
-            while ((bytesRead = socket.getInputStream().read(buffer)) >= 0) {
-              byte[] data = buffer.length == bytesRead
-                      ? buffer
-                      : Arrays.copyOfRange(buffer, 0, bytesRead);
+  private void cancelOpen(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    String socketKey = args.getString(0);
+    ConnectTask task = mPendingConnects.get(socketKey);
 
-              JSONObject event = new JSONObject();
-              event.put("type", "DataReceived");
-              event.put("data", new JSONArray(toByteList(data)));
-              event.put("socketKey", socketKey);
-              dispatchEvent(event);
-            }
-          }
-        } catch (Exception e) {
-          try {
-            bluetoothSockets.get(socketKey).close();
-          } catch (Exception ignored) {}
+    if(task == null) {
+      callbackContext.error("Not connecting");
+      return;
+    }
+    task.cancel();
+    callbackContext.success();
+  }
 
-          bluetoothSockets.remove(socketKey);
+  private void cancelOpenMany(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    String batchKey = args.getString(0);
+    ConnectBatch batch = mConnectBatches.get(batchKey);
 
-          try {
-            JSONObject event = new JSONObject();
-            event.put("type", "Close");
-            event.put("socketKey", socketKey);
-            dispatchEvent(event);
-          } catch (Exception ignored) {}
+    if(batch == null) {
+      callbackContext.error("Not connecting");
+      return;
+    }
+    batch.cancel();
+    callbackContext.success();
+  }
+
+  private void disconnect(CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
+    String socketKey = args.getString(0);
+    Connection connection = mRegistry.get(socketKey);
+
+    if(connection == null) {
+      callbackContext.error("Not connected");
+      return;
+    }
+
+    if (park(connection)) {
+      dispatchCloseEvent(socketKey, false);
+      callbackContext.success();
+      return;
+    }
+
+    boolean closed = false;
+    connection.setCloseReason(Connection.CLOSE_LOCAL);
+    try {
+      closed = mRegistry.close(connection);
+    } catch (Exception e) {
+      callbackContext.error("Error closing client socket");
+      return;
+    }
+
+    if (closed) {
+      dispatchCloseEvent(socketKey, false);
+    }
+    callbackContext.success();
+  }
+
+  /**
+   * Moves a pooled client connection from the registry to the connection
+   * pool instead of closing it. Channels of a multiplexed link are closed.
+   */
+  private boolean park(Connection connection) {
+    String poolKey = connection.getPoolKey();
+    if (poolKey == null || !connection.isOpen() || !mRegistry.remove(connection)) {
+      return false;
+    }
+
+    Multiplexer multiplexer = connection.getMultiplexer();
+    if (multiplexer != null) {
+      multiplexer.closeChannels();
+    }
+    if (!mConnectionPool.offer(poolKey, connection, connection.getKeepAliveData())) {
+      return false;
+    }
+    connection.getReceiveQueue().resume(mReaderListener);
+    return true;
+  }
 
+  /**
+   * Starts the pings of a probed connection. A dead link is closed, unless
+   * the session under it can drop the link and resume on a new one.
+   */
+  private void startProbe(final Connection connection) {
+    ProbedSocket probe = connection.getProbe();
+    if (probe == null) {
+      return;
+    }
+    probe.start(mScheduler, new ProbedSocket.Listener() {
+      @Override
+      public void onLinkDead(ProbedSocket socket) {
+        ResilientSocket resilient = connection.getResilientSocket();
+        if (resilient != null && resilient.dropLink()) {
+          return;
         }
+        connection.setCloseReason(Connection.CLOSE_TIMEOUT);
+        try {
+          connection.close();
+        } catch (IOException ignored) {}
       }
     });
   }
 
+  private void startReading(Connection connection) {
+    startProbe(connection);
+    Multiplexer multiplexer = connection.getMultiplexer();
+    try {
+      if (multiplexer == null) {
+        mScheduler.executeReader(new SocketReader(connection, mReaderListener));
+        return;
+      }
+      mScheduler.executeReader(multiplexer.receiveTask);
+    } catch (RejectedExecutionException e) {
+      mReaderListener.onClosed(connection, true);
+      return;
+    }
+
+    try {
+      mScheduler.executeReader(multiplexer.sendTask);
+    } catch (RejectedExecutionException e) {
+      try {
+        connection.getSocket().close();
+      } catch (IOException ignored) {}
+    }
+  }
+
+  private final Multiplexer.Listener mMultiplexerListener = new Multiplexer.Listener() {
+    @Override
+    public void onChannelOpened(Connection carrier, Multiplexer.Channel channel) {
+      if (carrier.isIdle()) {
+        channel.close();
+        return;
+      }
+
+      String socketKey = UUID.randomUUID().toString();
+      Connection connection = newConnection(socketKey, channel, carrier.getMultiplexer().getOptions());
+      if (!mRegistry.add(connection)) {
+        channel.close();
+        return;
+      }
+
+      try {
+        JSONObject event = new JSONObject();
+        event.put("type", "ChannelOpened");
+        event.put("socketKey", carrier.getSocketKey());
+        event.put("channelSocketKey", socketKey);
+        dispatchEvent(event);
+      } catch (JSONException ignored) {}
+      startReading(connection);
+    }
+
+    @Override
+    public void onClosed(Connection carrier, boolean hasError) {
+      mReaderListener.onClosed(carrier, hasError);
+    }
+  };
+
+  private final SocketReader.Listener mReaderListener = new SocketReader.Listener() {
+    @Override
+    public void onData(Connection connection, byte[] data) {
+      if (connection.isIdle() && mConnectionPool.evict(connection)) {
+        return;
+      }
+      try {
+        if (mEventChannel.isConnected()) {
+          mEventChannel.postData(connection.getSocketKey(), data);
+          return;
+        }
+
+        JSONObject event = new JSONObject();
+        event.put("type", "DataReceived");
+        event.put("data", new JSONArray(toByteList(data)));
+        event.put("socketKey", connection.getSocketKey());
+        dispatchEvent(event);
+      } catch (JSONException ignored) {}
+    }
+
+    @Override
+    public void onClosed(Connection connection, boolean hasError) {
+      String reason = connection.getCloseReason();
+      if (reason == null) {
+        reason = hasError ? Connection.CLOSE_ERROR : Connection.CLOSE_REMOTE;
+      }
+      mStats.recordClosed(reason);
+
+      if (connection.isIdle() && mConnectionPool.evict(connection)) {
+        return;
+      }
+
+      boolean closed = false;
+      try {
+        closed = mRegistry.close(connection);
+      } catch (Exception ignored) {}
+
+      if (closed) {
+        dispatchCloseEvent(connection.getSocketKey(), hasError);
+      }
+      for (ServerHub hub : mServerHubs.values()) {
+        hub.onClosed(connection);
+      }
+    }
+  };
+
+  private void dispatchCloseEvent(String socketKey, boolean hasError) {
+    try {
+      JSONObject event = new JSONObject();
+      event.put("type", "Close");
+      event.put("socketKey", socketKey);
+      event.put("hasError", hasError);
+      dispatchEvent(event);
+    } catch (Exception ignored) {}
+  }
+
   private void write(CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
     String socketKey = args.getString(0);
-    JSONArray data = args.getJSONArray(1);
+    byte[] dataBuffer = getDataBuffer(args, 1);
+    Connection connection = mRegistry.get(socketKey);
 
-    byte[] dataBuffer = new byte[data.length()];
-    for(int i = 0; i < dataBuffer.length; i++) {
-      dataBuffer[i] = (byte) data.getInt(i);
+    if(connection == null) {
+      callbackContext.error("Not connected");
+      return;
+    }
+    if(connection.getMultiplexer() != null) {
+      callbackContext.error("Socket is multiplexed");
+      return;
+    }
+
+    try {
+      connection.getWriteQueue().enqueue(connection.frame(dataBuffer), callbackContext);
+    } catch (IOException e) {
+      callbackContext.error(e.getMessage());
     }
+  }
 
-    BluetoothSocket socket = bluetoothSockets.get(socketKey);
+  private void writeFrames(CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
+    String socketKey = args.getString(0);
+    int count = args.getInt(1);
+    Connection connection = mRegistry.get(socketKey);
 
-    if(!this.bluetoothSockets.containsKey(socketKey)) {
+    if(connection == null) {
       callbackContext.error("Not connected");
       return;
     }
+    if(connection.getMultiplexer() != null) {
+      callbackContext.error("Socket is multiplexed");
+      return;
+    }
+
+    byte[][] payloads = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      payloads[i] = getDataBuffer(args, i + 2);
+    }
 
-    DataOutputStream mPrintWriter = null;
     try {
-      mPrintWriter = new DataOutputStream(socket.getOutputStream());
+      connection.getWriteQueue().enqueue(connection.frame(payloads), callbackContext);
     } catch (IOException e) {
+      callbackContext.error(e.getMessage());
+    }
+  }
+
+  private void sendFile(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    String socketKey = args.getString(0);
+    Connection connection = mRegistry.get(socketKey);
+
+    if(connection == null) {
       callbackContext.error("Not connected");
+      return;
+    }
+    if(connection.getMultiplexer() != null) {
+      callbackContext.error("Socket is multiplexed");
+      return;
     }
 
+    long offset = args.isNull(2) ? 0 : args.getLong(2);
+    long length = args.isNull(3) ? -1 : args.getLong(3);
+    long progressInterval = args.isNull(4) ? FileTransfer.DEFAULT_PROGRESS_INTERVAL_MS : args.getLong(4);
+    FileTransfer file;
     try {
-        mPrintWriter.write(dataBuffer);
-        mPrintWriter.flush();
-        callbackContext.success();
-    } catch (Exception e) {
-      callbackContext.error("Disconnected");
+      file = FileTransfer.openSend(getFile(args.getString(1)), offset, length, progressInterval, callbackContext);
+    } catch (IOException e) {
+      callbackContext.error(e.getMessage());
       return;
     }
 
-    callbackContext.success();
+    try {
+      connection.getWriteQueue().enqueue(file);
+    } catch (IOException e) {
+      file.fail(e.getMessage());
+    }
+  }
+
+  private void receiveToFile(CordovaArgs args, CallbackContext callbackContext) throws JSONException {
+    String socketKey = args.getString(0);
+    Connection connection = mRegistry.get(socketKey);
+
+    if(connection == null) {
+      callbackContext.error("Not connected");
+      return;
+    }
+    if(connection.getMultiplexer() != null) {
+      callbackContext.error("Socket is multiplexed");
+      return;
+    }
+    if(connection.getFileReceiver() != null) {
+      callbackContext.error("Already receiving a file");
+      return;
+    }
+
+    long length = args.isNull(2) ? -1 : args.getLong(2);
+    long progressInterval = args.isNull(3) ? FileTransfer.DEFAULT_PROGRESS_INTERVAL_MS : args.getLong(3);
+    FileTransfer file;
+    try {
+      file = FileTransfer.openReceive(getFile(args.getString(1)), length, progressInterval, callbackContext);
+    } catch (IOException e) {
+      callbackContext.error(e.getMessage());
+      return;
+    }
+
+    if(!connection.setFileReceiver(file)) {
+      file.fail("Already receiving a file");
+    } else if(!connection.isOpen()) {
+      connection.clearFileReceiver(file);
+      file.fail("Not connected");
+    } else if(file.isDone()) {
+      connection.clearFileReceiver(file);
+      file.complete();
+    }
+  }
+
+  /**
+   * Accepts plain paths as well as file: URLs as handed out by the file
+   * plugin.
+   */
+  private static File getFile(String path) throws IOException {
+    if (!path.startsWith("file:")) {
+      return new File(path);
+    }
+    try {
+      return new File(URI.create(path));
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Invalid file URL");
+    }
+  }
+
+  private byte[] getDataBuffer(CordovaArgs args, int index) throws JSONException {
+    Object data = args.opt(index);
+    if (!(data instanceof JSONArray)) {
+      return args.getArrayBuffer(index);
+    }
+
+    JSONArray array = (JSONArray) data;
+    byte[] dataBuffer = new byte[array.length()];
+    for(int i = 0; i < dataBuffer.length; i++) {
+      dataBuffer[i] = (byte) array.getInt(i);
+    }
+    return dataBuffer;
+  }
+
+  private Connection newConnection(String socketKey, TransportSocket socket, JSONObject options) {
+    Connection connection = new Connection(socketKey, socket, mBufferPool, mScheduler.getWriterExecutor(), new WriteQueue.Listener() {
+      @Override
+      public void onDrain(String socketKey, long bufferedAmount) {
+        try {
+          JSONObject event = new JSONObject();
+          event.put("type", "Drain");
+          event.put("socketKey", socketKey);
+          event.put("bufferedAmount", bufferedAmount);
+          dispatchEvent(event);
+        } catch (Exception ignored) {}
+      }
+    });
+    if (options != null) {
+      connection.setOptions(options);
+    }
+    return connection;
   }
 
   private void requestEnable(final CallbackContext callbackContext) {
@@ -676,11 +1622,16 @@ public class Bluetooth extends CordovaPlugin {
       }
     }
     if(requestCode == REQUEST_PERMISSION_BT) {
-      mBluetoothAdapter.startDiscovery();
+      mDiscoveryScheduler.start();
     }
   }
 
   private void dispatchEvent(final JSONObject jsonEventObject) {
+    if (mEventChannel.isConnected()) {
+      mEventChannel.post(EventChannel.CHANNEL_SOCKET, jsonEventObject);
+      return;
+    }
+
     cordova.getActivity().runOnUiThread(new Runnable(){
       @Override
       public void run() {
@@ -690,6 +1641,11 @@ public class Bluetooth extends CordovaPlugin {
   }
 
   private void dispatchServerEvent(final JSONObject jsonEventObject) {
+    if (mEventChannel.isConnected()) {
+      mEventChannel.post(EventChannel.CHANNEL_SERVER, jsonEventObject);
+      return;
+    }
+
     cordova.getActivity().runOnUiThread(new Runnable(){
       @Override
       public void run() {
@@ -706,50 +1662,245 @@ public class Bluetooth extends CordovaPlugin {
     return byteList;
   }
 
+  private final ServerHub.Listener mServerHubListener = new ServerHub.Listener() {
+    @Override
+    public void onAdmitted(ServerHub hub, TransportSocket socket, long acceptTime) {
+      JSONObject options = mServerOptions.get(hub.getServerSocketKey());
+      if (!needsHandshake(options)) {
+        acceptClient(hub, socket, null, null, options, acceptTime);
+      } else {
+        startHandshake(hub, socket, options, acceptTime);
+      }
+    }
+  };
+
+  private void acceptClient(ServerHub hub, TransportSocket socket, ResilientSocket resilient, ProbedSocket probe, JSONObject options, long acceptTime) {
+    try {
+      acceptConnection(hub, socket, resilient, probe, options, acceptTime);
+    } catch (Exception e) {
+      try {
+        socket.close();
+      } catch (IOException ignored) {}
+      hub.onFailed();
+    }
+  }
+
+  private void acceptConnection(ServerHub hub, TransportSocket socket, ResilientSocket resilient, ProbedSocket probe, JSONObject options, long acceptTime) throws IOException {
+    String socketKey = UUID.randomUUID().toString();
+    Connection connection = newConnection(socketKey, socket, options);
+    connection.setResilientSocket(resilient);
+    connection.setProbe(probe);
+    if (Multiplexer.isEnabled(options)) {
+      connection.setMultiplexer(new Multiplexer(connection, false, options, mMultiplexerListener));
+    }
+    if (!mRegistry.add(connection)) {
+      throw new IOException("Already connected");
+    }
+    connection.setConnectTime(System.currentTimeMillis() - acceptTime);
+    hub.onConnected(connection, acceptTime);
+
+    try {
+      JSONObject event = new JSONObject();
+      event.put("type", "Connected");
+      event.put("name", socket.getRemoteName());
+      event.put("address", socket.getRemoteAddress());
+      event.put("socketKey", socketKey);
+      event.put("serverSocketKey", hub.getServerSocketKey());
+      dispatchServerEvent(event);
+    } catch (JSONException ignored) {}
+    startReading(connection);
+  }
+
+  private static boolean needsHandshake(JSONObject options) {
+    return CompressedSocket.getCodecs(options) != CompressedSocket.CODEC_NONE || Multiplexer.isEnabled(options)
+            || ResilientSocket.isEnabled(options) || ProbedSocket.isEnabled(options);
+  }
+
+  private static TransportSocket handshake(TransportSocket socket, JSONObject options) throws IOException {
+    socket = CompressedSocket.negotiate(socket, options);
+    if (Multiplexer.isEnabled(options)) {
+      Multiplexer.handshake(socket);
+    }
+    return socket;
+  }
+
+  /**
+   * Runs the handshakes off the accept loop, so a slow or silent client does
+   * not hold up the clients behind it.
+   */
+  private void startHandshake(final ServerHub hub, final TransportSocket socket, final JSONObject options, final long acceptTime) {
+    try {
+      mScheduler.executeReader(new Runnable() {
+        @Override
+        public void run() {
+          TransportSocket clientSocket = socket;
+          ResilientSocket resilient = null;
+          ProbedSocket probe = null;
+          try {
+            if (ResilientSocket.isEnabled(options)) {
+              resilient = ResilientSocket.accept(socket, options, mSessions, mResilientListener);
+              if (resilient == null) {
+                hub.onResumed();
+                return;
+              }
+              clientSocket = resilient;
+            }
+            if (ProbedSocket.isEnabled(options)) {
+              probe = ProbedSocket.negotiate(clientSocket, options);
+              clientSocket = probe;
+            }
+            clientSocket = handshake(clientSocket, options);
+          } catch (Exception e) {
+            try {
+              clientSocket.close();
+              socket.close();
+            } catch (IOException ignored) {}
+            hub.onFailed();
+            return;
+          }
+          acceptClient(hub, clientSocket, resilient, probe, options, acceptTime);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      try {
+        socket.close();
+      } catch (IOException ignored) {}
+      hub.onFailed();
+    }
+  }
+
+  /**
+   * Accepts clients until the server is stopped. When accept fails while the
+   * adapter is on, the server socket is reopened with backoff; when the
+   * adapter is off the loop ends and the state receiver restarts it.
+   */
   public class ServerSocketAcceptTask implements Runnable {
     private String serverSocketKey;
+    private ServerHub hub;
     private CallbackContext callbackContext;
 
+    public ServerSocketAcceptTask(String serverSocketKey) {
+      this(serverSocketKey, null);
+    }
+
+    /**
+     * Reports to the callback once the server socket is listening, or why it
+     * could not be opened.
+     */
     public ServerSocketAcceptTask(String serverSocketKey, CallbackContext callbackContext) {
       this.serverSocketKey = serverSocketKey;
+      this.hub = mServerHubs.get(serverSocketKey);
       this.callbackContext = callbackContext;
     }
 
     @Override
     public void run() {
+      TransportServerSocket serverSocket;
       try {
-          BluetoothServerSocket mBluetoothServerSocket = mBluetoothAdapter.listenUsingRfcommWithServiceRecord("Spatium wallet", UUID.fromString("995f40e0-ce68-4d24-8f68-f49d2b9d661f"));
-          bluetoothServerSockets.put(serverSocketKey, mBluetoothServerSocket);
-
-          while(bluetoothServerSockets.containsKey(serverSocketKey)) {
-            BluetoothSocket socket = mBluetoothServerSocket.accept();
-            BluetoothSocket mBluetoothSocket = bluetoothSockets.get(serverSocketKey);
-
-            String socketKey = UUID.randomUUID().toString();
-            if (!bluetoothSockets.containsKey(socketKey)) {
-              mBluetoothSocket = socket;
-              bluetoothSockets.put(socketKey, socket);
-            } else {
-              socket.close();
-            }
+        serverSocket = mTransport.listen(SERVICE_NAME, SERVICE_UUID);
+      } catch (IOException e) {
+        if (callbackContext != null) {
+          callbackContext.error(e.getMessage());
+        }
+        failed();
+        return;
+      }
+      if (!mRegistry.addServer(serverSocketKey, serverSocket)) {
+        try {
+          serverSocket.close();
+        } catch (IOException ignored) {}
+        if (callbackContext != null) {
+          callbackContext.error("Already listening");
+        }
+        return;
+      }
+      if (hub == null || mServerHubs.get(serverSocketKey) != hub) {
+        // Stopped before the server socket was registered
+        mRegistry.removeServer(serverSocketKey, serverSocket);
+        try {
+          serverSocket.close();
+        } catch (IOException ignored) {}
+        if (callbackContext != null) {
+          callbackContext.error("Server stopped");
+        }
+        return;
+      }
+      if (callbackContext != null) {
+        callbackContext.success();
+        callbackContext = null;
+      }
 
-            if (mBluetoothSocket != null) {
-              BluetoothDevice device = mBluetoothSocket.getRemoteDevice();
-
-              JSONObject event = new JSONObject();
-              event.put("type", "Connected");
-              event.put("name", device.getName());
-              event.put("address", device.getAddress());
-              event.put("socketKey", socketKey);
-              event.put("serverSocketKey", serverSocketKey);
-              dispatchServerEvent(event);
-              startReading(socketKey);
-            }
-          }
-      } catch (Exception e) {
-        if(callbackContext != null)
-          callbackContext.error("Listening failed");
+      while (serverSocket != null && mRegistry.isListening(serverSocketKey, serverSocket)) {
+        TransportSocket socket;
+        try {
+          socket = serverSocket.accept();
+        } catch (IOException e) {
+          serverSocket = reopen(serverSocket);
+          continue;
+        }
+
+        ServerHub hub = mServerHubs.get(serverSocketKey);
+        if (hub != null) {
+          hub.offer(socket);
+        } else {
+          try {
+            socket.close();
+          } catch (IOException ignored) {}
+        }
+      }
+    }
+
+    private TransportServerSocket reopen(TransportServerSocket serverSocket) {
+      try {
+        serverSocket.close();
+      } catch (IOException ignored) {}
+
+      long delay = ACCEPT_RETRY_MS;
+      while (mRegistry.isListening(serverSocketKey, serverSocket)
+              && mBluetoothAdapter != null && mBluetoothAdapter.isEnabled()) {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+
+        TransportServerSocket newServerSocket;
+        try {
+          newServerSocket = mTransport.listen(SERVICE_NAME, SERVICE_UUID);
+        } catch (IOException e) {
+          delay = Math.min(MAX_ACCEPT_RETRY_MS, delay * 2);
+          continue;
+        }
+        if (!mRegistry.replaceServer(serverSocketKey, serverSocket, newServerSocket)) {
+          try {
+            newServerSocket.close();
+          } catch (IOException ignored) {}
+          return null;
+        }
+        ServerHub hub = mServerHubs.get(serverSocketKey);
+        if (hub != null) {
+          hub.recordRestart();
+        }
+        return newServerSocket;
+      }
+      return null;
+    }
+
+    private void failed() {
+      mServerOptions.remove(serverSocketKey);
+      ServerHub hub = mServerHubs.remove(serverSocketKey);
+      if (hub != null) {
+        hub.close();
       }
+
+      try {
+        JSONObject event = new JSONObject();
+        event.put("type", "Stopped");
+        event.put("serverSocketKey", serverSocketKey);
+        event.put("hasError", true);
+        dispatchServerEvent(event);
+      } catch (JSONException ignored) {}
     }
   }
 }
@@ -0,0 +1,182 @@
+package capital.spatium.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.UUID;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+
+/**
+ * RFCOMM transport backed by the platform Bluetooth adapter.
+ *
+ * With a channel cache set, a connect first tries the channel that SDP
+ * resolved last time and only falls back to an SDP lookup when that fails.
+ * Connecting to a channel and reading the resolved one use hidden platform
+ * APIs; where they are unavailable every connect goes through SDP.
+ */
+class BluetoothTransport implements Transport {
+  private final BluetoothAdapter adapter;
+  private volatile ChannelCache channelCache = null;
+
+  BluetoothTransport(BluetoothAdapter adapter) {
+    this.adapter = adapter;
+  }
+
+  void setChannelCache(ChannelCache channelCache) {
+    this.channelCache = channelCache;
+  }
+
+  @Override
+  public TransportSocket connect(String address, UUID serviceUuid, ConnectListener listener) throws IOException {
+    BluetoothDevice device = adapter.getRemoteDevice(address);
+    if (device == null) {
+      throw new IOException("Failed to find the device");
+    }
+
+    ChannelCache cache = channelCache;
+    if (cache != null) {
+      Integer channel = cache.get(address, serviceUuid);
+      if (channel != null) {
+        long start = System.currentTimeMillis();
+        BluetoothSocket socket = createRfcommSocket(device, channel);
+        if (socket != null && connect(socket, listener)) {
+          cache.recordDirectConnect(System.currentTimeMillis() - start);
+          return new Socket(socket);
+        }
+        cache.remove(address, serviceUuid);
+      }
+    }
+
+    long start = System.currentTimeMillis();
+    BluetoothSocket socket = device.createRfcommSocketToServiceRecord(serviceUuid);
+    try {
+      listener.onConnecting(socket);
+      socket.connect();
+    } catch (IOException e) {
+      try {
+        socket.close();
+      } catch (IOException ignored) {}
+      throw e;
+    }
+
+    if (cache != null) {
+      cache.recordSdpConnect(System.currentTimeMillis() - start);
+      int channel = getChannel(socket);
+      if (channel > 0) {
+        cache.put(address, serviceUuid, channel);
+      }
+    }
+    return new Socket(socket);
+  }
+
+  /**
+   * Connects a socket to a cached channel. Returns false when the peer
+   * refused and SDP should be tried, throws when the connect was aborted.
+   * An abort closes the socket and fails the connect like a refusal would,
+   * so the listener is asked again before the cached channel is given up.
+   */
+  private static boolean connect(BluetoothSocket socket, ConnectListener listener) throws IOException {
+    try {
+      listener.onConnecting(socket);
+      socket.connect();
+      return true;
+    } catch (InterruptedIOException e) {
+      closeQuietly(socket);
+      throw e;
+    } catch (IOException e) {
+      closeQuietly(socket);
+      listener.onConnecting(socket);
+      return false;
+    }
+  }
+
+  private static BluetoothSocket createRfcommSocket(BluetoothDevice device, int channel) {
+    try {
+      Method method = device.getClass().getMethod("createRfcommSocket", int.class);
+      return (BluetoothSocket) method.invoke(device, channel);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static int getChannel(BluetoothSocket socket) {
+    try {
+      Field field = BluetoothSocket.class.getDeclaredField("mPort");
+      field.setAccessible(true);
+      return field.getInt(socket);
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  private static void closeQuietly(BluetoothSocket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignored) {}
+  }
+
+  @Override
+  public TransportServerSocket listen(String serviceName, UUID serviceUuid) throws IOException {
+    return new ServerSocket(adapter.listenUsingRfcommWithServiceRecord(serviceName, serviceUuid));
+  }
+
+  static class Socket implements TransportSocket {
+    private final BluetoothSocket socket;
+
+    Socket(BluetoothSocket socket) {
+      this.socket = socket;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+      return socket.getOutputStream();
+    }
+
+    @Override
+    public String getRemoteName() {
+      BluetoothDevice device = socket.getRemoteDevice();
+      return device != null ? device.getName() : null;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+      BluetoothDevice device = socket.getRemoteDevice();
+      return device != null ? device.getAddress() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+
+  static class ServerSocket implements TransportServerSocket {
+    private final BluetoothServerSocket serverSocket;
+
+    ServerSocket(BluetoothServerSocket serverSocket) {
+      this.serverSocket = serverSocket;
+    }
+
+    @Override
+    public TransportSocket accept() throws IOException {
+      return new Socket(serverSocket.accept());
+    }
+
+    @Override
+    public void close() throws IOException {
+      serverSocket.close();
+    }
+  }
+}
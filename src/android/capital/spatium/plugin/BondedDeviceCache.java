@@ -0,0 +1,163 @@
+package capital.spatium.plugin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Last known list of bonded devices. The list is only read from the adapter
+ * again after it has been invalidated by a bond, name or adapter state
+ * change; every read that finds a difference bumps the etag and reports the
+ * added, removed and renamed devices to the listener.
+ */
+class BondedDeviceCache {
+  interface Source {
+    /**
+     * Returns the bonded devices as address to name.
+     */
+    Map<String, String> getBondedDevices();
+  }
+
+  interface Listener {
+    void onChanged(JSONObject delta);
+  }
+
+  private final Source source;
+  private final Listener listener;
+
+  private Map<String, String> devices = null;
+  private JSONArray list = null;
+  private long version = 0;
+  private boolean stale = true;
+
+  private long reads = 0;
+  private long reloads = 0;
+
+  BondedDeviceCache(Source source, Listener listener) {
+    this.source = source;
+    this.listener = listener;
+  }
+
+  synchronized void invalidate() {
+    stale = true;
+  }
+
+  /**
+   * Invalidates the list if it may contain the device.
+   */
+  synchronized void invalidate(String address) {
+    if (devices == null || devices.containsKey(address)) {
+      stale = true;
+    }
+  }
+
+  /**
+   * Returns the etag and, unless it matches the given one, the list.
+   */
+  JSONObject get(String etag) throws JSONException {
+    refresh();
+    synchronized (this) {
+      reads++;
+      String current = Long.toString(version);
+      boolean changed = !current.equals(etag);
+      JSONObject result = new JSONObject();
+      result.put("etag", current);
+      result.put("changed", changed);
+      if (changed) {
+        result.put("devices", list);
+      }
+      return result;
+    }
+  }
+
+  JSONArray getList() throws JSONException {
+    refresh();
+    synchronized (this) {
+      reads++;
+      return list;
+    }
+  }
+
+  /**
+   * Reloads the list if it was invalidated and reports the difference, if
+   * any, to the listener.
+   */
+  void refresh() throws JSONException {
+    JSONObject delta;
+    synchronized (this) {
+      if (!stale) {
+        return;
+      }
+      stale = false;
+      reloads++;
+
+      Map<String, String> current = new LinkedHashMap<String, String>(source.getBondedDevices());
+      delta = diff(devices != null ? devices : new LinkedHashMap<String, String>(), current);
+      if (devices != null && delta == null) {
+        return;
+      }
+
+      devices = current;
+      list = new JSONArray();
+      for (Map.Entry<String, String> device : current.entrySet()) {
+        list.put(toJSON(device.getKey(), device.getValue()));
+      }
+      version++;
+      if (delta == null) {
+        return;
+      }
+      delta.put("etag", Long.toString(version));
+    }
+    listener.onChanged(delta);
+  }
+
+  synchronized JSONObject getStats() throws JSONException {
+    JSONObject stats = new JSONObject();
+    stats.put("etag", Long.toString(version));
+    stats.put("devices", devices != null ? devices.size() : 0);
+    stats.put("reads", reads);
+    stats.put("reloads", reloads);
+    return stats;
+  }
+
+  private static JSONObject diff(Map<String, String> previous, Map<String, String> current) throws JSONException {
+    JSONArray added = new JSONArray();
+    JSONArray removed = new JSONArray();
+    JSONArray renamed = new JSONArray();
+
+    for (Map.Entry<String, String> device : current.entrySet()) {
+      if (!previous.containsKey(device.getKey())) {
+        added.put(toJSON(device.getKey(), device.getValue()));
+      } else if (!equals(previous.get(device.getKey()), device.getValue())) {
+        renamed.put(toJSON(device.getKey(), device.getValue()));
+      }
+    }
+    for (Map.Entry<String, String> device : previous.entrySet()) {
+      if (!current.containsKey(device.getKey())) {
+        removed.put(toJSON(device.getKey(), device.getValue()));
+      }
+    }
+
+    if (added.length() == 0 && removed.length() == 0 && renamed.length() == 0) {
+      return null;
+    }
+    JSONObject delta = new JSONObject();
+    delta.put("added", added);
+    delta.put("removed", removed);
+    delta.put("renamed", renamed);
+    return delta;
+  }
+
+  private static JSONObject toJSON(String address, String name) throws JSONException {
+    JSONObject item = new JSONObject();
+    item.put("name", name);
+    item.put("address", address);
+    return item;
+  }
+
+  private static boolean equals(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+}
@@ -0,0 +1,124 @@
+package capital.spatium.plugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Bounded pool of byte arrays in power-of-two size classes, shared by all
+ * connections for read buffers and coalesced write frames. Requests larger
+ * than the biggest class are allocated directly and never pooled.
+ */
+class BufferPool {
+  static final int MIN_CLASS_SIZE = 1024;
+  static final int MAX_CLASS_SIZE = 256 * 1024;
+
+  private final ArrayDeque<byte[]>[] classes;
+  private final long maxPooledBytes;
+
+  private long pooledBytes = 0;
+  private long bytesInUse = 0;
+  private long hits = 0;
+  private long misses = 0;
+  private long discarded = 0;
+
+  private IdentityHashMap<byte[], Throwable> outstanding = null;
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  BufferPool(long maxPooledBytes) {
+    int count = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE / MIN_CLASS_SIZE) + 1;
+    classes = new ArrayDeque[count];
+    for (int i = 0; i < count; i++) {
+      classes[i] = new ArrayDeque<byte[]>();
+    }
+    this.maxPooledBytes = maxPooledBytes;
+  }
+
+  static int classSize(int size) {
+    if (size <= MIN_CLASS_SIZE) {
+      return MIN_CLASS_SIZE;
+    }
+    return Integer.highestOneBit(size - 1) << 1;
+  }
+
+  private static int classIndex(int classSize) {
+    return Integer.numberOfTrailingZeros(classSize / MIN_CLASS_SIZE);
+  }
+
+  /**
+   * Returns a buffer of at least the requested size. The buffer must be
+   * handed back with {@link #release(byte[])} once it is no longer used.
+   */
+  synchronized byte[] acquire(int size) {
+    byte[] buffer = null;
+    if (size <= MAX_CLASS_SIZE) {
+      int classSize = classSize(size);
+      buffer = classes[classIndex(classSize)].poll();
+      if (buffer != null) {
+        pooledBytes -= buffer.length;
+        hits++;
+      } else {
+        buffer = new byte[classSize];
+        misses++;
+      }
+    } else {
+      buffer = new byte[size];
+      misses++;
+    }
+
+    bytesInUse += buffer.length;
+    if (outstanding != null) {
+      outstanding.put(buffer, new Throwable("Buffer of " + buffer.length + " bytes acquired here"));
+    }
+    return buffer;
+  }
+
+  synchronized void release(byte[] buffer) {
+    if (buffer == null) {
+      return;
+    }
+
+    bytesInUse -= buffer.length;
+    if (outstanding != null) {
+      outstanding.remove(buffer);
+    }
+
+    int length = buffer.length;
+    boolean pooledSize = length >= MIN_CLASS_SIZE && length <= MAX_CLASS_SIZE && Integer.bitCount(length) == 1;
+    if (!pooledSize || pooledBytes + length > maxPooledBytes) {
+      discarded++;
+      return;
+    }
+
+    classes[classIndex(length)].push(buffer);
+    pooledBytes += length;
+  }
+
+  /**
+   * Starts recording where each outstanding buffer was acquired, used by
+   * tests to find buffers that are never released.
+   */
+  synchronized void setLeakDetection(boolean enabled) {
+    outstanding = enabled ? new IdentityHashMap<byte[], Throwable>() : null;
+  }
+
+  synchronized List<Throwable> getLeaks() {
+    return outstanding == null
+            ? new ArrayList<Throwable>()
+            : new ArrayList<Throwable>(outstanding.values());
+  }
+
+  synchronized JSONObject getStats() throws JSONException {
+    JSONObject stats = new JSONObject();
+    stats.put("hits", hits);
+    stats.put("misses", misses);
+    stats.put("discarded", discarded);
+    stats.put("bytesInUse", bytesInUse);
+    stats.put("bytesPooled", pooledBytes);
+    stats.put("maxPooledBytes", maxPooledBytes);
+    return stats;
+  }
+}
@@ -0,0 +1,190 @@
+package capital.spatium.plugin;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Least recently used map from device address and service UUID to the RFCOMM
+ * channel last resolved through SDP. Every change is written to the storage,
+ * one "key=channel" line per entry from least to most recently used. Changes
+ * that only reorder entries are written after a delay, so a burst of lookups
+ * costs one write.
+ */
+class ChannelCache {
+  interface Storage {
+    String load();
+
+    void save(String data);
+  }
+
+  static final int DEFAULT_MAX_ENTRIES = 32;
+  static final long SAVE_DELAY_MS = 1000;
+
+  private final Storage storage;
+  private final IoScheduler scheduler;
+  private final LinkedHashMap<String, Integer> channels = new LinkedHashMap<String, Integer>(16, 0.75f, true);
+  private int maxEntries;
+  private boolean saveScheduled = false;
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  private long invalidations = 0;
+  private final Histogram directConnectTime = new Histogram();
+  private final Histogram sdpConnectTime = new Histogram();
+
+  ChannelCache(Storage storage, IoScheduler scheduler, int maxEntries) {
+    this.storage = storage;
+    this.scheduler = scheduler;
+    this.maxEntries = Math.max(0, maxEntries);
+    load();
+  }
+
+  private static String getKey(String address, UUID serviceUuid) {
+    return address + "/" + serviceUuid;
+  }
+
+  synchronized Integer get(String address, UUID serviceUuid) {
+    Integer channel = channels.get(getKey(address, serviceUuid));
+    if (channel != null) {
+      hits++;
+      scheduleSave();
+    } else {
+      misses++;
+    }
+    return channel;
+  }
+
+  synchronized void put(String address, UUID serviceUuid, int channel) {
+    Integer previous = channels.put(getKey(address, serviceUuid), channel);
+    trim();
+    if (previous == null || previous != channel) {
+      save();
+    } else {
+      scheduleSave();
+    }
+  }
+
+  /**
+   * Drops a channel that no longer accepts connections.
+   */
+  synchronized void remove(String address, UUID serviceUuid) {
+    if (channels.remove(getKey(address, serviceUuid)) != null) {
+      invalidations++;
+      save();
+    }
+  }
+
+  synchronized void clear() {
+    channels.clear();
+    save();
+  }
+
+  synchronized void setMaxEntries(int maxEntries) {
+    this.maxEntries = Math.max(0, maxEntries);
+    if (trim()) {
+      save();
+    }
+  }
+
+  synchronized int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * Writes out a pending reorder right away.
+   */
+  synchronized void flush() {
+    if (saveScheduled) {
+      save();
+    }
+  }
+
+  synchronized int size() {
+    return channels.size();
+  }
+
+  void recordDirectConnect(long durationMs) {
+    directConnectTime.record(durationMs);
+  }
+
+  void recordSdpConnect(long durationMs) {
+    sdpConnectTime.record(durationMs);
+  }
+
+  synchronized JSONObject getStats() throws JSONException {
+    JSONObject stats = new JSONObject();
+    stats.put("entries", channels.size());
+    stats.put("maxEntries", maxEntries);
+    stats.put("hits", hits);
+    stats.put("misses", misses);
+    stats.put("evictions", evictions);
+    stats.put("invalidations", invalidations);
+    stats.put("directConnectTime", directConnectTime.toJSON());
+    stats.put("sdpConnectTime", sdpConnectTime.toJSON());
+    return stats;
+  }
+
+  private boolean trim() {
+    boolean trimmed = false;
+    Iterator<String> iterator = channels.keySet().iterator();
+    while (channels.size() > maxEntries && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+      evictions++;
+      trimmed = true;
+    }
+    return trimmed;
+  }
+
+  private void load() {
+    String data = storage.load();
+    if (data == null) {
+      return;
+    }
+
+    for (String line : data.split("\n")) {
+      int separator = line.lastIndexOf('=');
+      if (separator <= 0) {
+        continue;
+      }
+      try {
+        channels.put(line.substring(0, separator), Integer.parseInt(line.substring(separator + 1)));
+      } catch (NumberFormatException ignored) {}
+    }
+    trim();
+  }
+
+  private void scheduleSave() {
+    if (saveScheduled) {
+      return;
+    }
+    try {
+      scheduler.schedule(saveTask, SAVE_DELAY_MS);
+      saveScheduled = true;
+    } catch (RejectedExecutionException e) {
+      save();
+    }
+  }
+
+  private final Runnable saveTask = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  private void save() {
+    saveScheduled = false;
+    StringBuilder data = new StringBuilder();
+    for (Map.Entry<String, Integer> entry : channels.entrySet()) {
+      data.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+    }
+    storage.save(data.toString());
+  }
+}
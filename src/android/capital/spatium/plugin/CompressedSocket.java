@@ -0,0 +1,231 @@
+package capital.spatium.plugin;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import org.json.JSONObject;
+
+/**
+ * Streaming deflate on top of another transport socket. Every flush of the
+ * output stream is a sync flush, so each write becomes decodable by the peer
+ * as soon as it is sent.
+ *
+ * Both peers must opt in: on open and accept each side sends one handshake
+ * byte listing the codecs it supports and compression is used only when
+ * both list deflate.
+ */
+class CompressedSocket implements TransportSocket {
+  static final int CODEC_NONE = 0;
+  static final int CODEC_DEFLATE = 1;
+
+  private static final int HANDSHAKE_MAGIC = 0xb0;
+  private static final int HANDSHAKE_MAGIC_MASK = 0xf0;
+  private static final int HANDSHAKE_CODECS_MASK = 0x0f;
+  private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+
+  private final TransportSocket socket;
+  private final SyncInflaterInputStream inputStream;
+  private final SyncDeflaterOutputStream outputStream;
+  private final Inflater inflater = new Inflater();
+  private final Deflater deflater;
+
+  private final AtomicLong wireBytesReceived = new AtomicLong();
+  private final AtomicLong wireBytesSent = new AtomicLong();
+
+  private CompressedSocket(TransportSocket socket, int level) throws IOException {
+    this.socket = socket;
+    this.deflater = new Deflater(level);
+    this.inputStream = new SyncInflaterInputStream(new CountingInputStream(socket.getInputStream(), wireBytesReceived), inflater);
+    this.outputStream = new SyncDeflaterOutputStream(new CountingOutputStream(socket.getOutputStream(), wireBytesSent), deflater);
+  }
+
+  static int getCodecs(JSONObject options) {
+    if (options == null) {
+      return CODEC_NONE;
+    }
+    return "deflate".equals(options.optString("compression", "")) ? CODEC_DEFLATE : CODEC_NONE;
+  }
+
+  /**
+   * Exchanges handshake bytes with the peer and returns the socket to use for
+   * the rest of the connection.
+   */
+  static TransportSocket negotiate(TransportSocket socket, JSONObject options) throws IOException {
+    int codecs = getCodecs(options);
+    if (codecs == CODEC_NONE) {
+      return socket;
+    }
+
+    OutputStream output = socket.getOutputStream();
+    output.write(HANDSHAKE_MAGIC | codecs);
+    output.flush();
+
+    int peer = socket.getInputStream().read();
+    if (peer < 0) {
+      throw new EOFException("Connection closed during compression handshake");
+    }
+    if ((peer & HANDSHAKE_MAGIC_MASK) != HANDSHAKE_MAGIC) {
+      throw new ProtocolException("Compression handshake failed");
+    }
+
+    if ((codecs & peer & HANDSHAKE_CODECS_MASK & CODEC_DEFLATE) == 0) {
+      return socket;
+    }
+    return new CompressedSocket(socket, options.optInt("compressionLevel", Deflater.DEFAULT_COMPRESSION));
+  }
+
+  long getWireBytesReceived() {
+    return wireBytesReceived.get();
+  }
+
+  long getWireBytesSent() {
+    return wireBytesSent.get();
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return inputStream;
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return outputStream;
+  }
+
+  @Override
+  public String getRemoteName() {
+    return socket.getRemoteName();
+  }
+
+  @Override
+  public String getRemoteAddress() {
+    return socket.getRemoteAddress();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      socket.close();
+    } finally {
+      inputStream.end();
+      outputStream.end();
+    }
+  }
+
+  /**
+   * Reports data as available only when the underlying stream has some, so
+   * the read loop's coalescing never blocks inside the inflater. The inflater
+   * is released once the socket is closed and no read is in progress.
+   */
+  private static class SyncInflaterInputStream extends InflaterInputStream {
+    private boolean ended = false;
+
+    SyncInflaterInputStream(InputStream in, Inflater inflater) {
+      super(in, inflater, STREAM_BUFFER_SIZE);
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+      if (ended) {
+        throw new IOException("Socket closed");
+      }
+      return super.read(buffer, offset, length);
+    }
+
+    synchronized void end() {
+      ended = true;
+      inf.end();
+    }
+
+    @Override
+    public int available() throws IOException {
+      return in.available();
+    }
+  }
+
+  private static class SyncDeflaterOutputStream extends DeflaterOutputStream {
+    private boolean ended = false;
+
+    SyncDeflaterOutputStream(OutputStream out, Deflater deflater) {
+      super(out, deflater, STREAM_BUFFER_SIZE, true);
+    }
+
+    @Override
+    public synchronized void write(byte[] buffer, int offset, int length) throws IOException {
+      if (ended) {
+        throw new IOException("Socket closed");
+      }
+      super.write(buffer, offset, length);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+      if (ended) {
+        throw new IOException("Socket closed");
+      }
+      super.flush();
+    }
+
+    synchronized void end() {
+      ended = true;
+      def.end();
+    }
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+    private final AtomicLong counter;
+
+    CountingInputStream(InputStream in, AtomicLong counter) {
+      super(in);
+      this.counter = counter;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int value = in.read();
+      if (value >= 0) {
+        counter.incrementAndGet();
+      }
+      return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int bytesRead = in.read(buffer, offset, length);
+      if (bytesRead > 0) {
+        counter.addAndGet(bytesRead);
+      }
+      return bytesRead;
+    }
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    private final AtomicLong counter;
+
+    CountingOutputStream(OutputStream out, AtomicLong counter) {
+      super(out);
+      this.counter = counter;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+      out.write(value);
+      counter.incrementAndGet();
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      out.write(buffer, offset, length);
+      counter.addAndGet(length);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package capital.spatium.plugin;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Opens connections to several peers with up to a fixed number of attempts
+ * in flight. The outcome of each target is reported as soon as it is known,
+ * and a summary once all of them have finished.
+ */
+class ConnectBatch {
+  interface Connector {
+    void connect(String socketKey, String address, JSONObject options) throws Exception;
+
+    void cancel(String socketKey);
+  }
+
+  interface Listener {
+    void onTargetFinished(ConnectBatch batch, JSONObject result);
+
+    void onFinished(ConnectBatch batch, JSONObject result);
+  }
+
+  static final int DEFAULT_CONCURRENCY = 3;
+
+  private final String batchKey;
+  private final JSONArray targets;
+  private final int concurrency;
+  private final Connector connector;
+  private final Listener listener;
+
+  private final JSONObject[] results;
+  private final AtomicInteger next = new AtomicInteger();
+  private final AtomicInteger remaining;
+  private final AtomicInteger connected = new AtomicInteger();
+  private final long startTime = System.currentTimeMillis();
+  private volatile boolean cancelled = false;
+
+  ConnectBatch(String batchKey, JSONArray targets, JSONObject options, Connector connector, Listener listener) {
+    this.batchKey = batchKey;
+    this.targets = targets;
+    this.concurrency = Math.max(1, options != null ? options.optInt("concurrency", DEFAULT_CONCURRENCY) : DEFAULT_CONCURRENCY);
+    this.connector = connector;
+    this.listener = listener;
+    this.results = new JSONObject[targets.length()];
+    this.remaining = new AtomicInteger(targets.length());
+  }
+
+  String getBatchKey() {
+    return batchKey;
+  }
+
+  void start(IoScheduler scheduler) {
+    if (targets.length() == 0) {
+      finish();
+      return;
+    }
+
+    int workers = Math.min(concurrency, targets.length());
+    int started = 0;
+    for (int i = 0; i < workers; i++) {
+      try {
+        scheduler.executeConnect(worker);
+        started++;
+      } catch (RejectedExecutionException e) {
+        break;
+      }
+    }
+
+    if (started == 0) {
+      cancelled = true;
+      worker.run();
+    }
+  }
+
+  /**
+   * Aborts attempts in progress and fails the targets not yet started.
+   */
+  void cancel() {
+    cancelled = true;
+    for (int i = 0; i < targets.length(); i++) {
+      JSONObject target = targets.optJSONObject(i);
+      if (target != null) {
+        connector.cancel(target.optString("socketKey"));
+      }
+    }
+  }
+
+  private final Runnable worker = new Runnable() {
+    @Override
+    public void run() {
+      int index;
+      while ((index = next.getAndIncrement()) < targets.length()) {
+        connectTarget(index);
+      }
+    }
+  };
+
+  private void connectTarget(int index) {
+    JSONObject target = targets.optJSONObject(index);
+    JSONObject result = new JSONObject();
+    try {
+      if (target == null) {
+        throw new IllegalArgumentException("Invalid target");
+      }
+      result.put("socketKey", target.optString("socketKey"));
+      result.put("address", target.optString("address"));
+      if (cancelled) {
+        throw new IllegalStateException("Failed to connect: cancelled");
+      }
+
+      connector.connect(target.getString("socketKey"), target.getString("address"), target.optJSONObject("options"));
+      connected.incrementAndGet();
+      result.put("connected", true);
+    } catch (Exception e) {
+      try {
+        result.put("connected", false);
+        result.put("error", e.getMessage());
+      } catch (JSONException ignored) {}
+    }
+
+    try {
+      result.put("latencyMs", System.currentTimeMillis() - startTime);
+    } catch (JSONException ignored) {}
+    results[index] = result;
+    listener.onTargetFinished(this, result);
+
+    if (remaining.decrementAndGet() == 0) {
+      finish();
+    }
+  }
+
+  private void finish() {
+    long elapsed = System.currentTimeMillis() - startTime;
+    JSONObject result = new JSONObject();
+    try {
+      JSONArray list = new JSONArray();
+      for (JSONObject targetResult : results) {
+        list.put(targetResult);
+      }
+      result.put("batchKey", batchKey);
+      result.put("results", list);
+      result.put("connected", connected.get());
+      result.put("elapsedMs", elapsed);
+      if (connected.get() == results.length) {
+        result.put("allConnectedMs", elapsed);
+      }
+    } catch (JSONException ignored) {}
+    listener.onFinished(this, result);
+  }
+}
@@ -0,0 +1,160 @@
+package capital.spatium.plugin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import org.json.JSONObject;
+
+/**
+ * Connects to a single peer with a per-attempt timeout and retries with
+ * exponential backoff. A timed out or cancelled attempt is aborted by
+ * closing the socket it is blocked on.
+ */
+class ConnectTask implements Transport.ConnectListener {
+  static final long DEFAULT_BACKOFF_MS = 500;
+  static final long MAX_BACKOFF_MS = 8000;
+
+  private final Transport transport;
+  private final IoScheduler scheduler;
+  private final String address;
+  private final UUID serviceUuid;
+
+  private final long timeoutMs;
+  private final int retries;
+  private final long backoffMs;
+
+  private Closeable socket = null;
+  private boolean cancelled = false;
+  private boolean timedOut = false;
+  private int attempts = 0;
+
+  ConnectTask(Transport transport, IoScheduler scheduler, String address, UUID serviceUuid, JSONObject options) {
+    this.transport = transport;
+    this.scheduler = scheduler;
+    this.address = address;
+    this.serviceUuid = serviceUuid;
+
+    if (options == null) {
+      options = new JSONObject();
+    }
+    this.timeoutMs = Math.max(0, options.optLong("connectTimeout", 0));
+    this.retries = Math.max(0, options.optInt("connectRetries", 0));
+    this.backoffMs = Math.max(0, options.optLong("connectBackoff", DEFAULT_BACKOFF_MS));
+  }
+
+  synchronized int getAttempts() {
+    return attempts;
+  }
+
+  /**
+   * Runs attempts on the calling thread until one succeeds, the retries are
+   * used up or the task is cancelled.
+   */
+  TransportSocket connect() throws IOException {
+    long delay = backoffMs;
+
+    while (true) {
+      synchronized (this) {
+        if (cancelled) {
+          throw new InterruptedIOException("Connect cancelled");
+        }
+        attempts++;
+        timedOut = false;
+      }
+
+      ScheduledFuture<?> timeout = null;
+      if (timeoutMs > 0) {
+        try {
+          timeout = scheduler.schedule(timeoutTask, timeoutMs);
+        } catch (RejectedExecutionException e) {
+          throw new InterruptedIOException("Connect cancelled");
+        }
+      }
+
+      IOException failure;
+      try {
+        TransportSocket connected = transport.connect(address, serviceUuid, this);
+        synchronized (this) {
+          socket = null;
+          if (!cancelled && !timedOut) {
+            return connected;
+          }
+        }
+        closeQuietly(connected);
+        failure = new IOException("Connect aborted");
+      } catch (IOException e) {
+        failure = e;
+      } finally {
+        if (timeout != null) {
+          timeout.cancel(false);
+        }
+      }
+
+      synchronized (this) {
+        socket = null;
+        if (cancelled) {
+          throw new InterruptedIOException("Connect cancelled");
+        }
+        if (timedOut) {
+          failure = new SocketTimeoutException("Connect timed out");
+        }
+        if (attempts > retries) {
+          throw failure;
+        }
+
+        long deadline = System.currentTimeMillis() + delay;
+        long remaining;
+        while (!cancelled && (remaining = deadline - System.currentTimeMillis()) > 0) {
+          try {
+            wait(remaining);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Connect cancelled");
+          }
+        }
+      }
+      delay = Math.min(MAX_BACKOFF_MS, delay * 2);
+    }
+  }
+
+  synchronized void cancel() {
+    cancelled = true;
+    if (socket != null) {
+      closeQuietly(socket);
+    }
+    notifyAll();
+  }
+
+  @Override
+  public synchronized void onConnecting(Closeable socket) throws IOException {
+    if (cancelled) {
+      throw new InterruptedIOException("Connect cancelled");
+    }
+    if (timedOut) {
+      throw new SocketTimeoutException("Connect timed out");
+    }
+    this.socket = socket;
+  }
+
+  private final Runnable timeoutTask = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (ConnectTask.this) {
+        if (socket != null) {
+          timedOut = true;
+          closeQuietly(socket);
+        }
+      }
+    }
+  };
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException ignored) {}
+  }
+}
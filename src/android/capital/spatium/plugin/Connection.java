@@ -0,0 +1,343 @@
+package capital.spatium.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A connected socket together with the streams kept open for its lifetime,
+ * its state and its traffic counters.
+ */
+class Connection {
+  static final int STATE_OPEN = 0;
+  static final int STATE_CLOSING = 1;
+  static final int STATE_CLOSED = 2;
+
+  static final String CLOSE_LOCAL = "local";
+  static final String CLOSE_REMOTE = "remote";
+  static final String CLOSE_ERROR = "error";
+  static final String CLOSE_EVICTED = "evicted";
+  static final String CLOSE_SHUTDOWN = "shutdown";
+  static final String CLOSE_TIMEOUT = "timeout";
+
+  private volatile String socketKey;
+  private final TransportSocket socket;
+  private final WriteQueue writeQueue;
+  private final ReceivePolicy receivePolicy = new ReceivePolicy();
+  private final ReceiveQueue receiveQueue = new ReceiveQueue(this);
+  private final BufferPool bufferPool;
+  private final AtomicInteger state = new AtomicInteger(STATE_OPEN);
+  private OutputStream outputStream = null;
+  private volatile Multiplexer multiplexer = null;
+  private volatile ResilientSocket resilientSocket = null;
+  private volatile ProbedSocket probe = null;
+  private volatile boolean idle = false;
+  private volatile String poolKey = null;
+  private volatile byte[] keepAliveData = null;
+  private final AtomicReference<FileTransfer> fileReceiver = new AtomicReference<FileTransfer>();
+
+  private volatile boolean framing = false;
+  private volatile int maxFrameSize = FrameCodec.DEFAULT_MAX_FRAME_SIZE;
+
+  private final AtomicLong bytesReceived = new AtomicLong();
+  private final AtomicLong chunksReceived = new AtomicLong();
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong chunksSent = new AtomicLong();
+  private final Histogram readSizes = new Histogram();
+  private final Histogram writeLatency = new Histogram();
+  private final long openedAt = System.currentTimeMillis();
+  private volatile long connectTimeMs = -1;
+  private final AtomicReference<String> closeReason = new AtomicReference<String>();
+  private final AtomicLong errors = new AtomicLong();
+  private volatile String lastError = null;
+
+  Connection(String socketKey, TransportSocket socket, BufferPool bufferPool, Executor writeExecutor, WriteQueue.Listener writeListener) {
+    this.socketKey = socketKey;
+    this.socket = socket;
+    this.bufferPool = bufferPool;
+    this.writeQueue = new WriteQueue(this, writeExecutor, writeListener);
+  }
+
+  String getSocketKey() {
+    return socketKey;
+  }
+
+  void setSocketKey(String socketKey) {
+    this.socketKey = socketKey;
+  }
+
+  /**
+   * True while the connection is parked in the connection pool, with no
+   * socket open on it in the app.
+   */
+  boolean isIdle() {
+    return idle;
+  }
+
+  void setIdle(boolean idle) {
+    this.idle = idle;
+  }
+
+  String getPoolKey() {
+    return poolKey;
+  }
+
+  byte[] getKeepAliveData() {
+    return keepAliveData;
+  }
+
+  void setPooling(String poolKey, byte[] keepAliveData) {
+    this.poolKey = poolKey;
+    this.keepAliveData = keepAliveData;
+  }
+
+  TransportSocket getSocket() {
+    return socket;
+  }
+
+  int getState() {
+    return state.get();
+  }
+
+  boolean isOpen() {
+    return state.get() == STATE_OPEN;
+  }
+
+  InputStream getInputStream() throws IOException {
+    return socket.getInputStream();
+  }
+
+  synchronized OutputStream getOutputStream() throws IOException {
+    if (outputStream == null) {
+      outputStream = socket.getOutputStream();
+    }
+    return outputStream;
+  }
+
+  WriteQueue getWriteQueue() {
+    return writeQueue;
+  }
+
+  Multiplexer getMultiplexer() {
+    return multiplexer;
+  }
+
+  void setMultiplexer(Multiplexer multiplexer) {
+    this.multiplexer = multiplexer;
+  }
+
+  /**
+   * The session layer under the socket, if the connection was opened as
+   * resilient.
+   */
+  ResilientSocket getResilientSocket() {
+    return resilientSocket;
+  }
+
+  void setResilientSocket(ResilientSocket resilientSocket) {
+    this.resilientSocket = resilientSocket;
+  }
+
+  /**
+   * The link probe under the socket, if the connection was opened with
+   * probing.
+   */
+  ProbedSocket getProbe() {
+    return probe;
+  }
+
+  void setProbe(ProbedSocket probe) {
+    this.probe = probe;
+  }
+
+  BufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  ReceivePolicy getReceivePolicy() {
+    return receivePolicy;
+  }
+
+  ReceiveQueue getReceiveQueue() {
+    return receiveQueue;
+  }
+
+  void setOptions(JSONObject options) {
+    receivePolicy.update(options);
+    writeQueue.setWatermarks(
+            options.optLong("writeHighWatermark", writeQueue.getHighWatermark()),
+            options.optLong("writeLowWatermark", writeQueue.getLowWatermark()),
+            options.optLong("writeQueueLimit", writeQueue.getLimit()));
+    receiveQueue.setLimit(options.optLong("receiveQueueLimit", receiveQueue.getLimit()));
+
+    maxFrameSize = Math.max(0, options.optInt("maxFrameSize", maxFrameSize));
+    framing = options.optBoolean("framing", framing);
+  }
+
+  /**
+   * Directs received data into the file until it has been received in full.
+   * Returns false if a file is already being received.
+   */
+  boolean setFileReceiver(FileTransfer file) {
+    return fileReceiver.compareAndSet(null, file);
+  }
+
+  FileTransfer getFileReceiver() {
+    return fileReceiver.get();
+  }
+
+  void clearFileReceiver(FileTransfer file) {
+    fileReceiver.compareAndSet(file, null);
+  }
+
+  boolean isFraming() {
+    return framing;
+  }
+
+  int getMaxFrameSize() {
+    return maxFrameSize;
+  }
+
+  /**
+   * Returns the parts to write for the given payloads: each payload preceded
+   * by its length header when framing is enabled, the payloads as they are
+   * otherwise.
+   */
+  byte[][] frame(byte[]... payloads) throws ProtocolException {
+    if (!framing) {
+      return payloads;
+    }
+
+    byte[][] parts = new byte[payloads.length * 2][];
+    for (int i = 0; i < payloads.length; i++) {
+      if (payloads[i].length > maxFrameSize) {
+        throw new ProtocolException("Frame exceeds maximum size");
+      }
+      parts[i * 2] = FrameCodec.encodeHeader(payloads[i].length);
+      parts[i * 2 + 1] = payloads[i];
+    }
+    return parts;
+  }
+
+  void recordReceived(int bytes) {
+    bytesReceived.addAndGet(bytes);
+    chunksReceived.incrementAndGet();
+    readSizes.record(bytes);
+  }
+
+  /**
+   * Records the time from queueing a write until it was flushed.
+   */
+  void recordWriteLatency(long latencyMs) {
+    writeLatency.record(latencyMs);
+  }
+
+  void setConnectTime(long connectTimeMs) {
+    this.connectTimeMs = connectTimeMs;
+  }
+
+  void recordError(Exception e) {
+    errors.incrementAndGet();
+    lastError = e.getClass().getSimpleName() + ": " + e.getMessage();
+  }
+
+  /**
+   * Records why the connection is going away. Only the first reason sticks,
+   * so it must be set before closing the socket.
+   */
+  void setCloseReason(String reason) {
+    closeReason.compareAndSet(null, reason);
+  }
+
+  String getCloseReason() {
+    return closeReason.get();
+  }
+
+  void recordSent(int bytes, int chunks) {
+    bytesSent.addAndGet(bytes);
+    chunksSent.addAndGet(chunks);
+  }
+
+  long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  long getChunksReceived() {
+    return chunksReceived.get();
+  }
+
+  long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  long getChunksSent() {
+    return chunksSent.get();
+  }
+
+  JSONObject getStats() throws JSONException {
+    JSONObject stats = new JSONObject();
+    stats.put("state", getState());
+    stats.put("bytesReceived", getBytesReceived());
+    stats.put("chunksReceived", getChunksReceived());
+    stats.put("bytesSent", getBytesSent());
+    stats.put("chunksSent", getChunksSent());
+    stats.put("bufferedAmount", writeQueue.getBufferedAmount());
+    stats.put("receiveQueue", receiveQueue.getStats());
+    stats.put("readSize", readSizes.toJSON());
+    stats.put("writeLatency", writeLatency.toJSON());
+    stats.put("uptime", System.currentTimeMillis() - openedAt);
+    if (connectTimeMs >= 0) {
+      stats.put("connectTime", connectTimeMs);
+    }
+    stats.put("errors", errors.get());
+    if (lastError != null) {
+      stats.put("lastError", lastError);
+    }
+    if (closeReason.get() != null) {
+      stats.put("closeReason", closeReason.get());
+    }
+
+    if (socket instanceof CompressedSocket) {
+      CompressedSocket compressed = (CompressedSocket) socket;
+      stats.put("compression", "deflate");
+      stats.put("wireBytesReceived", compressed.getWireBytesReceived());
+      stats.put("wireBytesSent", compressed.getWireBytesSent());
+    }
+    if (multiplexer != null) {
+      stats.put("channels", multiplexer.getChannelCount());
+    }
+    if (resilientSocket != null) {
+      stats.put("session", resilientSocket.getStats());
+    }
+    if (probe != null) {
+      stats.put("link", probe.getStats());
+    }
+    return stats;
+  }
+
+  /**
+   * Moves the connection to the closed state. Returns false if it was already
+   * closing or closed.
+   */
+  boolean close() throws IOException {
+    if (!state.compareAndSet(STATE_OPEN, STATE_CLOSING)) {
+      return false;
+    }
+
+    try {
+      writeQueue.close();
+      receiveQueue.close();
+      socket.close();
+    } finally {
+      state.set(STATE_CLOSED);
+    }
+    return true;
+  }
+}
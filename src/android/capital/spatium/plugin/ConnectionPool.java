@@ -0,0 +1,293 @@
+package capital.spatium.plugin;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Client connections kept open after the app has closed them, keyed by
+ * device address and service UUID, so that the next open of the same peer
+ * takes over the link instead of paying for SDP and RFCOMM setup again.
+ *
+ * Idle connections are evicted after the idle timeout, when the pool is
+ * full, when they fail or receive data, and on adapter state changes.
+ */
+class ConnectionPool {
+  interface Listener {
+    void onEvicted(Connection connection);
+  }
+
+  static final int DEFAULT_MAX_IDLE = 4;
+  static final long DEFAULT_IDLE_TIMEOUT_MS = 60 * 1000;
+
+  private final IoScheduler scheduler;
+  private final Listener listener;
+
+  private final HashMap<String, ArrayDeque<Entry>> idle = new HashMap<String, ArrayDeque<Entry>>();
+  private final LinkedHashMap<Connection, Entry> entries = new LinkedHashMap<Connection, Entry>();
+
+  private int maxIdle = DEFAULT_MAX_IDLE;
+  private long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+  private long keepAliveIntervalMs = 0;
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  ConnectionPool(IoScheduler scheduler, Listener listener) {
+    this.scheduler = scheduler;
+    this.listener = listener;
+  }
+
+  /**
+   * Connections are only reused by opens that would have negotiated the same
+   * link options.
+   */
+  static String getKey(String address, UUID serviceUuid, JSONObject options) {
+    return address + "/" + serviceUuid
+            + "/" + CompressedSocket.getCodecs(options)
+            + "/" + Multiplexer.isEnabled(options)
+            + "/" + ResilientSocket.isEnabled(options)
+            + "/" + ProbedSocket.isEnabled(options);
+  }
+
+  void setOptions(JSONObject options) {
+    List<Connection> evicted;
+    synchronized (this) {
+      maxIdle = Math.max(0, options.optInt("maxIdle", maxIdle));
+      idleTimeoutMs = Math.max(0, options.optLong("idleTimeout", idleTimeoutMs));
+      keepAliveIntervalMs = Math.max(0, options.optLong("keepAliveInterval", keepAliveIntervalMs));
+      evicted = trim(maxIdle);
+    }
+    notifyEvicted(evicted);
+  }
+
+  /**
+   * Parks an open connection. Returns false if the pool does not take it, in
+   * which case the caller closes it as usual.
+   */
+  boolean offer(String key, Connection connection, byte[] keepAliveData) {
+    List<Connection> evicted;
+    synchronized (this) {
+      if (maxIdle == 0 || !connection.isOpen() || entries.containsKey(connection)) {
+        return false;
+      }
+      evicted = trim(maxIdle - 1);
+
+      Entry entry = new Entry(key, connection, keepAliveData);
+      try {
+        if (idleTimeoutMs > 0) {
+          entry.timeout = scheduler.schedule(entry.evictTask, idleTimeoutMs);
+        }
+        if (keepAliveIntervalMs > 0) {
+          entry.keepAlive = scheduler.schedule(entry.keepAliveTask, keepAliveIntervalMs);
+        }
+      } catch (RejectedExecutionException e) {
+        entry.cancelTimers();
+        notifyEvicted(evicted);
+        return false;
+      }
+
+      connection.setIdle(true);
+      entries.put(connection, entry);
+      ArrayDeque<Entry> queue = idle.get(key);
+      if (queue == null) {
+        queue = new ArrayDeque<Entry>();
+        idle.put(key, queue);
+      }
+      queue.add(entry);
+    }
+    notifyEvicted(evicted);
+    return true;
+  }
+
+  /**
+   * Returns the most recently parked open connection to the peer, already
+   * bound to the new socket key, or null if there is none.
+   */
+  Connection take(String key, String socketKey) {
+    List<Connection> evicted = new ArrayList<Connection>();
+    Connection connection = null;
+    synchronized (this) {
+      ArrayDeque<Entry> queue = idle.get(key);
+      while (queue != null && !queue.isEmpty()) {
+        Entry entry = queue.pollLast();
+        entries.remove(entry.connection);
+        entry.cancelTimers();
+        if (entry.connection.isOpen()) {
+          connection = entry.connection;
+          connection.setSocketKey(socketKey);
+          connection.setIdle(false);
+          break;
+        }
+        evictions++;
+        evicted.add(entry.connection);
+      }
+      if (queue != null && queue.isEmpty()) {
+        idle.remove(key);
+      }
+
+      if (connection != null) {
+        hits++;
+      } else {
+        misses++;
+      }
+    }
+    notifyEvicted(evicted);
+    return connection;
+  }
+
+  /**
+   * Removes a parked connection without notifying the listener. Returns false
+   * if the connection was not in the pool.
+   */
+  synchronized boolean remove(Connection connection) {
+    Entry entry = entries.remove(connection);
+    if (entry == null) {
+      return false;
+    }
+    removeFromQueue(entry);
+    entry.cancelTimers();
+    return true;
+  }
+
+  /**
+   * Removes a parked connection and hands it to the listener to close.
+   * Returns false if the connection was not in the pool.
+   */
+  boolean evict(Connection connection) {
+    synchronized (this) {
+      if (!remove(connection)) {
+        return false;
+      }
+      evictions++;
+    }
+    listener.onEvicted(connection);
+    return true;
+  }
+
+  void evictAll() {
+    List<Connection> evicted;
+    synchronized (this) {
+      evicted = trim(0);
+    }
+    notifyEvicted(evicted);
+  }
+
+  synchronized JSONObject getStats() throws JSONException {
+    JSONObject stats = new JSONObject();
+    stats.put("idle", entries.size());
+    stats.put("hits", hits);
+    stats.put("misses", misses);
+    stats.put("evictions", evictions);
+    stats.put("maxIdle", maxIdle);
+    stats.put("idleTimeout", idleTimeoutMs);
+    stats.put("keepAliveInterval", keepAliveIntervalMs);
+    return stats;
+  }
+
+  private List<Connection> trim(int size) {
+    List<Connection> evicted = new ArrayList<Connection>();
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (entries.size() > Math.max(0, size) && iterator.hasNext()) {
+      Entry entry = iterator.next();
+      iterator.remove();
+      removeFromQueue(entry);
+      entry.cancelTimers();
+      evictions++;
+      evicted.add(entry.connection);
+    }
+    return evicted;
+  }
+
+  private void removeFromQueue(Entry entry) {
+    ArrayDeque<Entry> queue = idle.get(entry.key);
+    if (queue != null) {
+      queue.remove(entry);
+      if (queue.isEmpty()) {
+        idle.remove(entry.key);
+      }
+    }
+  }
+
+  private void notifyEvicted(List<Connection> evicted) {
+    for (Connection connection : evicted) {
+      listener.onEvicted(connection);
+    }
+  }
+
+  /**
+   * Probes a parked connection so that a dead link is found before it is
+   * handed out. Multiplexed links send a frame the peer ignores, other links
+   * send the keep-alive data given by the app, if any.
+   */
+  private void probe(Entry entry) {
+    Connection connection = entry.connection;
+    try {
+      Multiplexer multiplexer = connection.getMultiplexer();
+      if (multiplexer != null) {
+        multiplexer.sendKeepAlive();
+      } else if (entry.keepAliveData != null) {
+        connection.getWriteQueue().enqueue(entry.keepAliveData, null);
+      }
+    } catch (IOException e) {
+      evict(connection);
+      return;
+    }
+
+    synchronized (this) {
+      if (entries.get(connection) != entry) {
+        return;
+      }
+      try {
+        entry.keepAlive = scheduler.schedule(entry.keepAliveTask, keepAliveIntervalMs);
+      } catch (RejectedExecutionException ignored) {}
+    }
+  }
+
+  private class Entry {
+    private final String key;
+    private final Connection connection;
+    private final byte[] keepAliveData;
+    private ScheduledFuture<?> timeout = null;
+    private ScheduledFuture<?> keepAlive = null;
+
+    Entry(String key, Connection connection, byte[] keepAliveData) {
+      this.key = key;
+      this.connection = connection;
+      this.keepAliveData = keepAliveData;
+    }
+
+    void cancelTimers() {
+      if (timeout != null) {
+        timeout.cancel(false);
+      }
+      if (keepAlive != null) {
+        keepAlive.cancel(false);
+      }
+    }
+
+    private final Runnable evictTask = new Runnable() {
+      @Override
+      public void run() {
+        evict(connection);
+      }
+    };
+
+    private final Runnable keepAliveTask = new Runnable() {
+      @Override
+      public void run() {
+        probe(Entry.this);
+      }
+    };
+  }
+}
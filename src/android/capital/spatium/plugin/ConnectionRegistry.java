@@ -0,0 +1,80 @@
+package capital.spatium.plugin;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe registry of open connections and listening server sockets.
+ * Lookups are lock-free, registration and removal are atomic per key.
+ */
+class ConnectionRegistry {
+  private final ConcurrentHashMap<String, Connection> connections = new ConcurrentHashMap<String, Connection>();
+  private final ConcurrentHashMap<String, TransportServerSocket> servers = new ConcurrentHashMap<String, TransportServerSocket>();
+
+  boolean add(Connection connection) {
+    return connections.putIfAbsent(connection.getSocketKey(), connection) == null;
+  }
+
+  Connection get(String socketKey) {
+    return connections.get(socketKey);
+  }
+
+  boolean contains(String socketKey) {
+    return connections.containsKey(socketKey);
+  }
+
+  Collection<Connection> getConnections() {
+    return connections.values();
+  }
+
+  boolean remove(Connection connection) {
+    return connections.remove(connection.getSocketKey(), connection);
+  }
+
+  /**
+   * Removes the connection and closes it. Returns true only for the caller
+   * that performed the close, so the Close event is emitted exactly once.
+   */
+  boolean close(Connection connection) throws IOException {
+    connections.remove(connection.getSocketKey(), connection);
+    return connection.close();
+  }
+
+  boolean addServer(String serverSocketKey, TransportServerSocket serverSocket) {
+    return servers.putIfAbsent(serverSocketKey, serverSocket) == null;
+  }
+
+  /**
+   * Swaps in a new server socket, only if the server was not stopped or
+   * restarted in the meantime.
+   */
+  boolean replaceServer(String serverSocketKey, TransportServerSocket oldServerSocket, TransportServerSocket newServerSocket) {
+    return servers.replace(serverSocketKey, oldServerSocket, newServerSocket);
+  }
+
+  TransportServerSocket getServer(String serverSocketKey) {
+    return servers.get(serverSocketKey);
+  }
+
+  boolean containsServer(String serverSocketKey) {
+    return servers.containsKey(serverSocketKey);
+  }
+
+  boolean isListening(String serverSocketKey, TransportServerSocket serverSocket) {
+    return servers.get(serverSocketKey) == serverSocket;
+  }
+
+  TransportServerSocket removeServer(String serverSocketKey) {
+    return servers.remove(serverSocketKey);
+  }
+
+  boolean removeServer(String serverSocketKey, TransportServerSocket serverSocket) {
+    return servers.remove(serverSocketKey, serverSocket);
+  }
+
+  Set<String> getServerKeys() {
+    return servers.keySet();
+  }
+}
@@ -0,0 +1,322 @@
+package capital.spatium.plugin;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Runs discovery in cycles: a scan window, made of as many inquiries as fit
+ * in it, followed by an idle period until the scan interval has passed since
+ * the cycle started. A window of 0 scans for one inquiry, an interval of 0
+ * starts the next cycle as soon as the scan ends.
+ *
+ * Inquiry slows RFCOMM transfers down considerably, so scanning is paused
+ * while connects are in progress or while the connections move more than
+ * the busy threshold, and picks up again once they are done.
+ */
+class DiscoveryScheduler {
+  interface Control {
+    boolean startDiscovery();
+
+    void cancelDiscovery();
+
+    long getTransferredBytes();
+  }
+
+  static final long DEFAULT_BUSY_THRESHOLD = 16 * 1024;
+  static final long SAMPLE_INTERVAL_MS = 1000;
+  private static final long MIN_INQUIRY_MS = 1000;
+
+  private enum State { STOPPED, SCANNING, IDLE, PAUSED }
+
+  private final IoScheduler scheduler;
+  private final Control control;
+
+  private long scanWindowMs = 0;
+  private long scanIntervalMs = 0;
+  private long busyThreshold = DEFAULT_BUSY_THRESHOLD;
+
+  private State state = State.STOPPED;
+  private long stateSince = System.currentTimeMillis();
+  private long cycleStart = 0;
+  private boolean scanEnding = false;
+  private boolean resumeScan = false;
+  private int holds = 0;
+  private boolean busy = false;
+
+  private ScheduledFuture<?> cycleTimer = null;
+  private ScheduledFuture<?> sampleTimer = null;
+  private long lastBytes = 0;
+  private long lastSampleTime = 0;
+  private long throughput = 0;
+
+  private long scanTimeMs = 0;
+  private long idleTimeMs = 0;
+  private long pausedTimeMs = 0;
+  private long cycles = 0;
+  private long pauses = 0;
+  private long devicesFound = 0;
+  private int lastCycleDevices = 0;
+
+  DiscoveryScheduler(IoScheduler scheduler, Control control) {
+    this.scheduler = scheduler;
+    this.control = control;
+  }
+
+  /**
+   * Window and interval changes take effect from the next cycle.
+   */
+  synchronized void setOptions(JSONObject options) {
+    scanWindowMs = Math.max(0, options.optLong("scanWindow", scanWindowMs));
+    scanIntervalMs = Math.max(0, options.optLong("scanInterval", scanIntervalMs));
+    busyThreshold = Math.max(0, options.optLong("busyThreshold", busyThreshold));
+  }
+
+  synchronized boolean isEnabled() {
+    return state != State.STOPPED;
+  }
+
+  synchronized void start() {
+    if (state != State.STOPPED) {
+      return;
+    }
+
+    lastBytes = control.getTransferredBytes();
+    lastSampleTime = System.currentTimeMillis();
+    busy = false;
+    throughput = 0;
+    sampleTimer = schedule(sampleTask, SAMPLE_INTERVAL_MS);
+
+    if (holds > 0) {
+      resumeScan = true;
+      setState(State.PAUSED);
+      pauses++;
+    } else {
+      beginCycle();
+    }
+  }
+
+  synchronized void stop() {
+    cancel(cycleTimer);
+    cancel(sampleTimer);
+    cycleTimer = null;
+    sampleTimer = null;
+    scanEnding = false;
+    setState(State.STOPPED);
+    control.cancelDiscovery();
+  }
+
+  /**
+   * Starts a new cycle right away, such as after the adapter was turned back
+   * on.
+   */
+  synchronized void restart() {
+    if (state == State.SCANNING || state == State.IDLE) {
+      beginCycle();
+    }
+  }
+
+  /**
+   * Keeps discovery paused until a matching release, used around connects.
+   */
+  synchronized void hold() {
+    holds++;
+    updatePaused();
+  }
+
+  synchronized void release() {
+    holds = Math.max(0, holds - 1);
+    updatePaused();
+  }
+
+  /**
+   * Handles the end of an inquiry. Returns true if it completed a cycle, in
+   * which case every device in range had the chance to be found.
+   */
+  synchronized boolean onDiscoveryFinished() {
+    if (state == State.IDLE && scanEnding) {
+      scanEnding = false;
+      cycles++;
+      return true;
+    }
+    if (state != State.SCANNING) {
+      return false;
+    }
+
+    long now = System.currentTimeMillis();
+    if (scanWindowMs > 0 && cycleStart + scanWindowMs - now >= MIN_INQUIRY_MS && control.startDiscovery()) {
+      return false;
+    }
+
+    cancel(cycleTimer);
+    setState(State.IDLE);
+    scheduleNextCycle(0);
+    cycles++;
+    return true;
+  }
+
+  synchronized void recordDevicesFound(int devices) {
+    devicesFound += devices;
+    lastCycleDevices = devices;
+  }
+
+  synchronized JSONObject getStats() throws JSONException {
+    long now = System.currentTimeMillis();
+    long elapsed = now - stateSince;
+
+    JSONObject stats = new JSONObject();
+    stats.put("state", state.name().toLowerCase());
+    stats.put("scanWindow", scanWindowMs);
+    stats.put("scanInterval", scanIntervalMs);
+    stats.put("busyThreshold", busyThreshold);
+    stats.put("busy", busy);
+    stats.put("throughput", throughput);
+    stats.put("scanTime", scanTimeMs + (state == State.SCANNING ? elapsed : 0));
+    stats.put("idleTime", idleTimeMs + (state == State.IDLE ? elapsed : 0));
+    stats.put("pausedTime", pausedTimeMs + (state == State.PAUSED ? elapsed : 0));
+    stats.put("cycles", cycles);
+    stats.put("pauses", pauses);
+    stats.put("devicesFound", devicesFound);
+    stats.put("lastCycleDevices", lastCycleDevices);
+    stats.put("devicesPerCycle", cycles > 0 ? (double) devicesFound / cycles : 0);
+    return stats;
+  }
+
+  private void beginCycle() {
+    cancel(cycleTimer);
+    cycleTimer = null;
+    scanEnding = false;
+    cycleStart = System.currentTimeMillis();
+
+    if (!control.startDiscovery()) {
+      setState(State.IDLE);
+      scheduleNextCycle(MIN_INQUIRY_MS);
+      return;
+    }
+    setState(State.SCANNING);
+    if (scanWindowMs > 0) {
+      cycleTimer = schedule(windowTask, scanWindowMs);
+    }
+  }
+
+  private void endScan() {
+    if (state != State.SCANNING) {
+      return;
+    }
+    setState(State.IDLE);
+    scanEnding = true;
+    control.cancelDiscovery();
+    scheduleNextCycle(0);
+  }
+
+  private void scheduleNextCycle(long minDelayMs) {
+    long delay = cycleStart + scanIntervalMs - System.currentTimeMillis();
+    cycleTimer = schedule(cycleTask, Math.max(minDelayMs, delay));
+  }
+
+  private void updatePaused() {
+    if (state == State.STOPPED) {
+      return;
+    }
+
+    boolean pause = holds > 0 || busy;
+    if (pause && state != State.PAUSED) {
+      cancel(cycleTimer);
+      cycleTimer = null;
+      resumeScan = state == State.SCANNING;
+      scanEnding = false;
+      setState(State.PAUSED);
+      pauses++;
+      if (resumeScan) {
+        control.cancelDiscovery();
+      }
+    } else if (!pause && state == State.PAUSED) {
+      if (resumeScan || System.currentTimeMillis() >= cycleStart + scanIntervalMs) {
+        beginCycle();
+      } else {
+        setState(State.IDLE);
+        scheduleNextCycle(0);
+      }
+    }
+  }
+
+  private void sample() {
+    long now = System.currentTimeMillis();
+    long bytes = control.getTransferredBytes();
+    long elapsed = Math.max(1, now - lastSampleTime);
+    throughput = Math.max(0, bytes - lastBytes) * 1000 / elapsed;
+    lastBytes = bytes;
+    lastSampleTime = now;
+
+    if (busyThreshold == 0) {
+      busy = false;
+    } else if (throughput >= busyThreshold) {
+      busy = true;
+    } else if (throughput < busyThreshold / 2) {
+      busy = false;
+    }
+    updatePaused();
+  }
+
+  private void setState(State state) {
+    long now = System.currentTimeMillis();
+    long elapsed = now - stateSince;
+    if (this.state == State.SCANNING) {
+      scanTimeMs += elapsed;
+    } else if (this.state == State.IDLE) {
+      idleTimeMs += elapsed;
+    } else if (this.state == State.PAUSED) {
+      pausedTimeMs += elapsed;
+    }
+    this.state = state;
+    stateSince = now;
+  }
+
+  private ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+    try {
+      return scheduler.schedule(task, delayMs);
+    } catch (RejectedExecutionException e) {
+      return null;
+    }
+  }
+
+  private static void cancel(ScheduledFuture<?> future) {
+    if (future != null) {
+      future.cancel(false);
+    }
+  }
+
+  private final Runnable windowTask = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (DiscoveryScheduler.this) {
+        endScan();
+      }
+    }
+  };
+
+  private final Runnable cycleTask = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (DiscoveryScheduler.this) {
+        if (state == State.IDLE) {
+          beginCycle();
+        }
+      }
+    }
+  };
+
+  private final Runnable sampleTask = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (DiscoveryScheduler.this) {
+        if (state == State.STOPPED) {
+          return;
+        }
+        sample();
+        sampleTimer = schedule(sampleTask, SAMPLE_INTERVAL_MS);
+      }
+    }
+  };
+}
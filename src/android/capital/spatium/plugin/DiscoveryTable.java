@@ -0,0 +1,220 @@
+package capital.spatium.plugin;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Devices seen by discovery, keyed by address. Repeated sightings only
+ * update the table; new devices, devices whose name or class changed or
+ * whose signal moved by at least the RSSI threshold, and devices missing
+ * from a whole discovery cycle are delivered to the listener in batches.
+ */
+class DiscoveryTable {
+  interface Listener {
+    void onChanged(JSONArray devices);
+  }
+
+  static final String STATUS_NEW = "new";
+  static final String STATUS_CHANGED = "changed";
+  static final String STATUS_GONE = "gone";
+
+  static final int DEFAULT_RSSI_THRESHOLD = 5;
+  static final long DEFAULT_BATCH_INTERVAL_MS = 500;
+
+  private final IoScheduler scheduler;
+  private final Listener listener;
+
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+  private final LinkedHashMap<String, JSONObject> pending = new LinkedHashMap<String, JSONObject>();
+
+  private int rssiThreshold = DEFAULT_RSSI_THRESHOLD;
+  private long batchIntervalMs = DEFAULT_BATCH_INTERVAL_MS;
+  private boolean flushScheduled = false;
+
+  private boolean inCycle = false;
+  private long cycleStart = 0;
+
+  DiscoveryTable(IoScheduler scheduler, Listener listener) {
+    this.scheduler = scheduler;
+    this.listener = listener;
+  }
+
+  synchronized void setOptions(JSONObject options) {
+    rssiThreshold = Math.max(0, options.optInt("rssiThreshold", rssiThreshold));
+    batchIntervalMs = Math.max(0, options.optLong("batchInterval", batchIntervalMs));
+  }
+
+  /**
+   * Records a sighting. RSSI and device class may be unknown, in which case
+   * Short.MIN_VALUE and -1 are passed.
+   */
+  synchronized void update(String address, String name, int rssi, int deviceClass) {
+    long now = System.currentTimeMillis();
+    Entry entry = entries.get(address);
+    String status = null;
+
+    if (entry == null) {
+      entry = new Entry(address, now);
+      entries.put(address, entry);
+      status = STATUS_NEW;
+    } else if (!equals(name, entry.name) && name != null
+            || deviceClass != entry.deviceClass && deviceClass != -1
+            || rssi != Short.MIN_VALUE && (entry.reportedRssi == Short.MIN_VALUE
+                || Math.abs(rssi - entry.reportedRssi) >= Math.max(1, rssiThreshold))) {
+      status = STATUS_CHANGED;
+    }
+
+    if (name != null) {
+      entry.name = name;
+    }
+    if (rssi != Short.MIN_VALUE) {
+      entry.rssi = rssi;
+    }
+    if (deviceClass != -1) {
+      entry.deviceClass = deviceClass;
+    }
+    entry.lastSeen = now;
+
+    if (status == null) {
+      return;
+    }
+    entry.reportedRssi = entry.rssi;
+    queue(entry, status);
+  }
+
+  synchronized void startCycle() {
+    if (!inCycle) {
+      inCycle = true;
+      cycleStart = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Ends a discovery cycle and returns the number of devices seen during it.
+   * Only a complete cycle reports the devices that were not seen as gone; an
+   * interrupted one carries on when discovery is started again.
+   */
+  synchronized int finishCycle(boolean complete) {
+    if (!complete || !inCycle) {
+      return 0;
+    }
+    inCycle = false;
+
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (entry.lastSeen < cycleStart) {
+        iterator.remove();
+        queue(entry, STATUS_GONE);
+      }
+    }
+    return entries.size();
+  }
+
+  synchronized void clear() {
+    for (Entry entry : entries.values()) {
+      queue(entry, STATUS_GONE);
+    }
+    entries.clear();
+    inCycle = false;
+  }
+
+  synchronized JSONArray toJSON() throws JSONException {
+    JSONArray devices = new JSONArray();
+    for (Entry entry : entries.values()) {
+      devices.put(entry.toJSON());
+    }
+    return devices;
+  }
+
+  private void queue(Entry entry, String status) {
+    JSONObject item;
+    try {
+      item = entry.toJSON();
+      JSONObject previous = pending.remove(entry.address);
+      if (previous != null && STATUS_NEW.equals(previous.optString("status"))) {
+        status = STATUS_GONE.equals(status) ? null : STATUS_NEW;
+      } else if (previous != null && STATUS_GONE.equals(previous.optString("status"))) {
+        status = STATUS_CHANGED;
+      }
+      if (status == null) {
+        return;
+      }
+      item.put("status", status);
+    } catch (JSONException e) {
+      return;
+    }
+    pending.put(entry.address, item);
+
+    if (flushScheduled) {
+      return;
+    }
+    flushScheduled = true;
+    try {
+      scheduler.schedule(flushTask, batchIntervalMs);
+    } catch (RejectedExecutionException e) {
+      flushScheduled = false;
+      pending.clear();
+    }
+  }
+
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  private void flush() {
+    JSONArray devices = new JSONArray();
+    synchronized (this) {
+      flushScheduled = false;
+      for (JSONObject item : pending.values()) {
+        devices.put(item);
+      }
+      pending.clear();
+    }
+    if (devices.length() > 0) {
+      listener.onChanged(devices);
+    }
+  }
+
+  private static boolean equals(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  private static class Entry {
+    private final String address;
+    private final long firstSeen;
+    private String name = null;
+    private int rssi = Short.MIN_VALUE;
+    private int reportedRssi = Short.MIN_VALUE;
+    private int deviceClass = -1;
+    private long lastSeen;
+
+    Entry(String address, long firstSeen) {
+      this.address = address;
+      this.firstSeen = firstSeen;
+      this.lastSeen = firstSeen;
+    }
+
+    JSONObject toJSON() throws JSONException {
+      JSONObject item = new JSONObject();
+      item.put("address", address);
+      item.put("name", name);
+      if (rssi != Short.MIN_VALUE) {
+        item.put("rssi", rssi);
+      }
+      if (deviceClass != -1) {
+        item.put("deviceClass", deviceClass);
+      }
+      item.put("firstSeen", firstSeen);
+      item.put("lastSeen", lastSeen);
+      return item;
+    }
+  }
+}
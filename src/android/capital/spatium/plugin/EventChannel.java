@@ -0,0 +1,211 @@
+package capital.spatium.plugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Coalesces socket and server events into batched multipart messages sent
+ * over a single kept callback. Events are delivered in the order they were
+ * posted, so per-socket ordering is preserved.
+ */
+class EventChannel {
+  static final String CHANNEL_SOCKET = "socket";
+  static final String CHANNEL_SERVER = "server";
+
+  private static final int EVENT_SIZE_ESTIMATE = 64;
+
+  private final ScheduledExecutorService mExecutor;
+  private final ArrayDeque<PendingEvent> mQueue = new ArrayDeque<PendingEvent>();
+
+  private CallbackContext mCallback = null;
+  private boolean mFlushScheduled = false;
+  private boolean mImmediateFlushQueued = false;
+  private int mQueuedBytes = 0;
+
+  private long mWindowMs = 16;
+  private int mMaxBatchEvents = 256;
+  private int mMaxBatchBytes = 256 * 1024;
+
+  private long mBatches = 0;
+  private long mEvents = 0;
+  private int mMaxEventsPerBatch = 0;
+  private int mMaxQueueDepth = 0;
+  private final Histogram mDispatchLatency = new Histogram();
+
+  EventChannel() {
+    mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "Bluetooth-EventChannel");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  synchronized void setCallback(CallbackContext callbackContext) {
+    mCallback = callbackContext;
+  }
+
+  synchronized boolean isConnected() {
+    return mCallback != null;
+  }
+
+  synchronized void setOptions(JSONObject options) {
+    mWindowMs = Math.max(0, options.optLong("windowMs", mWindowMs));
+    mMaxBatchEvents = Math.max(1, options.optInt("maxBatchEvents", mMaxBatchEvents));
+    mMaxBatchBytes = Math.max(1, options.optInt("maxBatchBytes", mMaxBatchBytes));
+  }
+
+  void post(String channel, JSONObject event) {
+    enqueue(new PendingEvent(channel, event, null));
+  }
+
+  void postData(String socketKey, byte[] data) throws JSONException {
+    JSONObject event = new JSONObject();
+    event.put("type", "DataReceived");
+    event.put("socketKey", socketKey);
+    event.put("binary", true);
+    enqueue(new PendingEvent(CHANNEL_SOCKET, event, data));
+  }
+
+  private synchronized void enqueue(PendingEvent pendingEvent) {
+    mQueue.add(pendingEvent);
+    mQueuedBytes += pendingEvent.size();
+    mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+
+    try {
+      if (mQueue.size() >= mMaxBatchEvents || mQueuedBytes >= mMaxBatchBytes) {
+        if (!mImmediateFlushQueued) {
+          mExecutor.execute(mFlushTask);
+          mImmediateFlushQueued = true;
+        }
+        mFlushScheduled = true;
+      } else if (!mFlushScheduled) {
+        mExecutor.schedule(mFlushTask, mWindowMs, TimeUnit.MILLISECONDS);
+        mFlushScheduled = true;
+      }
+    } catch (RejectedExecutionException e) {
+      drop();
+    }
+  }
+
+  /**
+   * Discards queued events once the channel has been shut down, so readers
+   * that finish late do not fail on the stopped executor.
+   */
+  private void drop() {
+    mQueue.clear();
+    mQueuedBytes = 0;
+    mFlushScheduled = false;
+    mImmediateFlushQueued = false;
+  }
+
+  private final Runnable mFlushTask = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  private void flush() {
+    CallbackContext callbackContext;
+    List<PluginResult> parts = new ArrayList<PluginResult>();
+    int events = 0;
+
+    synchronized (this) {
+      mImmediateFlushQueued = false;
+      callbackContext = mCallback;
+      int bytes = 0;
+      long now = System.currentTimeMillis();
+      while (!mQueue.isEmpty() && events < mMaxBatchEvents && (events == 0 || bytes < mMaxBatchBytes)) {
+        PendingEvent pendingEvent = mQueue.poll();
+        mDispatchLatency.record(now - pendingEvent.postedAt);
+        bytes += pendingEvent.size();
+        events++;
+        pendingEvent.appendTo(parts);
+      }
+      mQueuedBytes -= bytes;
+
+      if (mQueue.isEmpty()) {
+        mFlushScheduled = false;
+      } else if (!mImmediateFlushQueued) {
+        try {
+          mExecutor.execute(mFlushTask);
+          mImmediateFlushQueued = true;
+        } catch (RejectedExecutionException e) {
+          drop();
+        }
+      }
+
+      if (events > 0) {
+        mBatches++;
+        mEvents += events;
+        mMaxEventsPerBatch = Math.max(mMaxEventsPerBatch, events);
+      }
+    }
+
+    if (events == 0 || callbackContext == null) {
+      return;
+    }
+
+    PluginResult result = new PluginResult(PluginResult.Status.OK, parts);
+    result.setKeepCallback(true);
+    callbackContext.sendPluginResult(result);
+  }
+
+  synchronized JSONObject getStats() throws JSONException {
+    JSONObject stats = new JSONObject();
+    stats.put("batches", mBatches);
+    stats.put("events", mEvents);
+    stats.put("eventsPerBatch", mBatches == 0 ? 0 : (double) mEvents / mBatches);
+    stats.put("maxEventsPerBatch", mMaxEventsPerBatch);
+    stats.put("queueDepth", mQueue.size());
+    stats.put("maxQueueDepth", mMaxQueueDepth);
+    stats.put("queuedBytes", mQueuedBytes);
+    stats.put("dispatchLatency", mDispatchLatency.toJSON());
+    return stats;
+  }
+
+  void shutdown() {
+    mExecutor.shutdownNow();
+  }
+
+  private static class PendingEvent {
+    private final String channel;
+    private final JSONObject event;
+    private final byte[] data;
+    private final long postedAt = System.currentTimeMillis();
+
+    PendingEvent(String channel, JSONObject event, byte[] data) {
+      this.channel = channel;
+      this.event = event;
+      this.data = data;
+    }
+
+    int size() {
+      return data == null ? EVENT_SIZE_ESTIMATE : EVENT_SIZE_ESTIMATE + data.length;
+    }
+
+    void appendTo(List<PluginResult> parts) {
+      try {
+        event.put("channel", channel);
+      } catch (JSONException ignored) { }
+
+      parts.add(new PluginResult(PluginResult.Status.OK, event));
+      if (data != null) {
+        parts.add(new PluginResult(PluginResult.Status.OK, data));
+      }
+    }
+  }
+}
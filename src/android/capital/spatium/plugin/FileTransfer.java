@@ -0,0 +1,165 @@
+package capital.spatium.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A file streamed to or from a connection without passing through the
+ * WebView. Progress is reported on the kept callback at most once per
+ * progress interval, and the transfer ends with a final result carrying
+ * done: true, or with an error.
+ */
+class FileTransfer {
+  static final long DEFAULT_PROGRESS_INTERVAL_MS = 250;
+
+  private final FileChannel channel;
+  private final long total;
+  private final long progressIntervalMs;
+  private final CallbackContext callbackContext;
+  private final AtomicBoolean finished = new AtomicBoolean(false);
+
+  private long transferred = 0;
+  private long lastProgress = 0;
+
+  private FileTransfer(FileChannel channel, long total, long progressIntervalMs, CallbackContext callbackContext) {
+    this.channel = channel;
+    this.total = total;
+    this.progressIntervalMs = progressIntervalMs;
+    this.callbackContext = callbackContext;
+  }
+
+  /**
+   * Opens length bytes of the file from the offset for sending. A negative
+   * length sends the rest of the file.
+   */
+  static FileTransfer openSend(File file, long offset, long length, long progressIntervalMs, CallbackContext callbackContext) throws IOException {
+    FileChannel channel = new FileInputStream(file).getChannel();
+    long size = channel.size();
+    if (offset < 0 || offset > size || length >= 0 && offset + length > size) {
+      channel.close();
+      throw new IOException("Range exceeds file size");
+    }
+    channel.position(offset);
+    return new FileTransfer(channel, length >= 0 ? length : size - offset, progressIntervalMs, callbackContext);
+  }
+
+  /**
+   * Creates or truncates the file for receiving length bytes. A negative
+   * length receives until the connection closes.
+   */
+  static FileTransfer openReceive(File file, long length, long progressIntervalMs, CallbackContext callbackContext) throws IOException {
+    FileChannel channel = new FileOutputStream(file).getChannel();
+    return new FileTransfer(channel, length, progressIntervalMs, callbackContext);
+  }
+
+  synchronized long getTransferred() {
+    return transferred;
+  }
+
+  /**
+   * True when the total is unknown and the transfer ends with the
+   * connection.
+   */
+  boolean isUnbounded() {
+    return total < 0;
+  }
+
+  synchronized boolean isDone() {
+    return total >= 0 && transferred >= total;
+  }
+
+  /**
+   * Reads the next chunk of the file into the buffer and returns its length.
+   */
+  int read(byte[] buffer, int offset, int length) throws IOException {
+    int count;
+    synchronized (this) {
+      count = (int) Math.min(length, total - transferred);
+    }
+    ByteBuffer target = ByteBuffer.wrap(buffer, offset, count);
+    while (target.hasRemaining()) {
+      if (channel.read(target) < 0) {
+        throw new IOException("File is shorter than expected");
+      }
+    }
+    advance(count);
+    return count;
+  }
+
+  /**
+   * Writes as much of the data to the file as is still expected and returns
+   * how many bytes were taken.
+   */
+  int write(byte[] data, int offset, int length) throws IOException {
+    int count;
+    synchronized (this) {
+      count = total < 0 ? length : (int) Math.min(length, total - transferred);
+    }
+    ByteBuffer source = ByteBuffer.wrap(data, offset, count);
+    while (source.hasRemaining()) {
+      channel.write(source);
+    }
+    advance(count);
+    return count;
+  }
+
+  void complete() {
+    if (!finished.compareAndSet(false, true)) {
+      return;
+    }
+    closeChannel();
+    try {
+      callbackContext.success(toJSON(true));
+    } catch (JSONException ignored) {}
+  }
+
+  void fail(String message) {
+    if (!finished.compareAndSet(false, true)) {
+      return;
+    }
+    closeChannel();
+    callbackContext.error(message);
+  }
+
+  private void advance(int count) {
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      transferred += count;
+      if (progressIntervalMs <= 0 || now - lastProgress < progressIntervalMs || isDone()) {
+        return;
+      }
+      lastProgress = now;
+    }
+
+    try {
+      PluginResult result = new PluginResult(PluginResult.Status.OK, toJSON(false));
+      result.setKeepCallback(true);
+      callbackContext.sendPluginResult(result);
+    } catch (JSONException ignored) {}
+  }
+
+  private synchronized JSONObject toJSON(boolean done) throws JSONException {
+    JSONObject progress = new JSONObject();
+    progress.put("bytes", transferred);
+    if (total >= 0) {
+      progress.put("total", total);
+    }
+    progress.put("done", done);
+    return progress;
+  }
+
+  private void closeChannel() {
+    try {
+      channel.close();
+    } catch (IOException ignored) {}
+  }
+}
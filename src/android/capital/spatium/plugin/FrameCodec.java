@@ -0,0 +1,98 @@
+package capital.spatium.plugin;
+
+import java.net.ProtocolException;
+
+/**
+ * Length-prefixed message framing: every frame is an unsigned LEB128 varint
+ * payload length followed by the payload bytes.
+ */
+class FrameCodec {
+  interface FrameListener {
+    void onFrame(byte[] frame);
+  }
+
+  static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+
+  private static final int MAX_VARINT_SIZE = 5;
+
+  static byte[] encodeHeader(int length) {
+    byte[] header = new byte[varintSize(length)];
+    writeVarint(header, 0, length);
+    return header;
+  }
+
+  static int varintSize(int value) {
+    int size = 1;
+    while ((value & ~0x7f) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  static int writeVarint(byte[] buffer, int offset, int value) {
+    while ((value & ~0x7f) != 0) {
+      buffer[offset++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    buffer[offset++] = (byte) value;
+    return offset;
+  }
+
+  /**
+   * Streaming reassembly of frames from arbitrary read chunks. Frames that
+   * arrive whole are copied once into their own array.
+   */
+  static class Decoder {
+    private int headerValue = 0;
+    private int headerShift = 0;
+    private int headerBytes = 0;
+    private byte[] frame = null;
+    private int frameFilled = 0;
+
+    void feed(byte[] buffer, int offset, int length, int maxFrameSize, FrameListener listener) throws ProtocolException {
+      int end = offset + length;
+      while (offset < end) {
+        if (frame == null) {
+          int value = buffer[offset++] & 0xff;
+          headerValue |= (value & 0x7f) << headerShift;
+          headerShift += 7;
+          headerBytes++;
+
+          if ((value & 0x80) != 0) {
+            if (headerBytes >= MAX_VARINT_SIZE) {
+              throw new ProtocolException("Malformed frame header");
+            }
+            continue;
+          }
+
+          int frameSize = headerValue;
+          headerValue = 0;
+          headerShift = 0;
+          headerBytes = 0;
+
+          if (frameSize < 0 || frameSize > maxFrameSize) {
+            throw new ProtocolException("Frame exceeds maximum size");
+          }
+          if (frameSize == 0) {
+            listener.onFrame(new byte[0]);
+            continue;
+          }
+          frame = new byte[frameSize];
+          frameFilled = 0;
+        }
+
+        int size = Math.min(end - offset, frame.length - frameFilled);
+        System.arraycopy(buffer, offset, frame, frameFilled, size);
+        frameFilled += size;
+        offset += size;
+
+        if (frameFilled == frame.length) {
+          byte[] complete = frame;
+          frame = null;
+          listener.onFrame(complete);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package capital.spatium.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Histogram of non-negative values, durations in milliseconds or sizes in
+ * bytes, in power-of-two buckets: bucket 0 counts zeros, bucket i values from
+ * 2^(i-1) up to 2^i and the last bucket everything larger. Recording does not
+ * allocate.
+ */
+class Histogram {
+  private static final int BUCKETS = 20;
+
+  private final long[] counts = new long[BUCKETS];
+  private long count = 0;
+  private long sum = 0;
+  private long min = Long.MAX_VALUE;
+  private long max = 0;
+
+  synchronized void record(long value) {
+    value = Math.max(0, value);
+    int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    counts[bucket]++;
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the upper bound of the bucket holding the given percentile,
+   * capped at the largest recorded value.
+   */
+  synchronized long getPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(count * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(max, 1L << i);
+      }
+    }
+    return max;
+  }
+
+  synchronized void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = 0;
+    }
+    count = 0;
+    sum = 0;
+    min = Long.MAX_VALUE;
+    max = 0;
+  }
+
+  synchronized JSONObject toJSON() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("count", count);
+    json.put("min", count > 0 ? min : 0);
+    json.put("max", max);
+    json.put("mean", count > 0 ? (double) sum / count : 0);
+    json.put("p50", getPercentile(50));
+    json.put("p90", getPercentile(90));
+    json.put("p99", getPercentile(99));
+
+    JSONArray buckets = new JSONArray();
+    for (long bucketCount : counts) {
+      buckets.put(bucketCount);
+    }
+    json.put("buckets", buckets);
+    return json;
+  }
+}
@@ -0,0 +1,165 @@
+package capital.spatium.plugin;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Plugin-owned executors for blocking socket I/O, kept apart from the
+ * Cordova thread pool shared with other plugins.
+ *
+ * Connects run on a bounded pool with a queue. Readers and accept loops each
+ * pin one thread for their lifetime, so they get their own pools with a
+ * thread limit and no queue: work beyond the limit is rejected rather than
+ * left waiting behind a blocking read. Writers work the same way, since a
+ * write blocks for as long as the peer pushes back; each connection runs at
+ * most one drain at a time, so a slow peer only holds up its own writes.
+ */
+class IoScheduler {
+  private static final long KEEP_ALIVE_SECONDS = 30;
+  private static final int MAX_WRITER_THREADS = 64;
+
+  private final ThreadPoolExecutor connectExecutor;
+  private final ThreadPoolExecutor readerExecutor;
+  private final ThreadPoolExecutor acceptExecutor;
+  private final ThreadPoolExecutor writerExecutor;
+  private final ScheduledThreadPoolExecutor timerExecutor;
+
+  private final IoThreadFactory connectThreadFactory = new IoThreadFactory("Bluetooth-Connect", Thread.NORM_PRIORITY);
+  private final IoThreadFactory readerThreadFactory = new IoThreadFactory("Bluetooth-Reader", Thread.NORM_PRIORITY + 1);
+  private final IoThreadFactory acceptThreadFactory = new IoThreadFactory("Bluetooth-Accept", Thread.NORM_PRIORITY);
+  private final IoThreadFactory writerThreadFactory = new IoThreadFactory("Bluetooth-Writer", Thread.NORM_PRIORITY + 1);
+  private final IoThreadFactory timerThreadFactory = new IoThreadFactory("Bluetooth-Timer", Thread.NORM_PRIORITY);
+
+  IoScheduler() {
+    connectExecutor = new ThreadPoolExecutor(4, 4, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), connectThreadFactory);
+    connectExecutor.allowCoreThreadTimeOut(true);
+
+    readerExecutor = new ThreadPoolExecutor(0, 32, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), readerThreadFactory);
+    acceptExecutor = new ThreadPoolExecutor(0, 8, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), acceptThreadFactory);
+    writerExecutor = new ThreadPoolExecutor(0, MAX_WRITER_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), writerThreadFactory);
+
+    timerExecutor = new ScheduledThreadPoolExecutor(1, timerThreadFactory);
+    timerExecutor.setRemoveOnCancelPolicy(true);
+  }
+
+  ThreadPoolExecutor getConnectExecutor() {
+    return connectExecutor;
+  }
+
+  ThreadPoolExecutor getWriterExecutor() {
+    return writerExecutor;
+  }
+
+  void executeConnect(Runnable task) throws RejectedExecutionException {
+    connectExecutor.execute(task);
+  }
+
+  void executeReader(Runnable task) throws RejectedExecutionException {
+    readerExecutor.execute(task);
+  }
+
+  void executeAccept(Runnable task) throws RejectedExecutionException {
+    acceptExecutor.execute(task);
+  }
+
+  /**
+   * Runs a short task after a delay, such as a timeout or a retry. Tasks must
+   * not block since they share a single thread.
+   */
+  ScheduledFuture<?> schedule(Runnable task, long delayMs) throws RejectedExecutionException {
+    return timerExecutor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  synchronized void setOptions(JSONObject options) {
+    setFixedPoolSize(connectExecutor, options.optInt("maxConnectThreads", connectExecutor.getMaximumPoolSize()));
+    readerExecutor.setMaximumPoolSize(Math.max(1, options.optInt("maxReaderThreads", readerExecutor.getMaximumPoolSize())));
+    writerExecutor.setMaximumPoolSize(Math.max(1, options.optInt("maxWriterThreads", writerExecutor.getMaximumPoolSize())));
+    acceptExecutor.setMaximumPoolSize(Math.max(1, options.optInt("maxAcceptThreads", acceptExecutor.getMaximumPoolSize())));
+
+    readerThreadFactory.setPriority(options.optInt("readerThreadPriority", readerThreadFactory.getPriority()));
+    writerThreadFactory.setPriority(options.optInt("writerThreadPriority", writerThreadFactory.getPriority()));
+    connectThreadFactory.setPriority(options.optInt("connectThreadPriority", connectThreadFactory.getPriority()));
+  }
+
+  private static void setFixedPoolSize(ThreadPoolExecutor executor, int size) {
+    size = Math.max(1, size);
+    if (size >= executor.getMaximumPoolSize()) {
+      executor.setMaximumPoolSize(size);
+      executor.setCorePoolSize(size);
+    } else {
+      executor.setCorePoolSize(size);
+      executor.setMaximumPoolSize(size);
+    }
+  }
+
+  JSONObject getStats() throws JSONException {
+    JSONObject stats = new JSONObject();
+    stats.put("connect", getStats(connectExecutor));
+    stats.put("reader", getStats(readerExecutor));
+    stats.put("accept", getStats(acceptExecutor));
+    stats.put("writer", getStats(writerExecutor));
+    return stats;
+  }
+
+  private static JSONObject getStats(ThreadPoolExecutor executor) throws JSONException {
+    JSONObject stats = new JSONObject();
+    stats.put("active", executor.getActiveCount());
+    stats.put("queued", executor.getQueue().size());
+    stats.put("threads", executor.getPoolSize());
+    stats.put("maxThreads", executor.getMaximumPoolSize());
+    stats.put("completed", executor.getCompletedTaskCount());
+    return stats;
+  }
+
+  /**
+   * Stops accepting work and interrupts running tasks. Blocking reads and
+   * accepts only return once their sockets are closed by the caller.
+   */
+  void shutdown() {
+    connectExecutor.shutdownNow();
+    readerExecutor.shutdownNow();
+    acceptExecutor.shutdownNow();
+    writerExecutor.shutdownNow();
+    timerExecutor.shutdownNow();
+  }
+
+  private static class IoThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile int priority;
+
+    IoThreadFactory(String name, int priority) {
+      this.name = name;
+      this.priority = priority;
+    }
+
+    int getPriority() {
+      return priority;
+    }
+
+    void setPriority(int priority) {
+      this.priority = Math.max(Thread.MIN_PRIORITY, Math.min(Thread.MAX_PRIORITY, priority));
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(priority);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,570 @@
+package capital.spatium.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * Carries many logical channels over one physical connection. Every frame is
+ * a type byte, a varint channel id and a varint value: the payload length of
+ * a data frame, the credit granted by the others.
+ *
+ * A side may send on a channel only as many bytes as the peer has granted and
+ * the peer grants more as the channel's reader consumes data, so a channel
+ * nobody reads never holds up the link. Channels with data and credit are
+ * served round robin one quantum at a time, so a bulk transfer cannot starve
+ * a control channel.
+ */
+class Multiplexer {
+  interface Listener {
+    void onChannelOpened(Connection carrier, Channel channel);
+
+    void onClosed(Connection carrier, boolean hasError);
+  }
+
+  static final int DEFAULT_WINDOW = 64 * 1024;
+
+  private static final int HANDSHAKE = 0xc1;
+  private static final int QUANTUM = 4 * 1024;
+  private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+  private static final int MAX_HEADER_SIZE = 11;
+
+  private static final int FRAME_OPEN = 1;
+  private static final int FRAME_DATA = 2;
+  private static final int FRAME_CREDIT = 3;
+  private static final int FRAME_CLOSE = 4;
+
+  private final Connection carrier;
+  private final JSONObject options;
+  private final int window;
+  private final Listener listener;
+
+  private final Map<Integer, Channel> channels = new HashMap<Integer, Channel>();
+  private final ArrayDeque<Frame> controlFrames = new ArrayDeque<Frame>();
+  private final ArrayDeque<Channel> sendable = new ArrayDeque<Channel>();
+  private int nextChannelId;
+  private int lastRemoteChannelId = 0;
+  private boolean closed = false;
+
+  Multiplexer(Connection carrier, boolean initiator, JSONObject options, Listener listener) {
+    this.carrier = carrier;
+    this.options = options;
+    this.window = Math.max(QUANTUM, options.optInt("channelWindow", DEFAULT_WINDOW));
+    this.listener = listener;
+    this.nextChannelId = initiator ? 1 : 2;
+  }
+
+  static boolean isEnabled(JSONObject options) {
+    return options != null && options.optBoolean("multiplex", false);
+  }
+
+  /**
+   * Confirms that the peer has multiplexing enabled as well, before any
+   * frame is exchanged.
+   */
+  static void handshake(TransportSocket socket) throws IOException {
+    OutputStream output = socket.getOutputStream();
+    output.write(HANDSHAKE);
+    output.flush();
+
+    int peer = socket.getInputStream().read();
+    if (peer < 0) {
+      throw new EOFException("Connection closed during multiplexer handshake");
+    }
+    if (peer != HANDSHAKE) {
+      throw new ProtocolException("Peer does not support multiplexing");
+    }
+  }
+
+  JSONObject getOptions() {
+    return options;
+  }
+
+  synchronized int getChannelCount() {
+    return channels.size();
+  }
+
+  synchronized Channel openChannel() throws IOException {
+    if (closed) {
+      throw new IOException("Not connected");
+    }
+
+    Channel channel = new Channel(nextChannelId, 0);
+    nextChannelId += 2;
+    channels.put(channel.id, channel);
+    queueControl(FRAME_OPEN, channel.id, window);
+    return channel;
+  }
+
+  /**
+   * Sends a frame the peer ignores, to find out whether the link is alive.
+   */
+  synchronized void sendKeepAlive() throws IOException {
+    if (closed) {
+      throw new IOException("Not connected");
+    }
+    queueControl(FRAME_CREDIT, 0, 0);
+  }
+
+  void closeChannels() {
+    ArrayList<Channel> open;
+    synchronized (this) {
+      open = new ArrayList<Channel>(channels.values());
+    }
+    for (Channel channel : open) {
+      closeChannel(channel);
+    }
+  }
+
+  final Runnable receiveTask = new Runnable() {
+    @Override
+    public void run() {
+      receive();
+    }
+  };
+
+  final Runnable sendTask = new Runnable() {
+    @Override
+    public void run() {
+      send();
+    }
+  };
+
+  private void receive() {
+    boolean hasError = false;
+    try {
+      InputStream input = new BufferedInputStream(carrier.getInputStream(), STREAM_BUFFER_SIZE);
+      while (true) {
+        int type = input.read();
+        if (type < 0) {
+          carrier.setCloseReason(Connection.CLOSE_REMOTE);
+          break;
+        }
+        int channelId = readVarint(input);
+        int value = readVarint(input);
+
+        switch (type) {
+          case FRAME_OPEN:
+            onOpen(channelId, value);
+            break;
+          case FRAME_DATA:
+            onData(input, channelId, value);
+            break;
+          case FRAME_CREDIT:
+            onCredit(channelId, value);
+            break;
+          case FRAME_CLOSE:
+            onClose(channelId);
+            break;
+          default:
+            throw new ProtocolException("Unknown multiplexer frame");
+        }
+      }
+    } catch (ProtocolException e) {
+      hasError = true;
+      carrier.recordError(e);
+      carrier.setCloseReason(Connection.CLOSE_ERROR);
+    } catch (IOException e) {
+      if (carrier.isOpen()) {
+        carrier.recordError(e);
+        carrier.setCloseReason(Connection.CLOSE_ERROR);
+      }
+    }
+
+    shutdown();
+    listener.onClosed(carrier, hasError);
+  }
+
+  private void onOpen(int channelId, int credit) throws ProtocolException {
+    Channel channel;
+    synchronized (this) {
+      if ((channelId & 1) == (nextChannelId & 1) || channelId <= lastRemoteChannelId) {
+        throw new ProtocolException("Unexpected channel id");
+      }
+      lastRemoteChannelId = channelId;
+
+      channel = new Channel(channelId, credit);
+      channels.put(channelId, channel);
+      queueControl(FRAME_CREDIT, channelId, window);
+    }
+    listener.onChannelOpened(carrier, channel);
+  }
+
+  private void onData(InputStream input, int channelId, int length) throws IOException {
+    if (length > window) {
+      throw new ProtocolException("Channel credit exceeded");
+    }
+    byte[] data = new byte[length];
+    readFully(input, data);
+    carrier.recordReceived(length);
+
+    synchronized (this) {
+      Channel channel = channels.get(channelId);
+      if (channel == null || length == 0) {
+        return;
+      }
+      if (length > channel.receiveWindow) {
+        throw new ProtocolException("Channel credit exceeded");
+      }
+      channel.receiveWindow -= length;
+      channel.inbound.add(data);
+      channel.inboundBytes += length;
+      notifyAll();
+    }
+  }
+
+  private synchronized void onCredit(int channelId, int credit) throws ProtocolException {
+    Channel channel = channels.get(channelId);
+    if (channel == null) {
+      return;
+    }
+    if (channel.sendCredit + credit < 0) {
+      throw new ProtocolException("Channel credit overflow");
+    }
+    channel.sendCredit += credit;
+    schedule(channel);
+  }
+
+  private synchronized void onClose(int channelId) {
+    Channel channel = channels.get(channelId);
+    if (channel == null) {
+      return;
+    }
+    channel.remoteClosed = true;
+    channel.outbound.clear();
+    channel.outboundBytes = 0;
+    notifyAll();
+  }
+
+  private synchronized void shutdown() {
+    closed = true;
+    channels.clear();
+    controlFrames.clear();
+    sendable.clear();
+    notifyAll();
+  }
+
+  private void send() {
+    try {
+      OutputStream output = new BufferedOutputStream(carrier.getOutputStream(), STREAM_BUFFER_SIZE);
+      byte[] header = new byte[MAX_HEADER_SIZE];
+      boolean unflushed = false;
+
+      while (true) {
+        Frame frame;
+        synchronized (this) {
+          frame = nextFrame();
+          while (frame == null && !unflushed && !closed) {
+            wait();
+            frame = nextFrame();
+          }
+          if (frame == null && closed) {
+            return;
+          }
+        }
+
+        if (frame == null) {
+          output.flush();
+          unflushed = false;
+          continue;
+        }
+
+        int size = 0;
+        header[size++] = (byte) frame.type;
+        size = FrameCodec.writeVarint(header, size, frame.channelId);
+        size = FrameCodec.writeVarint(header, size, frame.value);
+        output.write(header, 0, size);
+        if (frame.data != null) {
+          output.write(frame.data, frame.offset, frame.value);
+          carrier.recordSent(size + frame.value, 1);
+        }
+        unflushed = true;
+      }
+    } catch (IOException e) {
+      try {
+        carrier.getSocket().close();
+      } catch (IOException ignored) {}
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Returns the next frame to send: control frames first, then one quantum
+   * of the channel at the head of the round robin.
+   */
+  private Frame nextFrame() {
+    Frame control = controlFrames.poll();
+    if (control != null) {
+      return control;
+    }
+
+    while (!sendable.isEmpty()) {
+      Channel channel = sendable.poll();
+      channel.scheduled = false;
+      if (channel.localClosed || channel.outboundBytes == 0 || channel.sendCredit == 0) {
+        continue;
+      }
+
+      byte[] head = channel.outbound.peek();
+      int length = Math.min(Math.min(QUANTUM, channel.sendCredit), head.length - channel.outboundOffset);
+      Frame frame = new Frame(FRAME_DATA, channel.id, length, head, channel.outboundOffset);
+
+      channel.outboundOffset += length;
+      if (channel.outboundOffset == head.length) {
+        channel.outbound.poll();
+        channel.outboundOffset = 0;
+      }
+      channel.outboundBytes -= length;
+      channel.sendCredit -= length;
+
+      schedule(channel);
+      notifyAll();
+      return frame;
+    }
+    return null;
+  }
+
+  private void schedule(Channel channel) {
+    if (!channel.scheduled && channel.outboundBytes > 0 && channel.sendCredit > 0) {
+      channel.scheduled = true;
+      sendable.add(channel);
+      notifyAll();
+    }
+  }
+
+  private void queueControl(int type, int channelId, int value) {
+    controlFrames.add(new Frame(type, channelId, value, null, 0));
+    notifyAll();
+  }
+
+  private synchronized int read(Channel channel, byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+
+    while (channel.inboundBytes == 0) {
+      if (channel.localClosed) {
+        throw new IOException("Socket closed");
+      }
+      if (channel.remoteClosed || closed) {
+        return -1;
+      }
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+
+    int bytesRead = 0;
+    while (bytesRead < length && !channel.inbound.isEmpty()) {
+      byte[] head = channel.inbound.peek();
+      int size = Math.min(length - bytesRead, head.length - channel.inboundOffset);
+      System.arraycopy(head, channel.inboundOffset, buffer, offset + bytesRead, size);
+      bytesRead += size;
+      channel.inboundOffset += size;
+      if (channel.inboundOffset == head.length) {
+        channel.inbound.poll();
+        channel.inboundOffset = 0;
+      }
+    }
+    channel.inboundBytes -= bytesRead;
+
+    channel.consumed += bytesRead;
+    if (channel.consumed >= window / 2 && !channel.remoteClosed && !closed) {
+      channel.receiveWindow += channel.consumed;
+      queueControl(FRAME_CREDIT, channel.id, channel.consumed);
+      channel.consumed = 0;
+    }
+    return bytesRead;
+  }
+
+  private synchronized int available(Channel channel) {
+    return channel.inboundBytes;
+  }
+
+  /**
+   * Queues data on the channel, waiting while a full window of it is still
+   * unsent.
+   */
+  private synchronized void write(Channel channel, byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return;
+    }
+
+    while (isWritable(channel) && channel.outboundBytes >= window) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+    if (!isWritable(channel)) {
+      throw new IOException("Socket closed");
+    }
+
+    channel.outbound.add(Arrays.copyOfRange(buffer, offset, offset + length));
+    channel.outboundBytes += length;
+    schedule(channel);
+  }
+
+  private boolean isWritable(Channel channel) {
+    return !closed && !channel.localClosed && !channel.remoteClosed;
+  }
+
+  private synchronized void closeChannel(Channel channel) {
+    if (channel.localClosed) {
+      return;
+    }
+    channel.localClosed = true;
+    channel.outbound.clear();
+    channel.outboundBytes = 0;
+    channel.inbound.clear();
+    channel.inboundBytes = 0;
+
+    if (channels.remove(channel.id) != null && !channel.remoteClosed) {
+      queueControl(FRAME_CLOSE, channel.id, 0);
+    }
+    notifyAll();
+  }
+
+  private static int readVarint(InputStream input) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = input.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) {
+          break;
+        }
+        return value;
+      }
+    }
+    throw new ProtocolException("Malformed multiplexer frame");
+  }
+
+  private static void readFully(InputStream input, byte[] buffer) throws IOException {
+    int offset = 0;
+    while (offset < buffer.length) {
+      int bytesRead = input.read(buffer, offset, buffer.length - offset);
+      if (bytesRead < 0) {
+        throw new EOFException();
+      }
+      offset += bytesRead;
+    }
+  }
+
+  private static class Frame {
+    private final int type;
+    private final int channelId;
+    private final int value;
+    private final byte[] data;
+    private final int offset;
+
+    Frame(int type, int channelId, int value, byte[] data, int offset) {
+      this.type = type;
+      this.channelId = channelId;
+      this.value = value;
+      this.data = data;
+      this.offset = offset;
+    }
+  }
+
+  /**
+   * A logical channel, usable as a transport socket of its own.
+   */
+  class Channel implements TransportSocket {
+    private final int id;
+    private int sendCredit;
+    private int receiveWindow = window;
+    private int consumed = 0;
+
+    private final ArrayDeque<byte[]> inbound = new ArrayDeque<byte[]>();
+    private final ArrayDeque<byte[]> outbound = new ArrayDeque<byte[]>();
+    private int inboundOffset = 0;
+    private int inboundBytes = 0;
+    private int outboundOffset = 0;
+    private int outboundBytes = 0;
+
+    private boolean scheduled = false;
+    private boolean localClosed = false;
+    private boolean remoteClosed = false;
+
+    private final InputStream inputStream = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        byte[] value = new byte[1];
+        return read(value, 0, 1) < 0 ? -1 : value[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        return Multiplexer.this.read(Channel.this, buffer, offset, length);
+      }
+
+      @Override
+      public int available() {
+        return Multiplexer.this.available(Channel.this);
+      }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+      @Override
+      public void write(int value) throws IOException {
+        write(new byte[] { (byte) value }, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] buffer, int offset, int length) throws IOException {
+        Multiplexer.this.write(Channel.this, buffer, offset, length);
+      }
+    };
+
+    Channel(int id, int sendCredit) {
+      this.id = id;
+      this.sendCredit = sendCredit;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return inputStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return outputStream;
+    }
+
+    @Override
+    public String getRemoteName() {
+      return carrier.getSocket().getRemoteName();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+      return carrier.getSocket().getRemoteAddress();
+    }
+
+    @Override
+    public void close() {
+      closeChannel(this);
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package capital.spatium.plugin;
+
+import android.content.SharedPreferences;
+
+/**
+ * Keeps a cache's serialized contents under one key of the plugin's shared
+ * preferences.
+ */
+class PreferencesStorage implements ChannelCache.Storage {
+  private final SharedPreferences preferences;
+  private final String key;
+
+  PreferencesStorage(SharedPreferences preferences, String key) {
+    this.preferences = preferences;
+    this.key = key;
+  }
+
+  @Override
+  public String load() {
+    return preferences.getString(key, null);
+  }
+
+  @Override
+  public void save(String data) {
+    preferences.edit().putString(key, data).apply();
+  }
+}
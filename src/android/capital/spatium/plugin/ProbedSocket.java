@@ -0,0 +1,553 @@
+package capital.spatium.plugin;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Measures the link under a connection by sending pings in band with the
+ * data. Control messages are an escape byte, a type byte and an 8 byte
+ * value; an escape byte in the data is sent twice as escape and zero. Each
+ * side answers pings with the timestamp they carried, which gives rolling
+ * RTT estimates, and the payload bytes moved per interval give goodput
+ * estimates in both directions.
+ *
+ * A read that has heard nothing from the peer for the timeout means the link
+ * is dead. Reads the app holds back do not count, but a peer that stops
+ * reading for that long stops answering and looks dead from this side.
+ *
+ * On a resilient socket the probe runs on top of the session, not on one
+ * link, so its messages are replayed across a reconnect. Pongs to pings sent
+ * before the current link came up give no RTT sample, and time spent waiting
+ * for the session to resume does not count towards the timeout.
+ *
+ * Both peers must opt in: each side sends one handshake byte on open and
+ * accept.
+ */
+class ProbedSocket implements TransportSocket {
+  interface Listener {
+    void onLinkDead(ProbedSocket socket);
+  }
+
+  static final long DEFAULT_INTERVAL_MS = 1000;
+  static final long DEFAULT_TIMEOUT_MS = 10 * 1000;
+
+  private static final long MIN_INTERVAL_MS = 100;
+  private static final int HANDSHAKE = 0xc5;
+  private static final int ESCAPE = 0xdb;
+  private static final int ESCAPED_DATA = 0;
+  private static final int CONTROL_PING = 1;
+  private static final int CONTROL_PONG = 2;
+  private static final int CONTROL_SIZE = 10;
+  private static final int SCRATCH_SIZE = 8 * 1024;
+
+  private static final double RTT_GAIN = 0.125;
+  private static final double RTT_VARIANCE_GAIN = 0.25;
+  private static final double GOODPUT_GAIN = 0.25;
+
+  private final TransportSocket socket;
+  private final ResilientSocket session;
+  private final InputStream in;
+  private final OutputStream out;
+  private final long intervalMs;
+  private final long timeoutMs;
+  private final InputStream inputStream = new ProbeInputStream();
+  private final OutputStream outputStream = new ProbeOutputStream();
+
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final byte[] control = new byte[CONTROL_SIZE];
+  private final byte[] scratch = new byte[SCRATCH_SIZE];
+  private volatile boolean pingPending = false;
+  private volatile boolean pongPending = false;
+  private final AtomicBoolean controlQueued = new AtomicBoolean(false);
+  private long pongValue = 0;
+
+  private IoScheduler scheduler = null;
+  private Listener listener = null;
+  private ScheduledFuture<?> timer = null;
+  private boolean closed = false;
+
+  private final AtomicLong readingSince = new AtomicLong();
+  private volatile long lastHeard = System.currentTimeMillis();
+  private final AtomicLong payloadReceived = new AtomicLong();
+  private final AtomicLong payloadSent = new AtomicLong();
+
+  private double rttMs = -1;
+  private double rttVarianceMs = 0;
+  private double minRttMs = -1;
+  private double lastRttMs = -1;
+  private final Histogram rtt = new Histogram();
+  private long pings = 0;
+  private long pongs = 0;
+  private long timeouts = 0;
+
+  private long lastTick = 0;
+  private long lastReceived = 0;
+  private long lastSent = 0;
+  private double goodputIn = 0;
+  private double goodputOut = 0;
+  private double peakGoodputIn = 0;
+  private double peakGoodputOut = 0;
+
+  private ProbedSocket(TransportSocket socket, JSONObject options) throws IOException {
+    this.socket = socket;
+    this.session = socket instanceof ResilientSocket ? (ResilientSocket) socket : null;
+    this.in = socket.getInputStream();
+    this.out = socket.getOutputStream();
+    this.intervalMs = Math.max(MIN_INTERVAL_MS, options.optLong("probeInterval", DEFAULT_INTERVAL_MS));
+    this.timeoutMs = Math.max(0, options.optLong("probeTimeout", DEFAULT_TIMEOUT_MS));
+  }
+
+  static boolean isEnabled(JSONObject options) {
+    return options != null && options.optBoolean("probe", false);
+  }
+
+  /**
+   * Confirms that the peer probes as well and returns the socket to use for
+   * the rest of the connection. Probing starts with start().
+   */
+  static ProbedSocket negotiate(TransportSocket socket, JSONObject options) throws IOException {
+    OutputStream output = socket.getOutputStream();
+    output.write(HANDSHAKE);
+    output.flush();
+
+    int peer = socket.getInputStream().read();
+    if (peer < 0) {
+      throw new EOFException("Connection closed during probe handshake");
+    }
+    if (peer != HANDSHAKE) {
+      throw new ProtocolException("Peer does not support link probing");
+    }
+    return new ProbedSocket(socket, options);
+  }
+
+  /**
+   * Starts sending pings every interval. Pings are written on the writer
+   * pool, never on the timer thread.
+   */
+  synchronized void start(IoScheduler scheduler, Listener listener) {
+    if (closed || timer != null) {
+      return;
+    }
+    this.scheduler = scheduler;
+    this.listener = listener;
+    lastTick = System.currentTimeMillis();
+    schedule();
+    if (pongPending) {
+      requestControl();
+    }
+  }
+
+  synchronized JSONObject getStats() throws JSONException {
+    JSONObject stats = new JSONObject();
+    stats.put("interval", intervalMs);
+    stats.put("timeout", timeoutMs);
+    if (rttMs >= 0) {
+      stats.put("rtt", round(rttMs));
+      stats.put("rttVariance", round(rttVarianceMs));
+      stats.put("minRtt", round(minRttMs));
+      stats.put("lastRtt", round(lastRttMs));
+      stats.put("suggestedTimeout", round(rttMs + 4 * rttVarianceMs));
+      stats.put("bandwidthDelayProduct", Math.round(Math.max(peakGoodputIn, peakGoodputOut) * rttMs / 1000));
+    }
+    stats.put("rttHistogram", rtt.toJSON());
+    stats.put("goodputIn", Math.round(goodputIn));
+    stats.put("goodputOut", Math.round(goodputOut));
+    stats.put("peakGoodputIn", Math.round(peakGoodputIn));
+    stats.put("peakGoodputOut", Math.round(peakGoodputOut));
+    stats.put("payloadReceived", payloadReceived.get());
+    stats.put("payloadSent", payloadSent.get());
+    stats.put("pings", pings);
+    stats.put("pongs", pongs);
+    stats.put("timeouts", timeouts);
+    stats.put("silence", System.currentTimeMillis() - lastHeard);
+    return stats;
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return inputStream;
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return outputStream;
+  }
+
+  @Override
+  public String getRemoteName() {
+    return socket.getRemoteName();
+  }
+
+  @Override
+  public String getRemoteAddress() {
+    return socket.getRemoteAddress();
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+      if (timer != null) {
+        timer.cancel(false);
+        timer = null;
+      }
+    }
+    socket.close();
+  }
+
+  private void schedule() {
+    try {
+      timer = scheduler.schedule(tickTask, intervalMs);
+    } catch (RejectedExecutionException e) {
+      timer = null;
+    }
+  }
+
+  private final Runnable tickTask = new Runnable() {
+    @Override
+    public void run() {
+      tick();
+    }
+  };
+
+  private final Runnable controlTask = new Runnable() {
+    @Override
+    public void run() {
+      controlQueued.set(false);
+      sendPendingControl();
+    }
+  };
+
+  /**
+   * Updates the goodput estimates, checks for a dead link and queues the
+   * next ping.
+   */
+  private void tick() {
+    long now = System.currentTimeMillis();
+    boolean linkUp = session == null || session.isLinkUp();
+    boolean dead = false;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+
+      long elapsed = Math.max(1, now - lastTick);
+      long received = payloadReceived.get();
+      long sent = payloadSent.get();
+      goodputIn += GOODPUT_GAIN * ((received - lastReceived) * 1000.0 / elapsed - goodputIn);
+      goodputOut += GOODPUT_GAIN * ((sent - lastSent) * 1000.0 / elapsed - goodputOut);
+      peakGoodputIn = Math.max(peakGoodputIn, goodputIn);
+      peakGoodputOut = Math.max(peakGoodputOut, goodputOut);
+      lastTick = now;
+      lastReceived = received;
+      lastSent = sent;
+
+      long since = readingSince.get();
+      if (!linkUp) {
+        if (since != 0) {
+          readingSince.compareAndSet(since, now);
+        }
+      } else if (timeoutMs > 0 && since != 0 && now - since >= timeoutMs && readingSince.compareAndSet(since, now)) {
+        timeouts++;
+        dead = true;
+      }
+      schedule();
+    }
+
+    pingPending = true;
+    requestControl();
+    if (dead) {
+      listener.onLinkDead(this);
+    }
+  }
+
+  private void requestControl() {
+    if (!controlQueued.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      scheduler.getWriterExecutor().execute(controlTask);
+    } catch (RejectedExecutionException e) {
+      controlQueued.set(false);
+    }
+  }
+
+  /**
+   * Sends the queued ping and pong, unless another thread holds the write
+   * lock; that thread calls this again once it lets go.
+   */
+  private void sendPendingControl() {
+    while ((pingPending || pongPending) && writeLock.tryLock()) {
+      try {
+        if (pongPending) {
+          long value;
+          synchronized (this) {
+            pongPending = false;
+            value = pongValue;
+          }
+          writeControl(CONTROL_PONG, value);
+        }
+        if (pingPending) {
+          pingPending = false;
+          writeControl(CONTROL_PING, System.nanoTime());
+          synchronized (this) {
+            pings++;
+          }
+        }
+        out.flush();
+      } catch (IOException ignored) {
+      } finally {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  private void writeControl(int type, long value) throws IOException {
+    control[0] = (byte) ESCAPE;
+    control[1] = (byte) type;
+    for (int i = 0; i < 8; i++) {
+      control[2 + i] = (byte) (value >>> (56 - 8 * i));
+    }
+    out.write(control, 0, CONTROL_SIZE);
+  }
+
+  private void onControl(int type, long value) {
+    if (type == CONTROL_PING) {
+      boolean started;
+      synchronized (this) {
+        pongValue = value;
+        pongPending = true;
+        started = timer != null;
+      }
+      if (started) {
+        requestControl();
+      }
+      return;
+    }
+
+    double sample = (System.nanoTime() - value) / 1000000.0;
+    if (sample < 0 || (session != null && !session.isLinkUpSince(value))) {
+      return;
+    }
+    synchronized (this) {
+      pongs++;
+      if (rttMs < 0) {
+        rttMs = sample;
+        rttVarianceMs = sample / 2;
+        minRttMs = sample;
+      } else {
+        rttVarianceMs += RTT_VARIANCE_GAIN * (Math.abs(rttMs - sample) - rttVarianceMs);
+        rttMs += RTT_GAIN * (sample - rttMs);
+        minRttMs = Math.min(minRttMs, sample);
+      }
+      lastRttMs = sample;
+    }
+    rtt.record(Math.round(sample));
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 10) / 10.0;
+  }
+
+  /**
+   * Strips control messages from what the link delivers. Only data is
+   * reported as available, so the read loop's coalescing never blocks on a
+   * chunk that held nothing but a ping.
+   */
+  private class ProbeInputStream extends InputStream {
+    private boolean escaped = false;
+    private int controlType = 0;
+    private int controlRemaining = 0;
+    private long controlValue = 0;
+
+    private byte[] pending = null;
+    private int pendingOffset = 0;
+    private int pendingLength = 0;
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      int count = read(single, 0, 1);
+      return count < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (pendingLength > 0) {
+        int count = Math.min(length, pendingLength);
+        System.arraycopy(pending, pendingOffset, buffer, offset, count);
+        pendingOffset += count;
+        pendingLength -= count;
+        return count;
+      }
+
+      while (true) {
+        int count = readLink(buffer, offset, length);
+        if (count < 0) {
+          return -1;
+        }
+        count = decode(buffer, offset, count);
+        if (count > 0) {
+          return count;
+        }
+      }
+    }
+
+    @Override
+    public int available() throws IOException {
+      if (pendingLength > 0) {
+        return pendingLength;
+      }
+      int available = in.available();
+      if (available <= 0) {
+        return 0;
+      }
+
+      if (pending == null) {
+        pending = new byte[SCRATCH_SIZE];
+      }
+      int count = readLink(pending, 0, Math.min(available, pending.length));
+      pendingOffset = 0;
+      pendingLength = count < 0 ? 0 : decode(pending, 0, count);
+      return pendingLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+      ProbedSocket.this.close();
+    }
+
+    private int readLink(byte[] buffer, int offset, int length) throws IOException {
+      readingSince.set(System.currentTimeMillis());
+      int count;
+      try {
+        count = in.read(buffer, offset, length);
+      } finally {
+        readingSince.set(0);
+      }
+      if (count < 0) {
+        if (escaped || controlRemaining > 0) {
+          throw new EOFException("Connection closed inside a probe message");
+        }
+        return -1;
+      }
+      lastHeard = System.currentTimeMillis();
+      return count;
+    }
+
+    /**
+     * Removes escapes and control messages in place and returns the number
+     * of data bytes left at the offset.
+     */
+    private int decode(byte[] buffer, int offset, int length) throws ProtocolException {
+      int end = offset + length;
+      int data = offset;
+      for (int i = offset; i < end; i++) {
+        int value = buffer[i] & 0xff;
+        if (controlRemaining > 0) {
+          controlValue = (controlValue << 8) | value;
+          if (--controlRemaining == 0) {
+            onControl(controlType, controlValue);
+          }
+        } else if (escaped) {
+          escaped = false;
+          if (value == ESCAPED_DATA) {
+            buffer[data++] = (byte) ESCAPE;
+          } else if (value == CONTROL_PING || value == CONTROL_PONG) {
+            controlType = value;
+            controlValue = 0;
+            controlRemaining = 8;
+          } else {
+            throw new ProtocolException("Unknown probe message");
+          }
+        } else if (value == ESCAPE) {
+          escaped = true;
+        } else {
+          buffer[data++] = buffer[i];
+        }
+      }
+
+      int count = data - offset;
+      payloadReceived.addAndGet(count);
+      return count;
+    }
+  }
+
+  private class ProbeOutputStream extends OutputStream {
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      writeLock.lock();
+      try {
+        writeEscaped(buffer, offset, length);
+      } finally {
+        writeLock.unlock();
+        sendPendingControl();
+      }
+      payloadSent.addAndGet(length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      writeLock.lock();
+      try {
+        out.flush();
+      } finally {
+        writeLock.unlock();
+        sendPendingControl();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      ProbedSocket.this.close();
+    }
+
+    /**
+     * Writes the data as it is when it holds no escape byte, otherwise
+     * through the scratch buffer with every escape byte doubled up.
+     */
+    private void writeEscaped(byte[] buffer, int offset, int length) throws IOException {
+      int end = offset + length;
+      int first = offset;
+      while (first < end && (buffer[first] & 0xff) != ESCAPE) {
+        first++;
+      }
+      if (first == end) {
+        out.write(buffer, offset, length);
+        return;
+      }
+
+      out.write(buffer, offset, first - offset);
+      int filled = 0;
+      for (int i = first; i < end; i++) {
+        if (filled >= SCRATCH_SIZE - 1) {
+          out.write(scratch, 0, filled);
+          filled = 0;
+        }
+        scratch[filled++] = buffer[i];
+        if ((buffer[i] & 0xff) == ESCAPE) {
+          scratch[filled++] = (byte) ESCAPED_DATA;
+        }
+      }
+      out.write(scratch, 0, filled);
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package capital.spatium.plugin;
+
+import org.json.JSONObject;
+
+/**
+ * Per-connection receive settings: chunk size bounds, the window during
+ * which small reads are coalesced, and adaptive growth of the read buffer.
+ */
+class ReceivePolicy {
+  static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+  private volatile int minChunkSize = 1;
+  private volatile int maxChunkSize = 64 * 1024;
+  private volatile long maxDelayMs = 0;
+  private volatile boolean adaptive = true;
+
+  int getMinChunkSize() {
+    return minChunkSize;
+  }
+
+  int getMaxChunkSize() {
+    return maxChunkSize;
+  }
+
+  long getMaxDelayMs() {
+    return maxDelayMs;
+  }
+
+  boolean isAdaptive() {
+    return adaptive;
+  }
+
+  int getInitialBufferSize() {
+    return Math.max(minChunkSize, Math.min(DEFAULT_BUFFER_SIZE, maxChunkSize));
+  }
+
+  synchronized void update(JSONObject options) {
+    int max = Math.max(1, options.optInt("receiveMaxChunkSize", maxChunkSize));
+    int min = Math.max(1, Math.min(max, options.optInt("receiveMinChunkSize", minChunkSize)));
+    maxChunkSize = max;
+    minChunkSize = min;
+    maxDelayMs = Math.max(0, options.optLong("receiveMaxDelayMs", maxDelayMs));
+    adaptive = options.optBoolean("receiveAdaptive", adaptive);
+  }
+}
@@ -0,0 +1,165 @@
+package capital.spatium.plugin;
+
+import java.util.ArrayDeque;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Bounded queue between the read loop of a connection and its listener.
+ * While the connection is paused received data is held here, and once the
+ * queue is full the read loop stops reading so the transport pushes back on
+ * the peer. Resuming delivers the held data in order before anything read
+ * after it.
+ */
+class ReceiveQueue {
+  static final long DEFAULT_LIMIT = 1024 * 1024;
+
+  private final Connection connection;
+  private final ArrayDeque<byte[]> queue = new ArrayDeque<byte[]>();
+
+  private long limit = DEFAULT_LIMIT;
+  private long queuedBytes = 0;
+  private boolean paused = false;
+  private boolean flushing = false;
+  private boolean closed = false;
+
+  private long pausedSince = 0;
+  private long pausedTimeMs = 0;
+  private long blockedTimeMs = 0;
+  private long pauses = 0;
+  private long maxQueuedBytes = 0;
+  private int maxQueuedChunks = 0;
+
+  ReceiveQueue(Connection connection) {
+    this.connection = connection;
+  }
+
+  synchronized void setLimit(long limit) {
+    this.limit = Math.max(1, limit);
+    notifyAll();
+  }
+
+  synchronized long getLimit() {
+    return limit;
+  }
+
+  synchronized boolean isPaused() {
+    return paused;
+  }
+
+  synchronized void pause() {
+    if (paused) {
+      return;
+    }
+    paused = true;
+    pausedSince = System.currentTimeMillis();
+    pauses++;
+  }
+
+  /**
+   * Delivers the held data to the listener on the calling thread and lets
+   * the read loop carry on.
+   */
+  void resume(SocketReader.Listener listener) {
+    synchronized (this) {
+      if (!paused) {
+        return;
+      }
+      paused = false;
+      pausedTimeMs += System.currentTimeMillis() - pausedSince;
+      notifyAll();
+    }
+    flush(listener);
+  }
+
+  /**
+   * Hands the data to the listener, or holds it while paused or while held
+   * data is still being delivered.
+   */
+  void offer(byte[] data, SocketReader.Listener listener) {
+    synchronized (this) {
+      if (paused || flushing || !queue.isEmpty()) {
+        queue.add(data);
+        queuedBytes += data.length;
+        maxQueuedBytes = Math.max(maxQueuedBytes, queuedBytes);
+        maxQueuedChunks = Math.max(maxQueuedChunks, queue.size());
+        return;
+      }
+    }
+    listener.onData(connection, data);
+  }
+
+  /**
+   * Blocks the read loop while the queue is full, either paused or still
+   * being delivered after a resume. Returns early when the queue is closed.
+   */
+  synchronized void awaitSpace() throws InterruptedException {
+    if (queuedBytes < limit || closed) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    while (queuedBytes >= limit && !closed) {
+      wait();
+    }
+    blockedTimeMs += System.currentTimeMillis() - start;
+  }
+
+  /**
+   * Wakes a blocked read loop for good, such as when the connection closes.
+   */
+  synchronized void close() {
+    closed = true;
+    notifyAll();
+  }
+
+  /**
+   * Delivers everything held regardless of pausing, so that no data is lost
+   * when the read loop ends.
+   */
+  void drain(SocketReader.Listener listener) {
+    synchronized (this) {
+      if (paused) {
+        paused = false;
+        pausedTimeMs += System.currentTimeMillis() - pausedSince;
+      }
+    }
+    flush(listener);
+  }
+
+  synchronized JSONObject getStats() throws JSONException {
+    JSONObject stats = new JSONObject();
+    stats.put("paused", paused);
+    stats.put("limit", limit);
+    stats.put("queuedBytes", queuedBytes);
+    stats.put("queuedChunks", queue.size());
+    stats.put("maxQueuedBytes", maxQueuedBytes);
+    stats.put("maxQueuedChunks", maxQueuedChunks);
+    stats.put("pauses", pauses);
+    stats.put("pausedTime", pausedTimeMs + (paused ? System.currentTimeMillis() - pausedSince : 0));
+    stats.put("blockedTime", blockedTimeMs);
+    return stats;
+  }
+
+  private void flush(SocketReader.Listener listener) {
+    synchronized (this) {
+      if (flushing) {
+        return;
+      }
+      flushing = true;
+    }
+
+    while (true) {
+      byte[] data;
+      synchronized (this) {
+        data = paused ? null : queue.poll();
+        if (data == null) {
+          flushing = false;
+          return;
+        }
+        queuedBytes -= data.length;
+        notifyAll();
+      }
+      listener.onData(connection, data);
+    }
+  }
+}
@@ -0,0 +1,859 @@
+package capital.spatium.plugin;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Session that outlives the transport link it runs on. Outbound data is kept
+ * in a bounded replay buffer until the peer acknowledges it, and when the
+ * link drops without a close from the peer the client dials again with
+ * backoff on the given executor while the server waits for it to come back.
+ * Reads and writes only wait for the new link. Both sides then tell
+ * each other how much they received and replay the rest, so the streams on
+ * top carry on as if nothing happened. Writes block while the replay buffer
+ * is full.
+ */
+class ResilientSocket implements TransportSocket {
+  interface Dialer {
+    TransportSocket dial() throws IOException;
+
+    void cancel();
+  }
+
+  interface Listener {
+    void onLinkLost(ResilientSocket socket);
+
+    void onLinkRestored(ResilientSocket socket, long latencyMs, long bytesReplayed);
+  }
+
+  static final int DEFAULT_REPLAY_BUFFER = 256 * 1024;
+  static final long DEFAULT_RECONNECT_TIMEOUT_MS = 30 * 1000;
+  private static final long RETRY_MS = 500;
+  private static final long MAX_RETRY_MS = 8000;
+  private static final long CLOSE_TIMEOUT_MS = 1000;
+
+  private static final int ACK_INTERVAL = 16 * 1024;
+  private static final int MIN_REPLAY_BUFFER = 4 * ACK_INTERVAL;
+  private static final int MAX_DATA_FRAME = 32 * 1024;
+
+  private static final int HANDSHAKE_MAGIC = 0xb0;
+  private static final int HANDSHAKE_MAGIC_MASK = 0xf0;
+  private static final int HELLO_NEW = 0;
+  private static final int HELLO_RESUME = 1;
+  private static final int STATUS_OK = 0;
+  private static final int STATUS_UNKNOWN_SESSION = 1;
+
+  private static final int FRAME_DATA = 1;
+  private static final int FRAME_ACK = 2;
+  private static final int FRAME_CLOSE = 3;
+
+  private final UUID sessionId;
+  private final Dialer dialer;
+  private final Executor dialExecutor;
+  private final ConcurrentHashMap<String, ResilientSocket> sessions;
+  private final Listener listener;
+  private final long reconnectTimeoutMs;
+  private final String remoteName;
+  private final String remoteAddress;
+
+  private final byte[] replay;
+  private long sentBytes = 0;
+  private long flushedBytes = 0;
+  private long ackedBytes = 0;
+  private long receivedBytes = 0;
+
+  private Link link;
+  private TransportSocket dialing = null;
+  private boolean closed = false;
+  private boolean failed = false;
+  private boolean remoteClosed = false;
+  private long lostAt = 0;
+  private long linkUpAtNanos = System.nanoTime();
+
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final byte[] header = new byte[9];
+  private volatile boolean ackPending = false;
+
+  private long reconnects = 0;
+  private long reconnectAttempts = 0;
+  private long bytesReplayed = 0;
+  private final Histogram reconnectLatency = new Histogram();
+
+  private final InputStream inputStream = new ResilientInputStream();
+  private final OutputStream outputStream = new ResilientOutputStream();
+
+  private ResilientSocket(UUID sessionId, Link link, JSONObject options, Dialer dialer, Executor dialExecutor,
+                         ConcurrentHashMap<String, ResilientSocket> sessions, Listener listener) {
+    this.sessionId = sessionId;
+    this.link = link;
+    this.dialer = dialer;
+    this.dialExecutor = dialExecutor;
+    this.sessions = sessions;
+    this.listener = listener;
+    this.remoteName = link.socket.getRemoteName();
+    this.remoteAddress = link.socket.getRemoteAddress();
+    this.reconnectTimeoutMs = Math.max(0, options.optLong("reconnectTimeout", DEFAULT_RECONNECT_TIMEOUT_MS));
+    this.replay = new byte[Math.max(MIN_REPLAY_BUFFER, options.optInt("replayBuffer", DEFAULT_REPLAY_BUFFER))];
+  }
+
+  static boolean isEnabled(JSONObject options) {
+    return options != null && options.optBoolean("resilient", false);
+  }
+
+  /**
+   * Starts a new session on a freshly connected client socket. The dialer is
+   * run on the executor to reach the server again when the link drops.
+   */
+  static ResilientSocket connect(TransportSocket socket, JSONObject options, Dialer dialer, Executor dialExecutor,
+                                 Listener listener) throws IOException {
+    UUID sessionId = UUID.randomUUID();
+    Link link = new Link(socket);
+    writeHello(link.out, HELLO_NEW, sessionId, 0);
+    readReply(link.in);
+    return new ResilientSocket(sessionId, link, options, dialer, dialExecutor, null, listener);
+  }
+
+  /**
+   * Reads the hello of an accepted client. Returns the new session, or null
+   * if the client resumed a session that has taken over the socket. A session
+   * only resumes from the device that started it.
+   */
+  static ResilientSocket accept(TransportSocket socket, JSONObject options,
+                                ConcurrentHashMap<String, ResilientSocket> sessions, Listener listener) throws IOException {
+    Link link = new Link(socket);
+    int hello = link.in.read();
+    if (hello < 0) {
+      throw new EOFException("Connection closed during session handshake");
+    }
+    if ((hello & HANDSHAKE_MAGIC_MASK) != HANDSHAKE_MAGIC) {
+      throw new ProtocolException("Peer does not support session resumption");
+    }
+    UUID sessionId = new UUID(readLong(link.in), readLong(link.in));
+    long peerReceived = readLong(link.in);
+
+    if ((hello & ~HANDSHAKE_MAGIC_MASK) == HELLO_RESUME) {
+      ResilientSocket session = sessions.get(sessionId.toString());
+      if (session == null || !isSameAddress(session.remoteAddress, socket.getRemoteAddress())) {
+        writeReply(link.out, STATUS_UNKNOWN_SESSION, 0);
+        throw new ProtocolException("Unknown session");
+      }
+      session.resume(link, peerReceived);
+      return null;
+    }
+
+    ResilientSocket session = new ResilientSocket(sessionId, link, options, null, null, sessions, listener);
+    if (sessions.putIfAbsent(sessionId.toString(), session) != null) {
+      throw new ProtocolException("Duplicate session");
+    }
+    writeReply(link.out, STATUS_OK, 0);
+    return session;
+  }
+
+  private static boolean isSameAddress(String address, String other) {
+    return address == null ? other == null : address.equals(other);
+  }
+
+  synchronized boolean isLinkUp() {
+    return link != null && !closed && !failed;
+  }
+
+  /**
+   * Tells whether the current link has been up since the given
+   * System.nanoTime(), with no reconnect in between.
+   */
+  synchronized boolean isLinkUpSince(long nanoTime) {
+    return link != null && nanoTime - linkUpAtNanos >= 0;
+  }
+
+  String getSessionId() {
+    return sessionId.toString();
+  }
+
+  synchronized JSONObject getStats() throws JSONException {
+    JSONObject stats = new JSONObject();
+    stats.put("sessionId", sessionId.toString());
+    stats.put("role", dialer != null ? "client" : "server");
+    stats.put("state", closed || failed ? "closed" : link == null ? "reconnecting" : "connected");
+    stats.put("reconnects", reconnects);
+    stats.put("reconnectAttempts", reconnectAttempts);
+    stats.put("reconnectLatency", reconnectLatency.toJSON());
+    stats.put("bytesReplayed", bytesReplayed);
+    stats.put("unacknowledged", sentBytes - ackedBytes);
+    stats.put("replayBuffer", replay.length);
+    return stats;
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return inputStream;
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return outputStream;
+  }
+
+  @Override
+  public String getRemoteName() {
+    return remoteName;
+  }
+
+  @Override
+  public String getRemoteAddress() {
+    return remoteAddress;
+  }
+
+  /**
+   * Ends the session. The peer is told so when the link is up, otherwise it
+   * finds out when it fails to resume.
+   */
+  @Override
+  public void close() throws IOException {
+    Link current;
+    TransportSocket pending;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      current = link;
+      pending = dialing;
+      notifyAll();
+    }
+
+    if (sessions != null) {
+      sessions.remove(sessionId.toString(), this);
+    }
+    if (dialer != null) {
+      dialer.cancel();
+    }
+    if (pending != null) {
+      closeQuietly(pending);
+    }
+    if (current == null) {
+      return;
+    }
+    boolean locked;
+    try {
+      locked = writeLock.tryLock(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      locked = false;
+    }
+    if (locked) {
+      try {
+        current.out.write(FRAME_CLOSE);
+        current.out.flush();
+      } catch (IOException ignored) {
+      } finally {
+        writeLock.unlock();
+      }
+    }
+    current.socket.close();
+  }
+
+  /**
+   * Closes the current link as if it had dropped, so the session recovers
+   * on a new one. Returns false once the session is over.
+   */
+  boolean dropLink() {
+    Link current;
+    synchronized (this) {
+      if (closed || failed || remoteClosed) {
+        return false;
+      }
+      current = link;
+    }
+    if (current != null) {
+      closeQuietly(current.socket);
+    }
+    return true;
+  }
+
+  /**
+   * Takes over the link of a client that reconnected, replacing the current
+   * one if the loss has not been noticed yet. The old link is closed before
+   * taking the write lock, so a writer blocked on it fails and lets go.
+   */
+  private void resume(Link newLink, long peerReceived) throws IOException {
+    long replayed;
+    long latency;
+    Link old;
+    synchronized (this) {
+      if (closed || failed) {
+        writeReply(newLink.out, STATUS_UNKNOWN_SESSION, 0);
+        throw new ProtocolException("Unknown session");
+      }
+      if (peerReceived < ackedBytes || peerReceived > sentBytes) {
+        throw new ProtocolException("Cannot resume session");
+      }
+      old = link;
+      if (old != null) {
+        link = null;
+        lostAt = System.currentTimeMillis();
+      }
+      latency = old == null ? System.currentTimeMillis() - lostAt : 0;
+    }
+    if (old != null) {
+      closeQuietly(old.socket);
+    }
+
+    writeLock.lock();
+    try {
+      long received;
+      synchronized (this) {
+        if (closed || failed) {
+          writeReply(newLink.out, STATUS_UNKNOWN_SESSION, 0);
+          throw new ProtocolException("Unknown session");
+        }
+        if (peerReceived < ackedBytes || peerReceived > sentBytes) {
+          throw new ProtocolException("Cannot resume session");
+        }
+        link = newLink;
+        linkUpAtNanos = System.nanoTime();
+        received = receivedBytes;
+        ackedBytes = peerReceived;
+        flushedBytes = peerReceived;
+        notifyAll();
+      }
+
+      writeReply(newLink.out, STATUS_OK, received);
+      replayed = flushTo(newLink);
+    } finally {
+      writeLock.unlock();
+      sendPendingAck();
+    }
+    restored(latency, replayed);
+  }
+
+  /**
+   * Called by the read or write path when the link fails. Returns the link
+   * to carry on with once it is back, or throws if the session could not be
+   * resumed in time. A null link only waits for a recovery in progress.
+   * The client redials on the dial executor, never on the calling thread.
+   */
+  private Link recover(Link failedLink) throws IOException {
+    boolean lost = false;
+    synchronized (this) {
+      if (failedLink != null && link == failedLink && !closed) {
+        link = null;
+        lostAt = System.currentTimeMillis();
+        lost = true;
+      }
+    }
+
+    if (lost) {
+      closeQuietly(failedLink.socket);
+      listener.onLinkLost(this);
+      if (dialer != null) {
+        try {
+          dialExecutor.execute(redialTask);
+        } catch (RejectedExecutionException e) {
+          synchronized (this) {
+            fail();
+          }
+        }
+      }
+    }
+    return awaitLink();
+  }
+
+  private final Runnable redialTask = new Runnable() {
+    @Override
+    public void run() {
+      redial();
+    }
+  };
+
+  private synchronized Link awaitLink() throws IOException {
+    long deadline = lostAt + reconnectTimeoutMs;
+    while (link == null && !closed && !failed) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        fail();
+        break;
+      }
+      try {
+        wait(remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Reconnect interrupted");
+      }
+    }
+    if (closed) {
+      throw new IOException("Socket closed");
+    }
+    if (failed) {
+      throw new IOException("Link lost");
+    }
+    return link;
+  }
+
+  private void redial() {
+    long delay = RETRY_MS;
+    long deadline;
+    synchronized (this) {
+      deadline = lostAt + reconnectTimeoutMs;
+    }
+
+    while (true) {
+      synchronized (this) {
+        if (closed || failed || System.currentTimeMillis() >= deadline) {
+          return;
+        }
+        reconnectAttempts++;
+      }
+
+      try {
+        TransportSocket socket = dialer.dial();
+        if (resumeOn(socket)) {
+          return;
+        }
+      } catch (ProtocolException e) {
+        synchronized (this) {
+          fail();
+        }
+        return;
+      } catch (IOException ignored) {}
+
+      synchronized (this) {
+        long wait = Math.min(delay, deadline - System.currentTimeMillis());
+        try {
+          if (wait > 0 && !closed) {
+            wait(wait);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          fail();
+          return;
+        }
+      }
+      delay = Math.min(MAX_RETRY_MS, delay * 2);
+    }
+  }
+
+  /**
+   * Runs the resume handshake on a redialled socket and switches over to it.
+   * Returns false, with the socket closed, if the session was closed
+   * meanwhile.
+   */
+  private boolean resumeOn(TransportSocket socket) throws IOException {
+    Link candidate;
+    long replayed;
+    long latency;
+    writeLock.lock();
+    try {
+      long received;
+      synchronized (this) {
+        if (closed) {
+          closeQuietly(socket);
+          return false;
+        }
+        dialing = socket;
+        received = receivedBytes;
+      }
+
+      long peerReceived;
+      try {
+        candidate = new Link(socket);
+        writeHello(candidate.out, HELLO_RESUME, sessionId, received);
+        peerReceived = readReply(candidate.in);
+      } catch (IOException e) {
+        closeQuietly(socket);
+        throw e;
+      } finally {
+        synchronized (this) {
+          dialing = null;
+        }
+      }
+
+      synchronized (this) {
+        if (closed) {
+          closeQuietly(socket);
+          return false;
+        }
+        if (peerReceived < ackedBytes || peerReceived > sentBytes) {
+          closeQuietly(socket);
+          throw new ProtocolException("Cannot resume session");
+        }
+        latency = System.currentTimeMillis() - lostAt;
+        link = candidate;
+        linkUpAtNanos = System.nanoTime();
+        ackedBytes = peerReceived;
+        flushedBytes = peerReceived;
+        notifyAll();
+      }
+      replayed = flushTo(candidate);
+    } finally {
+      writeLock.unlock();
+      sendPendingAck();
+    }
+    restored(latency, replayed);
+    return true;
+  }
+
+  private void restored(long latencyMs, long replayed) {
+    synchronized (this) {
+      reconnects++;
+      bytesReplayed += replayed;
+      reconnectLatency.record(latencyMs);
+    }
+    listener.onLinkRestored(this, latencyMs, replayed);
+  }
+
+  private void fail() {
+    failed = true;
+    notifyAll();
+    if (sessions != null) {
+      sessions.remove(sessionId.toString(), this);
+    }
+  }
+
+  /**
+   * Writes everything appended but not yet sent on the link, as data frames
+   * straight from the replay buffer, and returns the number of bytes. The
+   * caller holds the write lock.
+   */
+  private long flushTo(Link target) throws IOException {
+    long from;
+    long to;
+    synchronized (this) {
+      if (link != target) {
+        return 0;
+      }
+      from = flushedBytes;
+      to = sentBytes;
+    }
+    if (from == to) {
+      return 0;
+    }
+
+    long position = from;
+    while (position < to) {
+      int offset = (int) (position % replay.length);
+      int length = (int) Math.min(Math.min(to - position, MAX_DATA_FRAME), replay.length - offset);
+      header[0] = FRAME_DATA;
+      int headerLength = FrameCodec.writeVarint(header, 1, length);
+      target.out.write(header, 0, headerLength);
+      target.out.write(replay, offset, length);
+      position += length;
+    }
+    target.out.flush();
+
+    synchronized (this) {
+      if (link == target) {
+        flushedBytes = Math.max(flushedBytes, to);
+      }
+    }
+    return to - from;
+  }
+
+  /**
+   * Sends the acknowledgement the read path asked for, unless another thread
+   * holds the write lock; that thread calls this again once it lets go.
+   */
+  private void sendPendingAck() {
+    while (ackPending && writeLock.tryLock()) {
+      try {
+        if (!ackPending) {
+          continue;
+        }
+        ackPending = false;
+
+        Link current;
+        long received;
+        synchronized (this) {
+          current = link;
+          received = receivedBytes;
+        }
+        if (current == null) {
+          continue;
+        }
+        header[0] = FRAME_ACK;
+        writeLong(header, 1, received);
+        current.out.write(header, 0, 9);
+        current.out.flush();
+      } catch (IOException ignored) {
+      } finally {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  private class ResilientInputStream extends InputStream {
+    private Link readLink = null;
+    private int dataRemaining = 0;
+    private long unacknowledged = 0;
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      int count = read(single, 0, 1);
+      return count < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+
+      while (true) {
+        Link current;
+        synchronized (ResilientSocket.this) {
+          if (remoteClosed) {
+            return -1;
+          }
+          if (closed) {
+            throw new IOException("Socket closed");
+          }
+          current = link;
+        }
+        if (current == null) {
+          recover(null);
+          continue;
+        }
+        if (current != readLink) {
+          readLink = current;
+          dataRemaining = 0;
+        }
+
+        try {
+          if (dataRemaining == 0) {
+            if (readFrameHeader(current)) {
+              return -1;
+            }
+            continue;
+          }
+
+          int count = current.in.read(buffer, offset, Math.min(length, dataRemaining));
+          if (count < 0) {
+            throw new EOFException();
+          }
+          synchronized (ResilientSocket.this) {
+            if (link != current) {
+              continue;
+            }
+            receivedBytes += count;
+          }
+          dataRemaining -= count;
+          unacknowledged += count;
+          if (unacknowledged >= ACK_INTERVAL) {
+            unacknowledged = 0;
+            ackPending = true;
+            sendPendingAck();
+          }
+          return count;
+        } catch (ProtocolException e) {
+          throw e;
+        } catch (IOException e) {
+          recover(current);
+        }
+      }
+    }
+
+    /**
+     * Handles one control frame or the start of a data frame. Returns true
+     * when the peer closed the session.
+     */
+    private boolean readFrameHeader(Link current) throws IOException {
+      int type = current.in.read();
+      if (type < 0) {
+        throw new EOFException();
+      }
+
+      if (type == FRAME_DATA) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+          int next = current.in.read();
+          if (next < 0) {
+            throw new EOFException();
+          }
+          if (shift > 28) {
+            throw new ProtocolException("Invalid frame length");
+          }
+          length |= (next & 0x7f) << shift;
+          if ((next & 0x80) == 0) {
+            break;
+          }
+        }
+        if (length <= 0 || length > MAX_DATA_FRAME) {
+          throw new ProtocolException("Invalid frame length");
+        }
+        dataRemaining = length;
+        return false;
+      }
+      if (type == FRAME_ACK) {
+        long acked = readLong(current.in);
+        synchronized (ResilientSocket.this) {
+          if (link == current && acked > ackedBytes && acked <= sentBytes) {
+            ackedBytes = acked;
+            ResilientSocket.this.notifyAll();
+          }
+        }
+        return false;
+      }
+      if (type == FRAME_CLOSE) {
+        synchronized (ResilientSocket.this) {
+          remoteClosed = true;
+        }
+        if (sessions != null) {
+          sessions.remove(sessionId.toString(), ResilientSocket.this);
+        }
+        return true;
+      }
+      throw new ProtocolException("Unknown session frame");
+    }
+  }
+
+  private class ResilientOutputStream extends OutputStream {
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      while (length > 0) {
+        int count;
+        synchronized (ResilientSocket.this) {
+          while (!closed && !failed && sentBytes - ackedBytes >= replay.length) {
+            try {
+              ResilientSocket.this.wait();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new IOException("Write interrupted");
+            }
+          }
+          if (closed) {
+            throw new IOException("Socket closed");
+          }
+          if (failed) {
+            throw new IOException("Link lost");
+          }
+
+          count = (int) Math.min(length, replay.length - (sentBytes - ackedBytes));
+          int position = (int) (sentBytes % replay.length);
+          int first = Math.min(count, replay.length - position);
+          System.arraycopy(buffer, offset, replay, position, first);
+          System.arraycopy(buffer, offset + first, replay, 0, count - first);
+          sentBytes += count;
+        }
+        send();
+        offset += count;
+        length -= count;
+      }
+    }
+
+    /**
+     * Sends what has been appended, recovering the link as often as it
+     * takes. Data appended before a recovery is replayed by it.
+     */
+    private void send() throws IOException {
+      Link current;
+      synchronized (ResilientSocket.this) {
+        current = link;
+      }
+
+      while (true) {
+        if (current == null) {
+          current = recover(null);
+          continue;
+        }
+
+        writeLock.lock();
+        try {
+          flushTo(current);
+          return;
+        } catch (IOException ignored) {
+        } finally {
+          writeLock.unlock();
+          sendPendingAck();
+        }
+        current = recover(current);
+      }
+    }
+  }
+
+  private static class Link {
+    private final TransportSocket socket;
+    private final InputStream in;
+    private final OutputStream out;
+
+    Link(TransportSocket socket) throws IOException {
+      this.socket = socket;
+      this.in = socket.getInputStream();
+      this.out = socket.getOutputStream();
+    }
+  }
+
+  private static void writeHello(OutputStream out, int type, UUID sessionId, long received) throws IOException {
+    byte[] hello = new byte[25];
+    hello[0] = (byte) (HANDSHAKE_MAGIC | type);
+    writeLong(hello, 1, sessionId.getMostSignificantBits());
+    writeLong(hello, 9, sessionId.getLeastSignificantBits());
+    writeLong(hello, 17, received);
+    out.write(hello);
+    out.flush();
+  }
+
+  private static void writeReply(OutputStream out, int status, long received) throws IOException {
+    byte[] reply = new byte[9];
+    reply[0] = (byte) (HANDSHAKE_MAGIC | status);
+    writeLong(reply, 1, received);
+    out.write(reply);
+    out.flush();
+  }
+
+  private static long readReply(InputStream in) throws IOException {
+    int reply = in.read();
+    if (reply < 0) {
+      throw new EOFException("Connection closed during session handshake");
+    }
+    if ((reply & HANDSHAKE_MAGIC_MASK) != HANDSHAKE_MAGIC) {
+      throw new ProtocolException("Peer does not support session resumption");
+    }
+    long received = readLong(in);
+    if ((reply & ~HANDSHAKE_MAGIC_MASK) != STATUS_OK) {
+      throw new ProtocolException("Unknown session");
+    }
+    return received;
+  }
+
+  private static void writeLong(byte[] buffer, int offset, long value) {
+    for (int i = 7; i >= 0; i--) {
+      buffer[offset + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  private static long readLong(InputStream in) throws IOException {
+    long value = 0;
+    for (int i = 0; i < 8; i++) {
+      int next = in.read();
+      if (next < 0) {
+        throw new EOFException();
+      }
+      value = (value << 8) | next;
+    }
+    return value;
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException ignored) {}
+  }
+}
@@ -0,0 +1,248 @@
+package capital.spatium.plugin;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Admission control for the clients of one server socket. Up to maxClients
+ * clients are served at once, counting those still in their handshake.
+ * Clients accepted beyond that wait in a bounded queue for a free slot, or
+ * are rejected by closing their socket. When the queue is full the
+ * rejection policy picks whether the newest or the oldest client goes.
+ */
+class ServerHub {
+  interface Listener {
+    /**
+     * Called when a client gets a slot; the caller must follow up with
+     * onConnected or onFailed.
+     */
+    void onAdmitted(ServerHub hub, TransportSocket socket, long acceptTime);
+  }
+
+  static final String REJECT_NEWEST = "newest";
+  static final String REJECT_OLDEST = "oldest";
+  static final long DEFAULT_QUEUE_TIMEOUT_MS = 10 * 1000;
+
+  private final String serverSocketKey;
+  private final IoScheduler scheduler;
+  private final Listener listener;
+
+  private final int maxClients;
+  private final int queueSize;
+  private final long queueTimeoutMs;
+  private final boolean rejectOldest;
+
+  private final Set<Connection> clients = new HashSet<Connection>();
+  private final ArrayDeque<Pending> queue = new ArrayDeque<Pending>();
+  private int admitting = 0;
+
+  private long accepted = 0;
+  private long rejected = 0;
+  private long failed = 0;
+  private long restarts = 0;
+  private long resumed = 0;
+  private final Histogram acceptLatency = new Histogram();
+
+  ServerHub(String serverSocketKey, JSONObject options, IoScheduler scheduler, Listener listener) {
+    this.serverSocketKey = serverSocketKey;
+    this.scheduler = scheduler;
+    this.listener = listener;
+
+    if (options == null) {
+      options = new JSONObject();
+    }
+    this.maxClients = Math.max(0, options.optInt("maxClients", 0));
+    this.queueSize = Math.max(0, options.optInt("acceptQueue", 0));
+    this.queueTimeoutMs = Math.max(0, options.optLong("acceptQueueTimeout", DEFAULT_QUEUE_TIMEOUT_MS));
+    this.rejectOldest = REJECT_OLDEST.equals(options.optString("rejectPolicy", REJECT_NEWEST));
+  }
+
+  String getServerSocketKey() {
+    return serverSocketKey;
+  }
+
+  /**
+   * Takes a freshly accepted client socket and admits, queues or rejects it.
+   */
+  void offer(TransportSocket socket) {
+    long now = System.currentTimeMillis();
+    Pending dropped = null;
+    boolean admit = false;
+
+    synchronized (this) {
+      if (maxClients == 0 || getActive() < maxClients) {
+        admitting++;
+        admit = true;
+      } else if (queue.size() < queueSize) {
+        enqueue(new Pending(socket, now));
+      } else if (rejectOldest && !queue.isEmpty()) {
+        dropped = queue.poll();
+        dropped.cancelTimeout();
+        rejected++;
+        enqueue(new Pending(socket, now));
+      } else {
+        rejected++;
+        dropped = new Pending(socket, now);
+      }
+    }
+
+    if (dropped != null) {
+      closeQuietly(dropped.socket);
+    }
+    if (admit) {
+      listener.onAdmitted(this, socket, now);
+    }
+  }
+
+  synchronized void onConnected(Connection connection, long acceptTime) {
+    admitting--;
+    clients.add(connection);
+    accepted++;
+    acceptLatency.record(System.currentTimeMillis() - acceptTime);
+  }
+
+  void onFailed() {
+    synchronized (this) {
+      admitting--;
+      failed++;
+    }
+    admitNext();
+  }
+
+  /**
+   * Frees the slot of a client that has closed. Does nothing for connections
+   * that are not clients of this server.
+   */
+  void onClosed(Connection connection) {
+    synchronized (this) {
+      if (!clients.remove(connection)) {
+        return;
+      }
+    }
+    admitNext();
+  }
+
+  /**
+   * Frees the slot of an admitted client that turned out to resume an
+   * existing session rather than open a new connection.
+   */
+  void onResumed() {
+    synchronized (this) {
+      admitting--;
+      resumed++;
+    }
+    admitNext();
+  }
+
+  synchronized void recordRestart() {
+    restarts++;
+  }
+
+  /**
+   * Rejects the clients still waiting in the queue. Connected clients stay
+   * open.
+   */
+  void close() {
+    List<Pending> pending;
+    synchronized (this) {
+      pending = new ArrayList<Pending>(queue);
+      rejected += queue.size();
+      queue.clear();
+    }
+    for (Pending client : pending) {
+      client.cancelTimeout();
+      closeQuietly(client.socket);
+    }
+  }
+
+  synchronized JSONObject getStats() throws JSONException {
+    JSONObject stats = new JSONObject();
+    stats.put("serverSocketKey", serverSocketKey);
+    stats.put("maxClients", maxClients);
+    stats.put("active", getActive());
+    stats.put("queued", queue.size());
+    stats.put("accepted", accepted);
+    stats.put("rejected", rejected);
+    stats.put("failed", failed);
+    stats.put("restarts", restarts);
+    stats.put("resumed", resumed);
+    stats.put("acceptLatency", acceptLatency.toJSON());
+    return stats;
+  }
+
+  private int getActive() {
+    return clients.size() + admitting;
+  }
+
+  private void enqueue(Pending pending) {
+    queue.add(pending);
+    if (queueTimeoutMs > 0) {
+      try {
+        pending.timeout = scheduler.schedule(pending.timeoutTask, queueTimeoutMs);
+      } catch (RejectedExecutionException ignored) {}
+    }
+  }
+
+  private void admitNext() {
+    Pending next = null;
+    synchronized (this) {
+      if (maxClients == 0 || getActive() < maxClients) {
+        next = queue.poll();
+      }
+      if (next == null) {
+        return;
+      }
+      next.cancelTimeout();
+      admitting++;
+    }
+    listener.onAdmitted(this, next.socket, next.acceptTime);
+  }
+
+  private void expire(Pending pending) {
+    synchronized (this) {
+      if (!queue.remove(pending)) {
+        return;
+      }
+      rejected++;
+    }
+    closeQuietly(pending.socket);
+  }
+
+  private static void closeQuietly(TransportSocket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignored) {}
+  }
+
+  private class Pending {
+    private final TransportSocket socket;
+    private final long acceptTime;
+    private ScheduledFuture<?> timeout = null;
+
+    Pending(TransportSocket socket, long acceptTime) {
+      this.socket = socket;
+      this.acceptTime = acceptTime;
+    }
+
+    void cancelTimeout() {
+      if (timeout != null) {
+        timeout.cancel(false);
+      }
+    }
+
+    private final Runnable timeoutTask = new Runnable() {
+      @Override
+      public void run() {
+        expire(Pending.this);
+      }
+    };
+  }
+}
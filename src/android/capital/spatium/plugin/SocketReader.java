@@ -0,0 +1,215 @@
+package capital.spatium.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.util.Arrays;
+
+/**
+ * Read loop of a single connection. Applies the connection's receive policy:
+ * reads shorter than the minimum chunk size are coalesced for up to the
+ * configured delay, and the buffer grows while reads keep filling it. With
+ * framing enabled only whole frames are delivered. While a file is being
+ * received, data goes to the file instead of the listener, and while the
+ * connection is paused it is held in the receive queue.
+ */
+class SocketReader implements Runnable {
+  interface Listener {
+    void onData(Connection connection, byte[] data);
+
+    void onClosed(Connection connection, boolean hasError);
+  }
+
+  private static final long POLL_INTERVAL_MS = 2;
+  private static final int GROW_AFTER_FULL_READS = 2;
+  private static final int SHRINK_AFTER_SMALL_READS = 16;
+
+  private final Connection connection;
+  private final Listener listener;
+
+  private FrameCodec.Decoder frameDecoder = null;
+  private boolean hasError = false;
+  private byte[] buffer = null;
+  private int bufferSize;
+  private int fullReads = 0;
+  private int smallReads = 0;
+
+  SocketReader(Connection connection, Listener listener) {
+    this.connection = connection;
+    this.listener = listener;
+  }
+
+  @Override
+  public void run() {
+    ReceivePolicy policy = connection.getReceivePolicy();
+    ReceiveQueue receiveQueue = connection.getReceiveQueue();
+    BufferPool bufferPool = connection.getBufferPool();
+    bufferSize = policy.getInitialBufferSize();
+    buffer = bufferPool.acquire(bufferSize);
+
+    try {
+      InputStream inputStream = connection.getInputStream();
+
+      while (connection.isOpen()) {
+        receiveQueue.awaitSpace();
+        if (!connection.isOpen()) {
+          break;
+        }
+
+        int filled = inputStream.read(buffer, 0, bufferSize);
+        if (filled < 0) {
+          connection.setCloseReason(Connection.CLOSE_REMOTE);
+          break;
+        }
+
+        boolean endOfStream = false;
+        if (filled < policy.getMinChunkSize() && policy.getMaxDelayMs() > 0) {
+          long deadline = System.currentTimeMillis() + policy.getMaxDelayMs();
+          while (filled < policy.getMinChunkSize() && filled < bufferSize) {
+            int available = inputStream.available();
+            if (available > 0) {
+              int bytesRead = inputStream.read(buffer, filled, Math.min(available, bufferSize - filled));
+              if (bytesRead < 0) {
+                connection.setCloseReason(Connection.CLOSE_REMOTE);
+                endOfStream = true;
+                break;
+              }
+              filled += bytesRead;
+              continue;
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+              break;
+            }
+            Thread.sleep(Math.min(remaining, POLL_INTERVAL_MS));
+          }
+        }
+
+        if (filled > 0) {
+          connection.recordReceived(filled);
+          deliver(filled);
+        }
+        if (endOfStream) {
+          break;
+        }
+
+        resize(policy, bufferPool, filled);
+      }
+    } catch (ProtocolException e) {
+      hasError = true;
+      connection.recordError(e);
+      connection.setCloseReason(Connection.CLOSE_ERROR);
+    } catch (IOException e) {
+      if (connection.isOpen()) {
+        connection.recordError(e);
+        connection.setCloseReason(Connection.CLOSE_ERROR);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      bufferPool.release(buffer);
+      buffer = null;
+    }
+
+    receiveQueue.drain(listener);
+    FileTransfer file = connection.getFileReceiver();
+    if (file != null) {
+      connection.clearFileReceiver(file);
+      if (file.isUnbounded() && !hasError) {
+        file.complete();
+      } else {
+        file.fail("Disconnected");
+      }
+    }
+    listener.onClosed(connection, hasError);
+  }
+
+  private void deliver(int length) throws ProtocolException {
+    if (!connection.isFraming()) {
+      frameDecoder = null;
+      int offset = receiveToFile(buffer, 0, length);
+      if (offset < length) {
+        connection.getReceiveQueue().offer(Arrays.copyOfRange(buffer, offset, length), listener);
+      }
+      return;
+    }
+
+    if (frameDecoder == null) {
+      frameDecoder = new FrameCodec.Decoder();
+    }
+    frameDecoder.feed(buffer, 0, length, connection.getMaxFrameSize(), frameListener);
+  }
+
+  private final FrameCodec.FrameListener frameListener = new FrameCodec.FrameListener() {
+    @Override
+    public void onFrame(byte[] frame) {
+      int offset = receiveToFile(frame, 0, frame.length);
+      if (offset == 0) {
+        connection.getReceiveQueue().offer(frame, listener);
+      } else if (offset < frame.length) {
+        connection.getReceiveQueue().offer(Arrays.copyOfRange(frame, offset, frame.length), listener);
+      }
+    }
+  };
+
+  /**
+   * Writes what the file being received still expects from the data, and
+   * returns the offset of the rest. Data is dropped if the file cannot be
+   * written.
+   */
+  private int receiveToFile(byte[] data, int offset, int end) {
+    FileTransfer file = connection.getFileReceiver();
+    if (file == null) {
+      return offset;
+    }
+
+    try {
+      offset += file.write(data, offset, end - offset);
+    } catch (IOException e) {
+      connection.clearFileReceiver(file);
+      file.fail(e.getMessage());
+      return end;
+    }
+    if (file.isDone()) {
+      connection.clearFileReceiver(file);
+      file.complete();
+    }
+    return offset;
+  }
+
+  private void resize(ReceivePolicy policy, BufferPool bufferPool, int filled) {
+    int maxChunkSize = policy.getMaxChunkSize();
+    int size = bufferSize;
+
+    if (size > maxChunkSize) {
+      size = maxChunkSize;
+    } else if (!policy.isAdaptive()) {
+      return;
+    } else if (filled == bufferSize) {
+      smallReads = 0;
+      if (++fullReads >= GROW_AFTER_FULL_READS && bufferSize < maxChunkSize) {
+        size = Math.min(maxChunkSize, bufferSize * 2);
+        fullReads = 0;
+      }
+    } else if (filled < bufferSize / 4) {
+      fullReads = 0;
+      if (++smallReads >= SHRINK_AFTER_SMALL_READS && bufferSize > policy.getInitialBufferSize()) {
+        size = Math.max(policy.getInitialBufferSize(), bufferSize / 2);
+        smallReads = 0;
+      }
+    } else {
+      fullReads = 0;
+      smallReads = 0;
+    }
+
+    if (size == bufferSize) {
+      return;
+    }
+    bufferSize = size;
+    if (size > buffer.length || size < buffer.length / 2) {
+      bufferPool.release(buffer);
+      buffer = bufferPool.acquire(size);
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package capital.spatium.plugin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Plugin wide counters that outlive single connections, and the optional
+ * periodic push of a full stats snapshot to a kept callback.
+ */
+class StatsReporter {
+  interface Source {
+    JSONObject getStats() throws JSONException;
+  }
+
+  private final IoScheduler scheduler;
+  private final Source source;
+
+  private final Histogram connectTime = new Histogram();
+  private final AtomicLong connects = new AtomicLong();
+  private final AtomicLong connectFailures = new AtomicLong();
+  private final ConcurrentHashMap<String, AtomicLong> closeReasons = new ConcurrentHashMap<String, AtomicLong>();
+
+  private CallbackContext callback = null;
+  private long intervalMs = 0;
+  private ScheduledFuture<?> pushTimer = null;
+
+  StatsReporter(IoScheduler scheduler, Source source) {
+    this.scheduler = scheduler;
+    this.source = source;
+  }
+
+  void recordConnect(long durationMs) {
+    connects.incrementAndGet();
+    connectTime.record(durationMs);
+  }
+
+  void recordConnectFailure() {
+    connectFailures.incrementAndGet();
+  }
+
+  void recordClosed(String reason) {
+    AtomicLong count = closeReasons.get(reason);
+    if (count == null) {
+      AtomicLong created = new AtomicLong();
+      count = closeReasons.putIfAbsent(reason, created);
+      if (count == null) {
+        count = created;
+      }
+    }
+    count.incrementAndGet();
+  }
+
+  JSONObject getTotals() throws JSONException {
+    JSONObject reasons = new JSONObject();
+    for (String reason : closeReasons.keySet()) {
+      reasons.put(reason, closeReasons.get(reason).get());
+    }
+
+    JSONObject totals = new JSONObject();
+    totals.put("connects", connects.get());
+    totals.put("connectFailures", connectFailures.get());
+    totals.put("connectTime", connectTime.toJSON());
+    totals.put("closeReasons", reasons);
+    return totals;
+  }
+
+  /**
+   * Pushes a snapshot to the callback every interval. A null callback or an
+   * interval of 0 stops the push.
+   */
+  synchronized void setCallback(CallbackContext callback, long intervalMs) {
+    if (pushTimer != null) {
+      pushTimer.cancel(false);
+      pushTimer = null;
+    }
+    this.callback = intervalMs > 0 ? callback : null;
+    this.intervalMs = intervalMs;
+    schedulePush();
+  }
+
+  synchronized void stop() {
+    setCallback(null, 0);
+  }
+
+  private void schedulePush() {
+    if (callback == null) {
+      return;
+    }
+    try {
+      pushTimer = scheduler.schedule(pushTask, intervalMs);
+    } catch (RejectedExecutionException e) {
+      pushTimer = null;
+    }
+  }
+
+  private final Runnable pushTask = new Runnable() {
+    @Override
+    public void run() {
+      CallbackContext target;
+      synchronized (StatsReporter.this) {
+        target = callback;
+      }
+      if (target == null) {
+        return;
+      }
+
+      try {
+        PluginResult result = new PluginResult(PluginResult.Status.OK, source.getStats());
+        result.setKeepCallback(true);
+        target.sendPluginResult(result);
+      } catch (JSONException ignored) {}
+
+      synchronized (StatsReporter.this) {
+        if (callback == target) {
+          schedulePush();
+        }
+      }
+    }
+  };
+}
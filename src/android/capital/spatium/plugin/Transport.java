@@ -0,0 +1,24 @@
+package capital.spatium.plugin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Creates client and server sockets for a particular link technology: RFCOMM
+ * on devices, or the in-process loopback of the bench module in tests and
+ * benchmarks.
+ */
+interface Transport {
+  /**
+   * Receives the socket of a connect in progress, so that another thread can
+   * abort the connect by closing it.
+   */
+  interface ConnectListener {
+    void onConnecting(Closeable socket) throws IOException;
+  }
+
+  TransportSocket connect(String address, UUID serviceUuid, ConnectListener listener) throws IOException;
+
+  TransportServerSocket listen(String serviceName, UUID serviceUuid) throws IOException;
+}
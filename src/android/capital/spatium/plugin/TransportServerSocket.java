@@ -0,0 +1,8 @@
+package capital.spatium.plugin;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+interface TransportServerSocket extends Closeable {
+  TransportSocket accept() throws IOException;
+}
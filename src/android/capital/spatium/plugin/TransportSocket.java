@@ -0,0 +1,16 @@
+package capital.spatium.plugin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+interface TransportSocket extends Closeable {
+  InputStream getInputStream() throws IOException;
+
+  OutputStream getOutputStream() throws IOException;
+
+  String getRemoteName();
+
+  String getRemoteAddress();
+}
@@ -0,0 +1,333 @@
+package capital.spatium.plugin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.cordova.CallbackContext;
+
+/**
+ * Bounded outbound queue of a single connection. Writes are drained by one
+ * writer task at a time, small writes are coalesced into a pooled frame and
+ * every write is acknowledged in order once it has been flushed. Files are
+ * streamed from disk a chunk at a time in their place in the queue.
+ */
+class WriteQueue {
+  interface Listener {
+    void onDrain(String socketKey, long bufferedAmount);
+  }
+
+  private static final int MAX_COALESCED_BYTES = 64 * 1024;
+  private static final int FILE_CHUNK_SIZE = 64 * 1024;
+  private static final int MAX_HEADER_SIZE = 5;
+
+  private final Connection connection;
+  private final Executor executor;
+  private final Listener listener;
+  private final ArrayDeque<PendingWrite> queue = new ArrayDeque<PendingWrite>();
+
+  private long bufferedAmount = 0;
+  private boolean draining = false;
+  private boolean aboveHighWatermark = false;
+  private boolean closed = false;
+
+  private long highWatermark = 64 * 1024;
+  private long lowWatermark = 16 * 1024;
+  private long limit = 1024 * 1024;
+
+  WriteQueue(Connection connection, Executor executor, Listener listener) {
+    this.connection = connection;
+    this.executor = executor;
+    this.listener = listener;
+  }
+
+  synchronized void setWatermarks(long highWatermark, long lowWatermark, long limit) {
+    this.highWatermark = Math.max(1, highWatermark);
+    this.lowWatermark = Math.max(0, Math.min(lowWatermark, this.highWatermark));
+    this.limit = Math.max(this.highWatermark, limit);
+  }
+
+  synchronized long getHighWatermark() {
+    return highWatermark;
+  }
+
+  synchronized long getLowWatermark() {
+    return lowWatermark;
+  }
+
+  synchronized long getLimit() {
+    return limit;
+  }
+
+  synchronized long getBufferedAmount() {
+    return bufferedAmount;
+  }
+
+  void enqueue(byte[] data, CallbackContext callbackContext) throws IOException {
+    enqueue(new byte[][] { data }, callbackContext);
+  }
+
+  /**
+   * Queues a write made of several parts, such as frame headers and payloads,
+   * which are sent back to back and acknowledged together. The callback may
+   * be null for writes made by the plugin itself.
+   */
+  void enqueue(byte[][] parts, CallbackContext callbackContext) throws IOException {
+    enqueue(new PendingWrite(parts, callbackContext));
+  }
+
+  /**
+   * Queues a file to be sent after the writes before it. The file is read as
+   * it is sent, so it does not count towards the buffered amount.
+   */
+  void enqueue(FileTransfer file) throws IOException {
+    enqueue(new PendingWrite(file));
+  }
+
+  private void enqueue(PendingWrite pendingWrite) throws IOException {
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("Not connected");
+      }
+      if (bufferedAmount > 0 && bufferedAmount + pendingWrite.length > limit) {
+        throw new IOException("Write queue is full");
+      }
+
+      queue.add(pendingWrite);
+      bufferedAmount += pendingWrite.length;
+      if (bufferedAmount >= highWatermark) {
+        aboveHighWatermark = true;
+      }
+
+      if (draining) {
+        return;
+      }
+      draining = true;
+    }
+
+    try {
+      executor.execute(drainTask);
+    } catch (RejectedExecutionException e) {
+      synchronized (this) {
+        queue.remove(pendingWrite);
+        bufferedAmount -= pendingWrite.length;
+        draining = false;
+      }
+      throw new IOException("Too many writers");
+    }
+  }
+
+  void close() {
+    List<PendingWrite> pending;
+    synchronized (this) {
+      closed = true;
+      pending = new ArrayList<PendingWrite>(queue);
+      queue.clear();
+    }
+
+    for (PendingWrite write : pending) {
+      write.fail("Disconnected");
+    }
+  }
+
+  private final Runnable drainTask = new Runnable() {
+    @Override
+    public void run() {
+      drain();
+    }
+  };
+
+  private void drain() {
+    List<PendingWrite> batch = new ArrayList<PendingWrite>();
+
+    while (true) {
+      int bytes = 0;
+      PendingWrite file = null;
+      synchronized (this) {
+        if (queue.isEmpty() || closed) {
+          draining = false;
+          return;
+        }
+
+        if (queue.peek().file != null) {
+          file = queue.peek();
+        }
+        while (file == null && !queue.isEmpty() && queue.peek().file == null
+                && (batch.isEmpty() || bytes + queue.peek().length <= MAX_COALESCED_BYTES)) {
+          PendingWrite write = queue.poll();
+          bytes += write.length;
+          batch.add(write);
+        }
+      }
+
+      if (file != null) {
+        try {
+          if (writeFileChunk(file.file)) {
+            synchronized (this) {
+              queue.remove(file);
+            }
+          }
+        } catch (IOException e) {
+          batch.add(file);
+          failBatch(batch, e);
+          return;
+        }
+        continue;
+      }
+
+      try {
+        writeBatch(batch, bytes);
+        connection.recordSent(bytes, batch.size());
+      } catch (IOException e) {
+        failBatch(batch, e);
+        return;
+      }
+
+      boolean drained = false;
+      long remaining;
+      synchronized (this) {
+        bufferedAmount -= bytes;
+        remaining = bufferedAmount;
+        if (aboveHighWatermark && bufferedAmount <= lowWatermark) {
+          aboveHighWatermark = false;
+          drained = true;
+        }
+      }
+
+      long now = System.currentTimeMillis();
+      for (PendingWrite write : batch) {
+        connection.recordWriteLatency(now - write.queuedAt);
+        write.succeed();
+      }
+      batch.clear();
+
+      if (drained && listener != null) {
+        listener.onDrain(connection.getSocketKey(), remaining);
+      }
+    }
+  }
+
+  private void failBatch(List<PendingWrite> batch, IOException e) {
+    if (connection.isOpen()) {
+      connection.recordError(e);
+      connection.setCloseReason(Connection.CLOSE_ERROR);
+    }
+    for (PendingWrite write : batch) {
+      write.fail("Disconnected");
+    }
+    synchronized (this) {
+      draining = false;
+    }
+    close();
+  }
+
+  /**
+   * Sends the next chunk of the file, as one frame when framing is enabled.
+   * Returns true once the file has ended, either sent in full or failed to
+   * read; only failures of the socket are thrown.
+   */
+  private boolean writeFileChunk(FileTransfer file) throws IOException {
+    boolean framing = connection.isFraming();
+    int chunkSize = framing ? Math.max(1, Math.min(FILE_CHUNK_SIZE, connection.getMaxFrameSize())) : FILE_CHUNK_SIZE;
+    BufferPool bufferPool = connection.getBufferPool();
+    byte[] chunk = bufferPool.acquire(MAX_HEADER_SIZE + chunkSize);
+    try {
+      int length;
+      try {
+        length = file.read(chunk, MAX_HEADER_SIZE, chunkSize);
+      } catch (IOException e) {
+        file.fail(e.getMessage());
+        return true;
+      }
+
+      if (length > 0) {
+        int start = MAX_HEADER_SIZE;
+        if (framing) {
+          start -= FrameCodec.varintSize(length);
+          FrameCodec.writeVarint(chunk, start, length);
+        }
+        OutputStream stream = connection.getOutputStream();
+        stream.write(chunk, start, MAX_HEADER_SIZE + length - start);
+        stream.flush();
+        connection.recordSent(length, 1);
+      }
+      if (!file.isDone()) {
+        return false;
+      }
+      file.complete();
+      return true;
+    } finally {
+      bufferPool.release(chunk);
+    }
+  }
+
+  private void writeBatch(List<PendingWrite> batch, int bytes) throws IOException {
+    OutputStream stream = connection.getOutputStream();
+    if (batch.size() == 1 && (batch.get(0).parts.length == 1 || bytes > MAX_COALESCED_BYTES)) {
+      for (byte[] part : batch.get(0).parts) {
+        stream.write(part);
+      }
+      stream.flush();
+      return;
+    }
+
+    BufferPool bufferPool = connection.getBufferPool();
+    byte[] frame = bufferPool.acquire(bytes);
+    try {
+      int offset = 0;
+      for (PendingWrite write : batch) {
+        for (byte[] part : write.parts) {
+          System.arraycopy(part, 0, frame, offset, part.length);
+          offset += part.length;
+        }
+      }
+      stream.write(frame, 0, bytes);
+      stream.flush();
+    } finally {
+      bufferPool.release(frame);
+    }
+  }
+
+  private static class PendingWrite {
+    private final byte[][] parts;
+    private final int length;
+    private final CallbackContext callbackContext;
+    private final FileTransfer file;
+    private final long queuedAt = System.currentTimeMillis();
+
+    PendingWrite(byte[][] parts, CallbackContext callbackContext) {
+      int length = 0;
+      for (byte[] part : parts) {
+        length += part.length;
+      }
+      this.parts = parts;
+      this.length = length;
+      this.callbackContext = callbackContext;
+      this.file = null;
+    }
+
+    PendingWrite(FileTransfer file) {
+      this.parts = null;
+      this.length = 0;
+      this.callbackContext = null;
+      this.file = file;
+    }
+
+    void succeed() {
+      if (callbackContext != null) {
+        callbackContext.success();
+      }
+    }
+
+    void fail(String message) {
+      if (file != null) {
+        file.fail(message);
+      } else if (callbackContext != null) {
+        callbackContext.error(message);
+      }
+    }
+  }
+}
@@ -529,7 +529,7 @@ cordova.commandProxy.add("Bluetooth", {
   write: async (successCallback, errorCallback, params) => {
     try {
       const socketKey = params[0];
-      const data = params[1];
+      const data = new Uint8Array(params[1]);
 
       plugin.writers[socketKey].writeBytes(data);
       await plugin.writers[socketKey].storeAsync();
@@ -21,13 +21,21 @@ function BluetoothSocket(socketKey) {
   this.onData = null;
   this.onClose = null;
   this.onError = null;
+  this.onDrain = null;
+  this.onReconnecting = null;
+  this.onReconnected = null;
+  this.onChannel = null;
+  this.bufferedAmount = 0;
+  this.options = null;
   this.socketKey = socketKey || guid();
+  this._eventHandler = null;
 }
 
 function BluetoothServerSocket(serverSocketKey) {
   this._state = BluetoothServerSocket.State.STOPPED;
   this.onOpened = null;
   this.onStopped = null;
+  this.options = null;
   this.serverSocketKey = serverSocketKey || guid();
 }
 
@@ -49,40 +57,8 @@ BluetoothServerSocket.prototype.start = function (success, error) {
       switch (payload.type) {
       case "Connected":
           var socket = new BluetoothSocket(payload.socketKey);
-
-          var socketEventHandler = (event) => {
-              var payload = event.payload;
-
-              if (payload.socketKey !== socket.socketKey) {
-                  return;
-              }
-
-              switch (payload.type) {
-              case "Close":
-                  socket._state = BluetoothSocket.State.CLOSED;
-                  window.document.removeEventListener(SOCKET_EVENT, socketEventHandler);
-                  if (socket.onClose) {
-                      socket.onClose(payload.hasError);
-                  }
-                  break;
-              case "DataReceived":
-                  if (socket.onData) {
-                      socket.onData(new Uint8Array(payload.data));
-                  }
-                  break;
-              case "Error":
-                  if (socket.onError) {
-                      socket.onError(payload.errorMessage);
-                  }
-                  break;
-              default:
-                  console.error("BluetoothSocketsForCordova: Unknown event type " + payload.type + ", socket key: " + payload.socketKey);
-                  break;
-              }
-          };
-
           socket._state = BluetoothSocket.State.OPENED;
-          window.document.addEventListener(SOCKET_EVENT, socketEventHandler);
+          socket._addEventHandler();
 
           if (this.onOpened) {
               this.onOpened(socket);
@@ -115,7 +91,7 @@ BluetoothServerSocket.prototype.start = function (success, error) {
       },
       CORDOVA_SERVICE_NAME,
       "startServer",
-      [ this.serverSocketKey ]
+      [ this.serverSocketKey, this.options ]
   );
 };
 
@@ -150,6 +126,29 @@ BluetoothServerSocket.prototype.stopAsync = function () {
     });
 };
 
+BluetoothServerSocket.prototype.getStats = function (success, error) {
+    success = success || (() => {});
+    error = error || (() => {});
+
+    if (!this._ensureState(BluetoothServerSocket.State.STARTED, error)) {
+        return;
+    }
+
+    exec(
+        success,
+        error,
+        CORDOVA_SERVICE_NAME,
+        "getServerStats",
+        [ this.serverSocketKey ]
+    );
+};
+
+BluetoothServerSocket.prototype.getStatsAsync = function () {
+    return new Promise((resolve, reject) => {
+        return this.getStats(resolve, reject);
+    });
+};
+
 BluetoothSocket.prototype.open = function (host, success, error) {
     success = success || (() => {});
     error = error || (() => {});
@@ -158,6 +157,144 @@ BluetoothSocket.prototype.open = function (host, success, error) {
         return;
     }
 
+    this._state = BluetoothSocket.State.OPENING;
+
+    exec(
+        () => {
+            this._state = BluetoothSocket.State.OPENED;
+            this._addEventHandler();
+            success();
+        },
+        (errorMessage) => {
+            this._state = BluetoothSocket.State.CLOSED;
+            error(errorMessage);
+        },
+        CORDOVA_SERVICE_NAME,
+        "open",
+        [ this.socketKey, host, this.options ]
+    );
+};
+
+BluetoothSocket.prototype.openAsync = function (host) {
+    return new Promise((resolve, reject) => {
+        return this.open(host, resolve, reject);
+    });
+};
+
+BluetoothSocket.prototype.cancelOpen = function (success, error) {
+    success = success || (() => {});
+    error = error || (() => {});
+
+    if (!this._ensureState(BluetoothSocket.State.OPENING, error)) {
+        return;
+    }
+
+    exec(
+        success,
+        error,
+        CORDOVA_SERVICE_NAME,
+        "cancelOpen",
+        [ this.socketKey ]
+    );
+};
+
+BluetoothSocket.openMany = function (targets, options) {
+    options = options || {};
+
+    return new Promise((resolve, reject) => {
+        var sockets = {};
+        var args = [];
+
+        for (var target of targets) {
+            if (!target.socket._ensureState(BluetoothSocket.State.CLOSED, reject)) {
+                return;
+            }
+            sockets[target.socket.socketKey] = target.socket;
+            args.push({
+                socketKey: target.socket.socketKey,
+                address: target.host,
+                options: Object.assign({}, options, target.socket.options)
+            });
+        }
+
+        // Each socket starts reading as soon as it connects, so its handler
+        // must be in place before the first connect finishes.
+        for (var socketKey in sockets) {
+            sockets[socketKey]._state = BluetoothSocket.State.OPENING;
+            sockets[socketKey]._addEventHandler();
+        }
+
+        exec(
+            (result) => {
+                if (result.target) {
+                    var socket = sockets[result.target.socketKey];
+                    if (!socket || socket._state !== BluetoothSocket.State.OPENING) {
+                        return;
+                    }
+                    if (result.target.connected) {
+                        socket._state = BluetoothSocket.State.OPENED;
+                    } else {
+                        socket._state = BluetoothSocket.State.CLOSED;
+                        socket._removeEventHandler();
+                    }
+                    return;
+                }
+                resolve(result);
+            },
+            (errorMessage) => {
+                for (var socketKey in sockets) {
+                    sockets[socketKey]._state = BluetoothSocket.State.CLOSED;
+                    sockets[socketKey]._removeEventHandler();
+                }
+                reject(errorMessage);
+            },
+            CORDOVA_SERVICE_NAME,
+            "openMany",
+            [ args, options ]
+        );
+    });
+};
+
+BluetoothSocket.cancelOpenMany = function (batchKey) {
+    return new Promise((resolve, reject) => {
+        exec(resolve, reject, CORDOVA_SERVICE_NAME, "cancelOpenMany", [ batchKey ]);
+    });
+};
+
+BluetoothSocket.prototype.openChannel = function (channel, success, error) {
+    success = success || (() => {});
+    error = error || (() => {});
+
+    if (!this._ensureState(BluetoothSocket.State.OPENED, error)
+        || !channel._ensureState(BluetoothSocket.State.CLOSED, error)) {
+        return;
+    }
+
+    channel._state = BluetoothSocket.State.OPENING;
+
+    exec(
+        () => {
+            channel._state = BluetoothSocket.State.OPENED;
+            channel._addEventHandler();
+            success(channel);
+        },
+        (errorMessage) => {
+            channel._state = BluetoothSocket.State.CLOSED;
+            error(errorMessage);
+        },
+        CORDOVA_SERVICE_NAME,
+        "openChannel",
+        [ this.socketKey, channel.socketKey, channel.options ]
+    );
+};
+
+BluetoothSocket.prototype.openChannelAsync = function (channel) {
+    return new Promise((resolve, reject) => {
+        return this.openChannel(channel, resolve, reject);
+    });
+};
+
+BluetoothSocket.prototype._addEventHandler = function () {
     var socketEventHandler = (event) => {
         var payload = event.payload;
 
@@ -166,9 +303,12 @@ BluetoothSocket.prototype.open = function (host, success, error) {
         }
 
         switch (payload.type) {
+        case "Connected":
+            // Already reported by the success callback of open()
+            break;
         case "Close":
             this._state = BluetoothSocket.State.CLOSED;
-            window.document.removeEventListener(SOCKET_EVENT, socketEventHandler);
+            this._removeEventHandler();
             if (this.onClose) {
                 this.onClose(payload.hasError);
             }
@@ -183,37 +323,164 @@ BluetoothSocket.prototype.open = function (host, success, error) {
                 this.onError(payload.errorMessage);
             }
             break;
+        case "Drain":
+            if (this.onDrain) {
+                this.onDrain();
+            }
+            break;
+        case "Reconnecting":
+            if (this.onReconnecting) {
+                this.onReconnecting();
+            }
+            break;
+        case "Reconnected":
+            if (this.onReconnected) {
+                this.onReconnected({ latency: payload.latency, bytesReplayed: payload.bytesReplayed });
+            }
+            break;
+        case "ChannelOpened":
+            var channel = new BluetoothSocket(payload.channelSocketKey);
+            channel._state = BluetoothSocket.State.OPENED;
+            channel._addEventHandler();
+            if (this.onChannel) {
+                this.onChannel(channel);
+            }
+            break;
         default:
             console.error("BluetoothSocketsForCordova: Unknown event type " + payload.type + ", socket key: " + payload.socketKey);
             break;
         }
     };
 
-    this._state = BluetoothSocket.State.OPENING;
+    this._removeEventHandler();
+    this._eventHandler = socketEventHandler;
+    window.document.addEventListener(SOCKET_EVENT, socketEventHandler);
+};
+
+BluetoothSocket.prototype._removeEventHandler = function () {
+    if (this._eventHandler) {
+        window.document.removeEventListener(SOCKET_EVENT, this._eventHandler);
+        this._eventHandler = null;
+    }
+};
+
+BluetoothSocket.prototype.write = function (data, success, error) {
+    success = success || (() => {});
+    error = error || (() => {});
+
+    if (!this._ensureState(BluetoothSocket.State.OPENED, error)) {
+        return;
+    }
+
+    var dataToWrite = BluetoothSocket._toArrayBuffer(data);
+    var byteLength = dataToWrite.byteLength;
+    this.bufferedAmount += byteLength;
 
     exec(
         () => {
-            this._state = BluetoothSocket.State.OPENED;
-            window.document.addEventListener(SOCKET_EVENT, socketEventHandler);
+            this.bufferedAmount -= byteLength;
             success();
         },
         (errorMessage) => {
-            this._state = BluetoothSocket.State.CLOSED;
+            this.bufferedAmount -= byteLength;
             error(errorMessage);
         },
         CORDOVA_SERVICE_NAME,
-        "open",
-        [ this.socketKey, host ]
+        "write",
+        [ this.socketKey, dataToWrite ]
     );
 };
 
-BluetoothSocket.prototype.openAsync = function (host) {
+BluetoothSocket.prototype.writeAsync = function (data) {
     return new Promise((resolve, reject) => {
-        return this.open(host, resolve, reject);
+        return this.write(data, resolve, reject);
     });
 };
 
-BluetoothSocket.prototype.write = function (data, success, error) {
+BluetoothSocket.prototype.writeFrames = function (frames, success, error) {
+    success = success || (() => {});
+    error = error || (() => {});
+
+    if (!this._ensureState(BluetoothSocket.State.OPENED, error)) {
+        return;
+    }
+
+    var buffers = frames.map(BluetoothSocket._toArrayBuffer);
+    var byteLength = buffers.reduce((total, buffer) => total + buffer.byteLength, 0);
+    this.bufferedAmount += byteLength;
+
+    exec(
+        () => {
+            this.bufferedAmount -= byteLength;
+            success();
+        },
+        (errorMessage) => {
+            this.bufferedAmount -= byteLength;
+            error(errorMessage);
+        },
+        CORDOVA_SERVICE_NAME,
+        "writeFrames",
+        [ this.socketKey, buffers.length ].concat(buffers)
+    );
+};
+
+BluetoothSocket.prototype.writeFramesAsync = function (frames) {
+    return new Promise((resolve, reject) => {
+        return this.writeFrames(frames, resolve, reject);
+    });
+};
+
+BluetoothSocket.prototype.sendFile = function (path, options, success, error, progress) {
+    options = options || {};
+    success = success || (() => {});
+    error = error || (() => {});
+    progress = progress || (() => {});
+
+    if (!this._ensureState(BluetoothSocket.State.OPENED, error)) {
+        return;
+    }
+
+    exec(
+        (result) => result.done ? success(result) : progress(result),
+        error,
+        CORDOVA_SERVICE_NAME,
+        "sendFile",
+        [ this.socketKey, path, options.offset, options.length, options.progressInterval ]
+    );
+};
+
+BluetoothSocket.prototype.sendFileAsync = function (path, options, progress) {
+    return new Promise((resolve, reject) => {
+        return this.sendFile(path, options, resolve, reject, progress);
+    });
+};
+
+BluetoothSocket.prototype.receiveToFile = function (path, options, success, error, progress) {
+    options = options || {};
+    success = success || (() => {});
+    error = error || (() => {});
+    progress = progress || (() => {});
+
+    if (!this._ensureState(BluetoothSocket.State.OPENED, error)) {
+        return;
+    }
+
+    exec(
+        (result) => result.done ? success(result) : progress(result),
+        error,
+        CORDOVA_SERVICE_NAME,
+        "receiveToFile",
+        [ this.socketKey, path, options.length, options.progressInterval ]
+    );
+};
+
+BluetoothSocket.prototype.receiveToFileAsync = function (path, options, progress) {
+    return new Promise((resolve, reject) => {
+        return this.receiveToFile(path, options, resolve, reject, progress);
+    });
+};
+
+BluetoothSocket.prototype.pause = function (success, error) {
     success = success || (() => {});
     error = error || (() => {});
 
@@ -221,22 +488,110 @@ BluetoothSocket.prototype.write = function (data, success, error) {
         return;
     }
 
-    var dataToWrite = data instanceof Uint8Array
-        ? BluetoothSocket._copyToArray(data)
-        : data;
+    exec(
+        success,
+        error,
+        CORDOVA_SERVICE_NAME,
+        "pause",
+        [ this.socketKey ]
+    );
+};
+
+BluetoothSocket.prototype.pauseAsync = function () {
+    return new Promise((resolve, reject) => {
+        return this.pause(resolve, reject);
+    });
+};
+
+BluetoothSocket.prototype.resume = function (success, error) {
+    success = success || (() => {});
+    error = error || (() => {});
+
+    if (!this._ensureState(BluetoothSocket.State.OPENED, error)) {
+        return;
+    }
 
     exec(
         success,
         error,
         CORDOVA_SERVICE_NAME,
-        "write",
-        [ this.socketKey, dataToWrite ]
+        "resume",
+        [ this.socketKey ]
     );
 };
 
-BluetoothSocket.prototype.writeAsync = function (data) {
+BluetoothSocket.prototype.resumeAsync = function () {
     return new Promise((resolve, reject) => {
-        return this.write(data, resolve, reject);
+        return this.resume(resolve, reject);
+    });
+};
+
+BluetoothSocket.prototype.setOptions = function (options, success, error) {
+    success = success || (() => {});
+    error = error || (() => {});
+
+    if (!this._ensureState(BluetoothSocket.State.OPENED, error)) {
+        return;
+    }
+
+    exec(
+        success,
+        error,
+        CORDOVA_SERVICE_NAME,
+        "setOptions",
+        [ this.socketKey, options ]
+    );
+};
+
+BluetoothSocket.prototype.setOptionsAsync = function (options) {
+    return new Promise((resolve, reject) => {
+        return this.setOptions(options, resolve, reject);
+    });
+};
+
+BluetoothSocket.prototype.getStats = function (success, error) {
+    success = success || (() => {});
+    error = error || (() => {});
+
+    if (!this._ensureState(BluetoothSocket.State.OPENED, error)) {
+        return;
+    }
+
+    exec(
+        success,
+        error,
+        CORDOVA_SERVICE_NAME,
+        "getSocketStats",
+        [ this.socketKey ]
+    );
+};
+
+BluetoothSocket.prototype.getStatsAsync = function () {
+    return new Promise((resolve, reject) => {
+        return this.getStats(resolve, reject);
+    });
+};
+
+BluetoothSocket.prototype.getLinkQuality = function (success, error) {
+    success = success || (() => {});
+    error = error || (() => {});
+
+    if (!this._ensureState(BluetoothSocket.State.OPENED, error)) {
+        return;
+    }
+
+    exec(
+        success,
+        error,
+        CORDOVA_SERVICE_NAME,
+        "getLinkQuality",
+        [ this.socketKey ]
+    );
+};
+
+BluetoothSocket.prototype.getLinkQualityAsync = function () {
+    return new Promise((resolve, reject) => {
+        return this.getLinkQuality(resolve, reject);
     });
 };
 
@@ -346,16 +701,19 @@ BluetoothServerSocket.dispatchEvent = function (event) {
     document.dispatchEvent(eventReceive);
 };
 
-BluetoothSocket._copyToArray = function (array) {
-    var outputArray = new Array(array.length);
-    for (var i = 0; i < array.length; i++) {
-        outputArray[i] = array[i];
+BluetoothSocket._toArrayBuffer = function (data) {
+    if (data instanceof ArrayBuffer) {
+        return data;
+    }
+    if (ArrayBuffer.isView(data)) {
+        return data.byteOffset === 0 && data.byteLength === data.buffer.byteLength
+            ? data.buffer
+            : data.buffer.slice(data.byteOffset, data.byteOffset + data.byteLength);
     }
-    return outputArray;
+    return new Uint8Array(data).buffer;
 };
 
 var devices = new Map();
-var previousDiscoveredDevices = new Map();
 var deviceDiscoveredCallback, deviceGoneCallback;
 exports.setDeviceDiscoveredCallback = function(callback) {
     deviceDiscoveredCallback = callback;
@@ -392,6 +750,36 @@ if (navigator.userAgent.match(/iemobile/i)) {
     });
 }
 
+// Register batched event channel for Android, each batch carries events in order,
+// binary DataReceived events are followed by their ArrayBuffer payload
+BluetoothSocket._dispatchEventBatch = function () {
+    for (var i = 0; i < arguments.length; i++) {
+        var event = arguments[i];
+        if (event.binary) {
+            event.data = arguments[++i];
+        }
+
+        if (event.channel === "server") {
+            BluetoothServerSocket.dispatchEvent(event);
+        } else {
+            BluetoothSocket.dispatchEvent(event);
+        }
+    }
+};
+
+if (cordova.platformId === "android") {
+    window.document.addEventListener("deviceready", function () {
+        exec(
+            BluetoothSocket._dispatchEventBatch,
+            function (errorMessage) {
+                console.error("BluetoothSocketsForCordova: Cannot register event channel, Error: " + errorMessage);
+            },
+            CORDOVA_SERVICE_NAME,
+            "setEventCallback",
+            [ ]);
+    });
+}
+
 exports.getSupported = function(){
   return new Promise(function(success,error) {
     exec(success, error, "Bluetooth", "getSupported", []);
@@ -434,24 +822,20 @@ var listPairedDevices = function() {
   });
 };
 
-var discoveryInProgress = false;
 var state = 12;
 var startDiscovery = function() {
   return new Promise(function(success,error) {
   exec(
       () => {
-          discoveryInProgress = true;
-
           setInternalStateCallback(function (newState) {
             if (newState == 10) {
               devices.clear();
-              previousDiscoveredDevices.clear();
             }
 
             if (newState == 12) {
               listPairedDevices().then(function (pairedDevices) {
                 pairedDevices.forEach(function (device) {
-                    if (deviceDiscoveredCallback && !devices.has(device.address) && !previousDiscoveredDevices.has(device.address)) {
+                    if (deviceDiscoveredCallback && !devices.has(device.address)) {
                     devices.set(device.address, device);
                     deviceDiscoveredCallback({
                         address: device.address,
@@ -467,7 +851,7 @@ var startDiscovery = function() {
 
           listPairedDevices().then(function(pairedDevices) {
             pairedDevices.forEach(function (device) {
-              if (state == 12 && deviceDiscoveredCallback && !devices.has(device.address) && !previousDiscoveredDevices.has(device.address)) {
+              if (state == 12 && deviceDiscoveredCallback && !devices.has(device.address)) {
                 devices.set(device.address, device);
                 deviceDiscoveredCallback({
                   address: device.address,
@@ -478,60 +862,48 @@ var startDiscovery = function() {
             });
           });
 
-          setInternalDiscoveryCallback(function (result) {
-            if (!result && discoveryInProgress) {
-              previousDiscoveredDevices.forEach(function(device) {
-                if(devices.has(device.address))
-                  return;
-
-                if(deviceGoneCallback) {
+          setDiscoveredBatchCallback(function(updates) {
+            updates.forEach(function(device) {
+              if (device.status === "gone") {
+                if (devices.delete(device.address) && deviceGoneCallback) {
                   deviceGoneCallback({
                     address: device.address,
                     name: device.name
                   });
                 }
-              });
-
-              previousDiscoveredDevices = new Map(devices);
-              devices.clear();
-              startDiscovery(success, error);
-            }
-          });
-
-          setDiscoveredCallback(function(device) {
-            if (devices.has(device.address)) {
-
-              deviceGoneCallback({
-                address: device.address,
-                name: device.name
-              });
+                return;
+              }
 
               const registeredDevice = devices.get(device.address);
-              registeredDevice.name = device.name;
+              if (registeredDevice && registeredDevice.name === device.name) {
+                Object.assign(registeredDevice, device);
+                return;
+              }
 
-              deviceDiscoveredCallback({
-                address: device.address,
-                name: device.name,
-                paired: false
-              });
-              return;
-            }
+              if (registeredDevice && deviceGoneCallback) {
+                deviceGoneCallback({
+                  address: registeredDevice.address,
+                  name: registeredDevice.name
+                });
+              }
 
-            devices.set(device.address, device);
+              devices.set(device.address, Object.assign(registeredDevice || {}, device));
 
-            if (deviceDiscoveredCallback && !previousDiscoveredDevices.has(device.address)) {
+              if (deviceDiscoveredCallback) {
                 deviceDiscoveredCallback({
                   address: device.address,
                   name: device.name,
-                  paired: false
+                  paired: false,
+                  rssi: device.rssi,
+                  deviceClass: device.deviceClass
                 });
               }
+            });
           });
 
           success();
       },
       (errorMessage) => {
-        discoveryInProgress = false;
         error(errorMessage);
       },
       CORDOVA_SERVICE_NAME,
@@ -543,7 +915,6 @@ var startDiscovery = function() {
 
 var cancelDiscovery = function() {
   return new Promise(function(success,error) {
-    discoveryInProgress = false;
     exec(success, error, "Bluetooth", "cancelDiscovery", []);
   });
 };
@@ -566,20 +937,132 @@ exports.disconnect = function() {
 	});
 };
 
+exports.getPairedDevices = function(etag) {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "getPairedDevices", [etag]);
+  });
+};
+
+exports.setPairedDevicesCallback = function(callback) {
+  exec(callback, null, "Bluetooth", "setPairedDevicesCallback", []);
+};
+
 exports.setDiscoverableCallback = function(callback) {
   exec(callback, null, "Bluetooth", "setDiscoverableCallback", []);
 };
 
+// Receives arrays of { status: "new" | "changed" | "gone", name, address, rssi, ... },
+// platforms without batching report one device at a time
+var setDiscoveredBatchCallback = function(callback) {
+  exec(function(updates) {
+    callback(Array.isArray(updates) ? updates : [ updates ]);
+  }, null, "Bluetooth", "setDiscoveredCallback", []);
+};
+
+// Receives one { name, address } per device found or changed
 var setDiscoveredCallback = function(callback) {
-  exec(callback, null, "Bluetooth", "setDiscoveredCallback", []);
+  setDiscoveredBatchCallback(function(updates) {
+    updates.forEach(function(device) {
+      if (device.status !== "gone") {
+        callback({
+          name: device.name,
+          address: device.address
+        });
+      }
+    });
+  });
+};
+
+exports.setDiscoveryOptions = function(options) {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "setDiscoveryOptions", [options]);
+  });
+};
+
+exports.getDiscoveredDevices = function() {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "getDiscoveredDevices", []);
+  });
 };
 
 var setDiscoveryCallback = function(callback) {
   exec(callback, null, "Bluetooth", "setDiscoveryCallback", []);
 };
 
-var setInternalDiscoveryCallback = function(callback) {
-  exec(callback, null, "Bluetooth", "setInternalDiscoveryCallback", []);
+exports.getDiscoveryStats = function() {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "getDiscoveryStats", []);
+  });
+};
+
+exports.setEventChannelOptions = function(options) {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "setEventChannelOptions", [options]);
+  });
+};
+
+exports.getEventChannelStats = function() {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "getEventChannelStats", []);
+  });
+};
+
+exports.setSchedulerOptions = function(options) {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "setSchedulerOptions", [options]);
+  });
+};
+
+exports.getSchedulerStats = function() {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "getSchedulerStats", []);
+  });
+};
+
+exports.setPoolOptions = function(options) {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "setPoolOptions", [options]);
+  });
+};
+
+exports.getPoolStats = function() {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "getPoolStats", []);
+  });
+};
+
+exports.setChannelCacheOptions = function(options) {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "setChannelCacheOptions", [options]);
+  });
+};
+
+exports.getChannelCacheStats = function() {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "getChannelCacheStats", []);
+  });
+};
+
+exports.clearChannelCache = function() {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "clearChannelCache", []);
+  });
+};
+
+exports.getBufferPoolStats = function() {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "getBufferPoolStats", []);
+  });
+};
+
+exports.getStats = function() {
+  return new Promise(function(success,error) {
+    exec(success, error, "Bluetooth", "getStats", []);
+  });
+};
+
+exports.setStatsCallback = function(callback, interval) {
+  exec(callback, null, "Bluetooth", "setStatsCallback", [interval || 0]);
 };
 
 exports.setSupportedCallback = function(callback) {
@@ -605,6 +1088,7 @@ exports.BluetoothServerSocket = BluetoothServerSocket;
 exports.setDiscoveryCallback = setDiscoveryCallback;
 exports.startDiscovery = startDiscovery;
 exports.setDiscoveredCallback = setDiscoveredCallback;
+exports.setDiscoveredBatchCallback = setDiscoveredBatchCallback;
 exports.cancelDiscovery = cancelDiscovery;
 exports.listPairedDevices = listPairedDevices;
 exports.setStateCallback = setStateCallback;